@@ -0,0 +1,85 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.axiom.om.OMNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fi.mystes.synapse.mediator.batch.BatchLimits;
+import fi.mystes.synapse.mediator.batch.SplitBatchSource;
+
+/**
+ * Cost of batching split elements: producing the batch views by count and
+ * computing batch boundaries by serialized size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+
+    @Param({ "100", "10000", "1000000" })
+    public int elementCount;
+
+    @Param({ "1", "20" })
+    public int fieldsPerElement;
+
+    @Param({ "1", "100", "1000" })
+    public int batchSize;
+
+    private OMNode[] elements;
+
+    private BatchLimits byteLimits;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<OMNode> split = Payloads.elements(elementCount, fieldsPerElement);
+        elements = split.toArray(new OMNode[split.size()]);
+        long elementBytes = BatchLimits.serializedSize(elements[0]);
+        byteLimits = new BatchLimits(Integer.MAX_VALUE, elementBytes * batchSize, null, Double.MAX_VALUE);
+    }
+
+    @Benchmark
+    public void batchByCount(Blackhole blackhole) {
+        // the source clears the slots of produced batches, so it works on a copy
+        SplitBatchSource source = new SplitBatchSource(elements.clone(), batchSize);
+        while (source.hasNext()) {
+            blackhole.consume(source.next());
+        }
+    }
+
+    @Benchmark
+    public int[] batchBySerializedSize() {
+        return byteLimits.batchEnds(elements);
+    }
+}
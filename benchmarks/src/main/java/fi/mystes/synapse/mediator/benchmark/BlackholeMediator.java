@@ -0,0 +1,39 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.benchmark;
+
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.mediators.AbstractMediator;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Target mediator that hands the payload of each batch to a JMH blackhole so
+ * that the work done for the batch cannot be optimised away.
+ */
+public class BlackholeMediator extends AbstractMediator {
+
+    private final Blackhole blackhole;
+
+    public BlackholeMediator(Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+
+    @Override
+    public boolean mediate(MessageContext synCtx) {
+        blackhole.consume(synCtx.getEnvelope().getBody().getFirstElement());
+        return true;
+    }
+}
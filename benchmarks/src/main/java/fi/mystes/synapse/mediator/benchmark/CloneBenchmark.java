@@ -0,0 +1,114 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNode;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.util.MessageHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.mystes.synapse.mediator.context.MessageSkeleton;
+
+/**
+ * Cost of creating the message of a single batch: copying the whole message
+ * compared with copying the skeleton left after the split, and attaching the
+ * batch elements in both payload modes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CloneBenchmark {
+
+    @Param({ "100", "10000", "1000000" })
+    public int elementCount;
+
+    @Param({ "1", "20" })
+    public int fieldsPerElement;
+
+    @Param({ "1", "100", "1000" })
+    public int batchSize;
+
+    private MessageContext fullMessage;
+
+    private MessageSkeleton preservingSkeleton;
+
+    private MessageSkeleton replacingSkeleton;
+
+    private List<OMNode> batch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SOAPEnvelope envelope = Payloads.envelope(elementCount, fieldsPerElement);
+        fullMessage = Payloads.messageContext(envelope);
+
+        MessageContext emptyOrders = Payloads.messageContext(Payloads.envelope(0, fieldsPerElement));
+        OMElement orders = emptyOrders.getEnvelope().getBody().getFirstElement();
+        preservingSkeleton = new MessageSkeleton(emptyOrders, orders);
+        replacingSkeleton = new MessageSkeleton(Payloads.messageContext(Payloads.envelope(0, 0)), null);
+
+        batch = Payloads.elements(batchSize, fieldsPerElement);
+    }
+
+    @Benchmark
+    public MessageContext cloneWholeMessage() throws Exception {
+        return MessageHelper.cloneMessageContext(fullMessage);
+    }
+
+    @Benchmark
+    public MessageContext copySkeletonPreservingPayload() throws Exception {
+        MessageContext newCtx = preservingSkeleton.newMessageContext();
+        OMElement attachElement = preservingSkeleton.getAttachElement(newCtx.getEnvelope());
+        for (OMNode element : batch) {
+            attachElement.addChild(((OMElement) element).cloneOMElement());
+        }
+        return newCtx;
+    }
+
+    @Benchmark
+    public MessageContext copySkeletonReplacingPayload() throws Exception {
+        MessageContext newCtx = replacingSkeleton.newMessageContext();
+        SOAPEnvelope newEnvelope = newCtx.getEnvelope();
+        OMElement first = newEnvelope.getBody().getFirstElement();
+        if (first != null) {
+            first.detach();
+        }
+        OMElement batchElement = newEnvelope.getOMFactory().createOMElement("batch", null);
+        newEnvelope.getBody().addChild(batchElement);
+        for (OMNode element : batch) {
+            batchElement.addChild(((OMElement) element).cloneOMElement());
+        }
+        return newCtx;
+    }
+}
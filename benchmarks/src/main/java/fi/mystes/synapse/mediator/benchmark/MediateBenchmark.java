@@ -0,0 +1,94 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.mediators.base.SequenceMediator;
+import org.apache.synapse.mediators.eip.Target;
+import org.apache.synapse.util.xpath.SynapseXPath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fi.mystes.synapse.mediator.BatchIteratorMediator;
+
+/**
+ * End-to-end cost of mediating one message: copying the message, XPath
+ * split, batching and creating the iterated message of each batch, with
+ * preserved and replaced payload. The target is sequential and only consumes
+ * the payload, so the time is spent in the mediator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MediateBenchmark {
+
+    @Param({ "100", "10000", "1000000" })
+    public int elementCount;
+
+    @Param({ "1", "20" })
+    public int fieldsPerElement;
+
+    @Param({ "1", "100", "1000" })
+    public int batchSize;
+
+    @Param({ "false", "true" })
+    public boolean preservePayload;
+
+    private BatchIteratorMediator mediator;
+
+    private MessageContext synCtx;
+
+    @Setup(Level.Trial)
+    public void setUp(Blackhole blackhole) throws Exception {
+        SequenceMediator sequence = new SequenceMediator();
+        sequence.addChild(new BlackholeMediator(blackhole));
+        Target target = new Target();
+        target.setSequence(sequence);
+        target.setAsynchronous(false);
+
+        mediator = new BatchIteratorMediator();
+        mediator.setExpression(new SynapseXPath(Payloads.ORDER_EXPRESSION));
+        mediator.setAttachPath(new SynapseXPath(Payloads.ORDERS_EXPRESSION));
+        mediator.setPreservePayload(preservePayload);
+        mediator.setContinueParent(true);
+        mediator.setBatchSize(batchSize);
+        mediator.setTarget(target);
+
+        // the mediator works on a copy, so the same message can be reused
+        synCtx = Payloads.messageContext(Payloads.envelope(elementCount, fieldsPerElement));
+    }
+
+    @Benchmark
+    public boolean mediate() {
+        return mediator.mediate(synCtx);
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNode;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.axis2.AxisFault;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.config.SynapseConfiguration;
+import org.apache.synapse.core.SynapseEnvironment;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
+import org.apache.synapse.core.axis2.Axis2SynapseEnvironment;
+
+/**
+ * Generates synthetic SOAP payloads of the form
+ * &lt;orders&gt;&lt;order id=".."&gt;&lt;field0&gt;..&lt;/field0&gt;...&lt;/order&gt;...&lt;/orders&gt;
+ * and lightweight Synapse message contexts carrying them.
+ */
+public final class Payloads {
+
+    /**
+     * Expression selecting the elements of generated payloads.
+     */
+    public static final String ORDER_EXPRESSION = "//order";
+
+    /**
+     * Expression selecting the parent of the elements of generated payloads.
+     */
+    public static final String ORDERS_EXPRESSION = "//orders";
+
+    private Payloads() {
+    }
+
+    /**
+     * @param elementCount
+     *            Number of order elements
+     * @param fieldsPerElement
+     *            Number of child elements of each order, controls element
+     *            size
+     * @return Envelope with the payload in its body
+     */
+    public static SOAPEnvelope envelope(int elementCount, int fieldsPerElement) {
+        SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+        SOAPEnvelope envelope = factory.getDefaultEnvelope();
+        OMElement orders = factory.createOMElement(new QName("orders"), envelope.getBody());
+        for (OMNode order : elements(elementCount, fieldsPerElement)) {
+            orders.addChild(order);
+        }
+        return envelope;
+    }
+
+    /**
+     * @param elementCount
+     *            Number of order elements
+     * @param fieldsPerElement
+     *            Number of child elements of each order
+     * @return Detached order elements
+     */
+    public static List<OMNode> elements(int elementCount, int fieldsPerElement) {
+        OMFactory factory = OMAbstractFactory.getOMFactory();
+        List<OMNode> elements = new ArrayList<OMNode>(elementCount);
+        for (int i = 0; i < elementCount; i++) {
+            OMElement order = factory.createOMElement(new QName("order"));
+            order.addAttribute("id", String.valueOf(i), null);
+            for (int f = 0; f < fieldsPerElement; f++) {
+                OMElement field = factory.createOMElement(new QName("field" + f), order);
+                field.setText("value-" + i + "-" + f);
+            }
+            elements.add(order);
+        }
+        return elements;
+    }
+
+    /**
+     * @param envelope
+     *            Envelope of the message
+     * @return Synapse message context not bound to a running ESB
+     * @throws AxisFault
+     *             If setting the envelope fails
+     */
+    public static MessageContext messageContext(SOAPEnvelope envelope) throws AxisFault {
+        SynapseConfiguration config = new SynapseConfiguration();
+        SynapseEnvironment environment = new Axis2SynapseEnvironment(config);
+        MessageContext synCtx = new Axis2MessageContext(new org.apache.axis2.context.MessageContext(), config,
+                environment);
+        synCtx.setEnvelope(envelope);
+        return synCtx;
+    }
+}
@@ -0,0 +1,500 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.namespace.QName;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMNode;
+import org.apache.axiom.soap.SOAPBody;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axis2.AxisFault;
+import org.apache.synapse.ManagedLifecycle;
+import org.apache.synapse.Mediator;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseConstants;
+import org.apache.synapse.SynapseLog;
+import org.apache.synapse.core.SynapseEnvironment;
+import org.apache.synapse.mediators.AbstractMediator;
+import org.apache.synapse.mediators.base.SequenceMediator;
+import org.apache.synapse.mediators.eip.EIPConstants;
+import org.apache.synapse.mediators.eip.EIPUtils;
+import org.apache.synapse.util.MessageHelper;
+import org.apache.synapse.util.xpath.SynapseXPath;
+import org.jaxen.JaxenException;
+
+import fi.mystes.synapse.mediator.aggregate.BatchAggregate;
+import fi.mystes.synapse.mediator.aggregate.BatchAggregateRegistry;
+import fi.mystes.synapse.mediator.config.BatchAggregateConstants;
+
+/**
+ * Custom mediator aggregating the responses of the batches created by Batch
+ * Iterator Mediator with the same id. Responses are merged as they arrive and
+ * the aggregation completes as soon as every batch has reported either
+ * success or failure. Failures are reported by the iterator for batches whose
+ * mediation failed and by this mediator for faulty responses, e.g. when used
+ * in a fault sequence.
+ * 
+ * <batchAggregate id="string" [expression="xpath"] [rootElement="name"]
+ * [timeout="milliseconds"]> <onComplete [sequence="sequence_ref"]>
+ * (mediator)* </onComplete> </batchAggregate>
+ * 
+ */
+public class BatchAggregateMediator extends AbstractMediator implements ManagedLifecycle {
+
+    /**
+     * Number of completed aggregations remembered to drop late responses.
+     */
+    private static final int COMPLETED_HISTORY_SIZE = 10000;
+
+    private String id;
+
+    private SynapseXPath expression;
+
+    private String rootElement = BatchAggregateConstants.DEFAULT_ROOT_ELEMENT;
+
+    private long timeout = BatchAggregateConstants.DEFAULT_TIMEOUT;
+
+    private SequenceMediator onCompleteSequence;
+
+    private String onCompleteSequenceRef;
+
+    private final ConcurrentMap<String, BatchAggregate> activeAggregates =
+            new ConcurrentHashMap<String, BatchAggregate>();
+
+    private final Map<String, Boolean> completedAggregates = Collections
+            .synchronizedMap(new LinkedHashMap<String, Boolean>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > COMPLETED_HISTORY_SIZE;
+                }
+            });
+
+    /**
+     * Merges the response of a batch into the aggregation of its iterated
+     * message, or counts it as failed if it is a fault. Completes the
+     * aggregation if this was the last batch.
+     *
+     * @param synCtx
+     *            Response message context of a batch
+     * @return false for batch messages, true for other messages
+     */
+    @Override
+    public boolean mediate(MessageContext synCtx) {
+        SynapseLog synLog = getLog(synCtx);
+
+        if (synLog.isTraceOrDebugEnabled()) {
+            synLog.traceOrDebug("Start : BatchAggregate mediator");
+
+            if (synLog.isTraceTraceEnabled()) {
+                synLog.traceTrace("Message : " + synCtx.getEnvelope());
+            }
+        }
+
+        String correlation = getCorrelation(synCtx);
+        int[] sequence = getMessageSequence(synCtx);
+        if (correlation == null || sequence == null) {
+            synLog.traceOrDebug("Message is not a batch of batch iterator " + id + " - skipping");
+            return true;
+        }
+
+        BatchAggregate aggregate = getAggregate(synCtx, correlation);
+        if (aggregate == null) {
+            synLog.traceOrDebug("Aggregation of message " + correlation + " has already completed - dropping batch "
+                    + sequence[0]);
+            return false;
+        }
+
+        boolean completed;
+        if (isFault(synCtx)) {
+            completed = aggregate.batchFailed(synCtx, sequence[0], sequence[1]);
+        } else {
+            completed = aggregate.batchSucceeded(synCtx, sequence[0], sequence[1], getDetachedResponseElements(synCtx));
+        }
+        if (completed) {
+            complete(aggregate, false);
+        }
+
+        synLog.traceOrDebug("End : BatchAggregate mediator");
+        return false;
+    }
+
+    /**
+     * Counts a batch whose mediation failed. Called by the batch iterator.
+     * 
+     * @param batchCtx
+     *            Message context of the batch
+     */
+    public void batchFailed(MessageContext batchCtx) {
+        String correlation = getCorrelation(batchCtx);
+        int[] sequence = getMessageSequence(batchCtx);
+        if (correlation == null || sequence == null) {
+            return;
+        }
+        BatchAggregate aggregate = getAggregate(batchCtx, correlation);
+        if (aggregate != null && aggregate.batchFailed(batchCtx, sequence[0], sequence[1])) {
+            complete(aggregate, false);
+        }
+    }
+
+    /**
+     * Sets the total number of batches of an iterated message. Called by the
+     * batch iterator when the iteration has ended. If no batch has reported
+     * yet, a copy of the iterated message is kept to carry the result, so that
+     * the onComplete sequence runs even if the iteration created no batches.
+     * An aggregation completed here is handed to the Synapse executor, so that
+     * the onComplete sequence does not run in the mediation of the iterator.
+     * 
+     * @param synCtx
+     *            Iterated message context
+     * @param batchCount
+     *            Number of batches of the iteration
+     * @param skippedCount
+     *            Number of batches skipped by a resumed iteration
+     */
+    public void iterationEnded(MessageContext synCtx, int batchCount, int skippedCount) {
+        final BatchAggregate aggregate = getAggregate(synCtx, synCtx.getMessageID());
+        if (aggregate == null) {
+            return;
+        }
+        MessageContext iterated = aggregate.getCarrier() == null ? copyIteratedMessage(synCtx) : null;
+        if (aggregate.iterationEnded(batchCount, skippedCount, iterated)) {
+            synCtx.getEnvironment().getExecutorService().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        complete(aggregate, false);
+                    } catch (Exception e) {
+                        log.error("Error completing aggregation of message " + aggregate.getCorrelation(), e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Helper method to copy the iterated message to carry the result of an
+     * aggregation no batch has reported to.
+     * 
+     * @param synCtx
+     *            Iterated message context
+     * @return Copy of the message or null if it cannot be copied
+     */
+    private MessageContext copyIteratedMessage(MessageContext synCtx) {
+        try {
+            return MessageHelper.cloneMessageContext(synCtx);
+        } catch (AxisFault e) {
+            log.warn("Unable to copy message " + synCtx.getMessageID() + " to carry its aggregation", e);
+            return null;
+        }
+    }
+
+    /**
+     * Helper method to get the active aggregation of given iterated message,
+     * creating it if needed.
+     * 
+     * @param synCtx
+     *            Used to schedule the timeout
+     * @param correlation
+     *            Id of the iterated message
+     * @return Aggregation or null if it has already completed
+     */
+    private BatchAggregate getAggregate(MessageContext synCtx, String correlation) {
+        BatchAggregate aggregate = activeAggregates.get(correlation);
+        if (aggregate != null) {
+            return aggregate;
+        }
+        if (completedAggregates.containsKey(correlation)) {
+            return null;
+        }
+        BatchAggregate created = new BatchAggregate(correlation,
+                OMAbstractFactory.getOMFactory().createOMElement(new QName(rootElement)));
+        aggregate = activeAggregates.putIfAbsent(correlation, created);
+        if (aggregate != null) {
+            return aggregate;
+        }
+        if (timeout > 0) {
+            TimerTask timeoutTask = new AggregateTimeout(created);
+            created.setTimeout(timeoutTask);
+            synCtx.getConfiguration().getSynapseTimer().schedule(timeoutTask, timeout);
+        }
+        return created;
+    }
+
+    /**
+     * Helper method to complete given aggregation: the merged responses
+     * replace the body of the first reported message which is then mediated
+     * through the onComplete sequence.
+     * 
+     * @param aggregate
+     *            Completed aggregation
+     * @param timedOut
+     *            true if the aggregation completed on timeout
+     */
+    private void complete(BatchAggregate aggregate, boolean timedOut) {
+        completedAggregates.put(aggregate.getCorrelation(), Boolean.TRUE);
+        activeAggregates.remove(aggregate.getCorrelation(), aggregate);
+        aggregate.cancelTimeout();
+
+        MessageContext synCtx = aggregate.getCarrier();
+        if (synCtx == null) {
+            log.warn("Aggregation of message " + aggregate.getCorrelation()
+                    + " completed without a message to carry it - onComplete sequence not run");
+            return;
+        }
+
+        SOAPBody body = synCtx.getEnvelope().getBody();
+        for (Iterator<?> itr = body.getChildren(); itr.hasNext();) {
+            itr.next();
+            itr.remove();
+        }
+        body.addChild(aggregate.getResult());
+        synCtx.setProperty(BatchAggregateConstants.SUCCEEDED_BATCHES_PROPERTY, aggregate.getSucceeded());
+        synCtx.setProperty(BatchAggregateConstants.FAILED_BATCHES_PROPERTY, aggregate.getFailed());
+        synCtx.setProperty(BatchAggregateConstants.TIMED_OUT_PROPERTY, timedOut);
+
+        if (onCompleteSequenceRef != null) {
+            Mediator sequence = synCtx.getSequence(onCompleteSequenceRef);
+            if (sequence == null) {
+                handleException("Unable to find the onComplete sequence : " + onCompleteSequenceRef, synCtx);
+            }
+            sequence.mediate(synCtx);
+        } else if (onCompleteSequence != null) {
+            onCompleteSequence.mediate(synCtx);
+        } else {
+            log.warn("No onComplete sequence for the aggregation of batch iterator " + id + " - message dropped");
+        }
+    }
+
+    /**
+     * Helper method to detach the elements to merge from given response.
+     * 
+     * @param synCtx
+     *            Response message context
+     * @return Elements matching the expression or all children of the body if
+     *         there is no expression
+     */
+    private List<OMNode> getDetachedResponseElements(MessageContext synCtx) {
+        SOAPEnvelope envelope = synCtx.getEnvelope();
+        List<OMNode> elements = new ArrayList<OMNode>();
+        if (expression != null) {
+            try {
+                for (Object o : EIPUtils.getDetachedMatchingElements(envelope, synCtx, expression)) {
+                    if (o instanceof OMNode) {
+                        elements.add((OMNode) o);
+                    }
+                }
+            } catch (JaxenException e) {
+                handleException("Error evaluating aggregate XPath expression : " + expression, e, synCtx);
+            }
+        } else if (envelope.getBody() != null) {
+            for (Iterator<?> itr = envelope.getBody().getChildElements(); itr.hasNext();) {
+                elements.add((OMNode) itr.next());
+            }
+            for (OMNode element : elements) {
+                element.detach();
+            }
+        }
+        return elements;
+    }
+
+    private boolean isFault(MessageContext synCtx) {
+        return synCtx.getProperty(SynapseConstants.ERROR_CODE) != null
+                || (synCtx.getEnvelope() != null && synCtx.getEnvelope().hasFault());
+    }
+
+    private String getCorrelation(MessageContext synCtx) {
+        Object correlation = synCtx.getProperty(EIPConstants.AGGREGATE_CORRELATION + "." + id);
+        return correlation != null ? correlation.toString() : null;
+    }
+
+    /**
+     * Helper method to parse the message sequence property set by the batch
+     * iterator.
+     * 
+     * @param synCtx
+     *            Message context of a batch
+     * @return Batch number and total number of batches or null if the message
+     *         is not a batch
+     */
+    private int[] getMessageSequence(MessageContext synCtx) {
+        Object sequence = synCtx.getProperty(EIPConstants.MESSAGE_SEQUENCE + "." + id);
+        if (sequence == null) {
+            return null;
+        }
+        String[] parts = sequence.toString().split(EIPConstants.MESSAGE_SEQUENCE_DELEMITER);
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            return new int[] { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void init(SynapseEnvironment se) {
+        if (onCompleteSequence != null) {
+            onCompleteSequence.init(se);
+        }
+        if (id != null) {
+            BatchAggregateRegistry.register(id, this);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (id != null) {
+            BatchAggregateRegistry.unregister(id, this);
+        }
+        if (onCompleteSequence != null) {
+            onCompleteSequence.destroy();
+        }
+    }
+
+    /**
+     * Getter for the id of the aggregated batch iterator.
+     * 
+     * @return
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Setter for the id of the aggregated batch iterator.
+     * 
+     * @param id
+     */
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Getter for the expression selecting the elements to merge.
+     * 
+     * @return Expression or null if all children of the body are merged
+     */
+    public SynapseXPath getExpression() {
+        return expression;
+    }
+
+    /**
+     * Setter for the expression selecting the elements to merge.
+     * 
+     * @param expression
+     */
+    public void setExpression(SynapseXPath expression) {
+        this.expression = expression;
+    }
+
+    /**
+     * Getter for the name of the element the responses are merged into.
+     * 
+     * @return
+     */
+    public String getRootElement() {
+        return rootElement;
+    }
+
+    /**
+     * Setter for the name of the element the responses are merged into.
+     * 
+     * @param rootElement
+     */
+    public void setRootElement(String rootElement) {
+        this.rootElement = rootElement;
+    }
+
+    /**
+     * Getter for the aggregation timeout.
+     * 
+     * @return Timeout in milliseconds, by default
+     *         {@link BatchAggregateConstants#DEFAULT_TIMEOUT}, or 0 if the
+     *         aggregation never times out
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Setter for the aggregation timeout.
+     * 
+     * @param timeout
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public SequenceMediator getOnCompleteSequence() {
+        return onCompleteSequence;
+    }
+
+    public void setOnCompleteSequence(SequenceMediator onCompleteSequence) {
+        this.onCompleteSequence = onCompleteSequence;
+    }
+
+    public String getOnCompleteSequenceRef() {
+        return onCompleteSequenceRef;
+    }
+
+    public void setOnCompleteSequenceRef(String onCompleteSequenceRef) {
+        this.onCompleteSequenceRef = onCompleteSequenceRef;
+    }
+
+    /**
+     * Number of aggregations waiting for batches.
+     * 
+     * @return
+     */
+    public int getActiveAggregateCount() {
+        return activeAggregates.size();
+    }
+
+    private class AggregateTimeout extends TimerTask {
+
+        private final BatchAggregate aggregate;
+
+        AggregateTimeout(BatchAggregate aggregate) {
+            this.aggregate = aggregate;
+        }
+
+        @Override
+        public void run() {
+            if (!aggregate.expire()) {
+                return;
+            }
+            try {
+                complete(aggregate, true);
+            } catch (Exception e) {
+                log.error("Error completing timed out aggregation of message " + aggregate.getCorrelation(), e);
+            }
+        }
+    }
+}
@@ -15,39 +15,115 @@
  */
 package fi.mystes.synapse.mediator;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.xml.namespace.QName;
 
+import org.apache.axiom.om.OMAbstractFactory;
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.OMNode;
+import org.apache.axiom.soap.SOAP12Constants;
+import org.apache.axiom.soap.SOAPBody;
 import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.Constants;
 import org.apache.axis2.context.OperationContext;
 import org.apache.synapse.FaultHandler;
+import org.apache.synapse.Mediator;
 import org.apache.synapse.MessageContext;
 import org.apache.synapse.SynapseException;
 import org.apache.synapse.SynapseLog;
+import org.apache.synapse.core.SynapseEnvironment;
 import org.apache.synapse.core.axis2.Axis2MessageContext;
+import org.apache.synapse.mediators.base.SequenceMediator;
 import org.apache.synapse.mediators.eip.EIPConstants;
 import org.apache.synapse.mediators.eip.EIPUtils;
 import org.apache.synapse.mediators.eip.Target;
 import org.apache.synapse.mediators.eip.splitter.IterateMediator;
+import org.apache.synapse.transport.passthru.PassThroughConstants;
+import org.apache.synapse.transport.passthru.Pipe;
+import org.apache.synapse.transport.passthru.util.RelayUtils;
 import org.apache.synapse.util.MessageHelper;
 import org.apache.synapse.util.xpath.SynapseXPath;
 import org.jaxen.JaxenException;
 
+import fi.mystes.synapse.mediator.accumulate.AccumulatedBatch;
+import fi.mystes.synapse.mediator.accumulate.ElementAccumulator;
+import fi.mystes.synapse.mediator.accumulate.ElementAccumulators;
+import fi.mystes.synapse.mediator.accumulate.ElementSource;
+import fi.mystes.synapse.mediator.aggregate.BatchAggregateRegistry;
+import fi.mystes.synapse.mediator.batch.AdaptiveBatchSizeController;
+import fi.mystes.synapse.mediator.batch.BatchLimits;
+import fi.mystes.synapse.mediator.batch.BatchSource;
+import fi.mystes.synapse.mediator.batch.ElementBatch;
+import fi.mystes.synapse.mediator.batch.JsonBatchSource;
+import fi.mystes.synapse.mediator.batch.LineBatchSource;
+import fi.mystes.synapse.mediator.batch.PartitionedBatchSource;
+import fi.mystes.synapse.mediator.batch.SplitBatchSource;
+import fi.mystes.synapse.mediator.batch.StreamingBatchSource;
+import fi.mystes.synapse.mediator.checkpoint.CheckpointStore;
+import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+import fi.mystes.synapse.mediator.context.MessageSkeleton;
+import fi.mystes.synapse.mediator.context.PropertyFilter;
+import fi.mystes.synapse.mediator.dispatch.BatchCompletionListener;
+import fi.mystes.synapse.mediator.dispatch.BatchExecutorConfig;
+import fi.mystes.synapse.mediator.dispatch.BatchExecutors;
+import fi.mystes.synapse.mediator.dispatch.BoundedDispatcher;
+import fi.mystes.synapse.mediator.dispatch.FailFastGuard;
+import fi.mystes.synapse.mediator.dispatch.OrderedReleaser;
+import fi.mystes.synapse.mediator.dispatch.PartitionedDispatcher;
+import fi.mystes.synapse.mediator.dispatch.RateLimiter;
+import fi.mystes.synapse.mediator.dispatch.RateLimiters;
+import fi.mystes.synapse.mediator.dispatch.SpillFile;
+import fi.mystes.synapse.mediator.dispatch.SpillingDispatcher;
+import fi.mystes.synapse.mediator.json.JsonArrayReader;
+import fi.mystes.synapse.mediator.json.JsonPath;
+import fi.mystes.synapse.mediator.metrics.BatchIteratorMetrics;
+import fi.mystes.synapse.mediator.metrics.BatchIteratorMetricsRegistry;
+import fi.mystes.synapse.mediator.retry.BisectingTarget;
+import fi.mystes.synapse.mediator.split.ElementProjection;
+import fi.mystes.synapse.mediator.split.SimplePath;
+import fi.mystes.synapse.mediator.split.StreamingElementReader;
+import fi.mystes.synapse.mediator.text.LineReader;
+
 /**
  * Custom mediator to that extends IterateMediator to iterate several elements
  * (batch) at a time.
  * 
  * <batchIterator batchSize="number" [continueParent=(true | false)]
- * [preservePayload=(true | false)] (attachPath="xpath")? expression="xpath">
+ * [preservePayload=(true | false)] [streaming=(true | false)]
+ * [maxBatchBytes="number"] [weightExpression="xpath" maxBatchWeight="number"]
+ * [partitionExpression="xpath"]
+ * [maxConcurrentBatches="number" [memoryBudget="bytes"]]
+ * [maxBatchesPerSecond="number" [burstSize="number"]] [pipelined=(true | false)]
+ * [ordered=(true | false)] [failFast=(true | false)] [maxWaitMillis="milliseconds"]
+ * [jsonPath="$.path"]
+ * [splitLines=(true | false) [keepHeader=(true | false)]] (attachPath="xpath")?
+ * expression="xpath">
+ * <adaptive minBatchSize="number" maxBatchSize="number"
+ * targetLatency="milliseconds" [increment="number"]/>?
+ * <executor name="string" [poolSize="number"] [queueLength="number"]
+ * [rejectionPolicy=(block | callerRuns | abort)] [virtualThreads=(true | false)]/>?
+ * <onRelease [sequence="sequence_ref"]> (mediator)* </onRelease>?
+ * <onPoison [sequence="sequence_ref"]> (mediator)* </onPoison>?
+ * <cloneProperties [include="names"] [exclude="names"]/>?
+ * <projection [keep="paths"] [drop="paths"]/>?
+ * <checkpoint directory="path" [key="xpath"]/>?
  * <target [to="uri"] [soapAction="qname"] [sequence="sequence_ref"]
  * [endpoint="endpoint_ref"] > <sequence> (mediator)+ </sequence>?
  * <endpoint> endpoint </endpoint> ? </target>+ </batchIterator>
@@ -55,154 +131,1840 @@ import org.jaxen.JaxenException;
  */
 public class BatchIteratorMediator extends IterateMediator {
 
-    private Integer batchSize;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private Integer batchSize;
+
+    private boolean streaming;
+
+    private SimplePath simplePath;
+
+    private Long maxBatchBytes;
+
+    private SynapseXPath weightExpression;
+
+    private Double maxBatchWeight;
+
+    private SynapseXPath partitionExpression;
+
+    private AdaptiveBatchSizeController adaptiveBatchSize;
+
+    private Integer maxConcurrentBatches;
+
+    private Long memoryBudget;
+
+    private Double maxBatchesPerSecond;
+
+    private Integer burstSize;
+
+    private boolean pipelined;
+
+    private boolean ordered;
+
+    private SequenceMediator releaseSequence;
+
+    private String releaseSequenceRef;
+
+    private SequenceMediator poisonSequence;
+
+    private String poisonSequenceRef;
+
+    private PropertyFilter cloneProperties;
+
+    private ElementProjection projection;
+
+    private JsonPath jsonPath;
+
+    private boolean splitLines;
+
+    private boolean keepHeader;
+
+    private boolean failFast;
+
+    private Long maxWaitMillis;
+
+    private CheckpointStore checkpointStore;
+
+    private SynapseXPath checkpointKey;
+
+    private volatile Target synchronousTarget;
+
+    private BatchExecutorConfig executorConfig;
+
+    private ExecutorService executor;
+
+    private RateLimiter rateLimiter;
+
+    private ElementAccumulator accumulator;
+
+    private volatile BatchIteratorMetrics metrics;
+
+    /**
+     * Invokes the mediator passing the current message for mediation. Each
+     * mediator performs its mediation action, and returns true if mediation
+     * should continue, or false if further mediation should be aborted.
+     *
+     * @param context
+     *            Current message context for mediation
+     * @return true if further mediation should continue, otherwise false
+     */
+    @Override
+    public boolean mediate(MessageContext synCtx) {
+        SynapseLog synLog = getLog(synCtx);
+
+        if (synLog.isTraceOrDebugEnabled()) {
+            synLog.traceOrDebug("Start : BatchIterate mediator");
+
+            if (synLog.isTraceTraceEnabled()) {
+                synLog.traceTrace("Message : " + synCtx.getEnvelope());
+            }
+        }
+
+        boolean completed = false;
+        try {
+            if (jsonPath != null) {
+                mediateJson(synCtx, synLog);
+            } else if (splitLines) {
+                mediateLines(synCtx, synLog);
+            } else if (streaming) {
+                mediateStreaming(synCtx, synLog);
+            } else if (maxWaitMillis != null) {
+                mediateAccumulating(synCtx, synLog);
+            } else {
+                mediateSplit(synCtx, synLog);
+            }
+            completed = true;
+        } catch (JaxenException e) {
+            handleException("Error evaluating split XPath expression : " + getExpression(), e, synCtx);
+        } catch (AxisFault af) {
+            handleException("Error creating an iterated copy of the message", af, synCtx);
+        } catch (SynapseException synEx) {
+            throw synEx;
+        } catch (Exception e) {
+            handleException("Exception occurred while executing the Batch Iterate Mediator", e, synCtx);
+        } finally {
+            BatchIteratorMetrics currentMetrics = metrics;
+            if (currentMetrics != null) {
+                currentMetrics.messageMediated(!completed);
+            }
+        }
+
+        // if the continuation of the parent message is stopped from here set
+        // the RESPONSE_WRITTEN
+        // property to SKIP to skip the blank http response
+        OperationContext opCtx = ((Axis2MessageContext) synCtx).getAxis2MessageContext().getOperationContext();
+        if (!isContinueParent() && opCtx != null) {
+            opCtx.setProperty(Constants.RESPONSE_WRITTEN, "SKIP");
+        }
+
+        synLog.traceOrDebug("End : BatchIterate mediator");
+
+        // whether to continue mediation on the original message
+        return isContinueParent();
+    }
+
+    /**
+     * Helper method to split a copy of the whole message with the XPath
+     * expression and to proceed with the resulting batches.
+     * 
+     * @param synCtx
+     *            Original message context
+     * @param synLog
+     *            Used for logging
+     * @throws AxisFault
+     *             If cloning current message context fails
+     * @throws JaxenException
+     *             If XPath express evaluation fails
+     */
+    private void mediateSplit(MessageContext synCtx, SynapseLog synLog) throws AxisFault, JaxenException {
+        // the key may refer to the payload, which is split in place below
+        String checkpoint = getResumeKey(synCtx);
+        // get a copy of the message for the processing, if the
+        // continueParent is set to true
+        // this original message can go in further mediations and hence we
+        // should not change
+        // the original message context. The copy is made only once and it
+        // serves as the template of all iterated messages. Otherwise the
+        // original message is discarded after the iteration and it serves as
+        // the template itself.
+        BatchIteratorMetrics currentMetrics = metrics;
+        MessageContext template = createSplitTemplate(synCtx);
+        SOAPEnvelope envelope = template.getEnvelope();
+        // get the iteration elements and iterate through the list,
+        // this call will also detach all the iteration elements
+        SynapseXPath expression = getExpression();
+        long startNanos = System.nanoTime();
+        List<?> splitElements = getDetachedMatchingElements(envelope, synCtx, expression);
+        project(splitElements);
+        if (currentMetrics != null) {
+            currentMetrics.splitTime(System.nanoTime() - startNanos);
+        }
+
+        if (synLog.isTraceOrDebugEnabled()) {
+            synLog.traceOrDebug(
+                    "Splitting with XPath : " + expression + " resulted in " + splitElements.size() + " elements");
+        }
+
+        removeChildrenIfPayloadNotPreserved(envelope);
+
+        MessageSkeleton skeleton = createSkeleton(synCtx, template);
+
+        BatchSource batches = batchSplittedElements(synCtx, expression, splitElements);
+        // from now on the batch source holds the only reference to the split
+        // elements, so that the elements already sent can be collected
+        splitElements = null;
+
+        proceedWithBatches(synCtx, synLog, skeleton, batches, checkpoint);
+    }
+
+    /**
+     * Helper method to get the message context the split elements are
+     * detached from, which serves as the template of the iterated messages.
+     * Properties are filtered from a copy only; the original message keeps
+     * its properties and they are filtered from each batch copy instead.
+     * 
+     * @param synCtx
+     *            Original message context
+     * @return Original message context or a copy of it
+     * @throws AxisFault
+     *             If cloning current message context fails
+     */
+    private MessageContext createSplitTemplate(MessageContext synCtx) throws AxisFault {
+        if (splitsOriginalInPlace(synCtx)) {
+            return synCtx;
+        }
+        MessageContext template = copyMessage(synCtx);
+        if (cloneProperties != null) {
+            cloneProperties.apply(template);
+        }
+        return template;
+    }
+
+    /**
+     * Helper method to copy given message context, recording the time taken.
+     * 
+     * @param synCtx
+     *            Message context to copy
+     * @return Copy of the message context
+     * @throws AxisFault
+     *             If cloning the message context fails
+     */
+    private MessageContext copyMessage(MessageContext synCtx) throws AxisFault {
+        BatchIteratorMetrics currentMetrics = metrics;
+        long startNanos = System.nanoTime();
+        MessageContext copy = MessageHelper.cloneMessageContext(synCtx);
+        if (currentMetrics != null) {
+            currentMetrics.cloneTime(System.nanoTime() - startNanos);
+        }
+        return copy;
+    }
+
+    /**
+     * Splits the message and adds the elements to the batches collected
+     * across messages in accumulating mode. A batch is sent to the target when
+     * it has batchSize elements or when maxWaitMillis has passed since its
+     * first element was added, so the elements of this message may be sent
+     * after this method has returned, together with elements of other
+     * messages.
+     * 
+     * @param synCtx
+     *            Original message context
+     * @param synLog
+     *            Used for logging
+     * @throws AxisFault
+     *             If cloning current message context fails
+     * @throws JaxenException
+     *             If XPath express evaluation fails
+     */
+    private void mediateAccumulating(MessageContext synCtx, SynapseLog synLog) throws AxisFault, JaxenException {
+        BatchIteratorMetrics currentMetrics = metrics;
+        // the batches are sent after this message has gone on, so they are
+        // copied from a snapshot of it: a copy made before splitting if the
+        // message continues, otherwise a copy of what is left after splitting
+        boolean inPlace = splitsOriginalInPlace(synCtx);
+        MessageContext template = inPlace ? synCtx : copyMessage(synCtx);
+        SOAPEnvelope envelope = template.getEnvelope();
+        SynapseXPath expression = getExpression();
+        long startNanos = System.nanoTime();
+        List<?> splitElements = getDetachedMatchingElements(envelope, synCtx, expression);
+        project(splitElements);
+        if (currentMetrics != null) {
+            currentMetrics.splitTime(System.nanoTime() - startNanos);
+        }
+
+        if (synLog.isTraceOrDebugEnabled()) {
+            synLog.traceOrDebug("Accumulating " + splitElements.size() + " elements split with XPath : " + expression);
+        }
+
+        removeChildrenIfPayloadNotPreserved(envelope);
+
+        if (inPlace) {
+            template = copyMessage(synCtx);
+        }
+        if (cloneProperties != null) {
+            cloneProperties.apply(template);
+        }
+        MessageSkeleton skeleton = createSkeleton(synCtx, template);
+
+        List<OMNode> elements = new ArrayList<OMNode>(splitElements.size());
+        for (Object o : splitElements) {
+            validateIterableObject(synCtx, expression, o);
+            elements.add((OMNode) o);
+        }
+        getAccumulator().add(elements, synCtx.getMessageID(), skeleton, new ElementAccumulator.BatchHandler() {
+            @Override
+            public void handle(AccumulatedBatch batch) throws AxisFault {
+                sendAccumulatedBatch(batch);
+            }
+        });
+    }
+
+    /**
+     * Helper method to send a batch collected in accumulating mode to the
+     * target. The batch message is copied from the skeleton of the message
+     * that contributed the first element of the batch, and it carries the
+     * source of each element, so that results can be routed back to the
+     * messages the elements came from. The batch is handed to the target as
+     * such, so like other batches not run by a dispatcher it is not counted
+     * in the batch metrics.
+     * 
+     * @param batch
+     *            Accumulated batch
+     * @throws AxisFault
+     *             If cloning the skeleton fails
+     */
+    private void sendAccumulatedBatch(AccumulatedBatch batch) throws AxisFault {
+        List<ElementSource> sources = batch.getSources();
+        MessageContext iteratedMsgCtx = getIteratedMessageContext(sources.get(0).getMessageID(), batch.getNumber(),
+                BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT, batch.getSkeleton(), batch.getElements());
+
+        StringBuilder messageIds = new StringBuilder();
+        for (ElementSource source : sources) {
+            if (messageIds.length() > 0) {
+                messageIds.append(',');
+            }
+            messageIds.append(source.getMessageID());
+        }
+        iteratedMsgCtx.setProperty(BatchIteratorConstants.ELEMENT_SOURCES_PROPERTY, sources);
+        iteratedMsgCtx.setProperty(BatchIteratorConstants.SOURCE_MESSAGE_IDS_PROPERTY, messageIds.toString());
+        getTarget().mediate(iteratedMsgCtx);
+    }
+
+    /**
+     * Helper method to detach the elements matching the split expression from
+     * given envelope. Simple paths are matched with a direct traversal of the
+     * envelope, other expressions are evaluated with Jaxen.
+     * 
+     * @param envelope
+     *            Envelope to split
+     * @param synCtx
+     *            Used for XPath evaluation
+     * @param expression
+     *            Split expression
+     * @return Detached elements in document order
+     * @throws JaxenException
+     *             If XPath expression evaluation fails
+     */
+    private List<?> getDetachedMatchingElements(SOAPEnvelope envelope, MessageContext synCtx,
+            SynapseXPath expression) throws JaxenException {
+        SimplePath path = simplePath;
+        if (path == null) {
+            return EIPUtils.getDetachedMatchingElements(envelope, synCtx, expression);
+        }
+        List<OMElement> elements = path.select(envelope);
+        for (OMElement element : elements) {
+            element.detach();
+        }
+        return elements;
+    }
+
+    /**
+     * Helper method to apply the projection, if any, to the split elements
+     * before they are batched.
+     * 
+     * @param splitElements
+     *            Detached split elements
+     */
+    private void project(List<?> splitElements) {
+        if (projection == null) {
+            return;
+        }
+        for (Object element : splitElements) {
+            if (element instanceof OMElement) {
+                projection.apply((OMElement) element);
+            }
+        }
+    }
+
+    /**
+     * Helper method to create the skeleton iterated messages are copied from.
+     * 
+     * @param synCtx
+     *            Original message context
+     * @param template
+     *            Original message or a copy of it without the split elements
+     * @return Skeleton of the iterated messages
+     * @throws JaxenException
+     *             If attach path evaluation fails
+     */
+    private MessageSkeleton createSkeleton(MessageContext synCtx, MessageContext template) throws JaxenException {
+        // the properties of the original message are filtered from each copy
+        PropertyFilter copyFilter = template == synCtx ? cloneProperties : null;
+        if (!isPreservePayload()) {
+            return new MessageSkeleton(template, null, copyFilter);
+        }
+
+        Object attachElem = getAttachPath() != null ? getAttachPath().evaluate(template.getEnvelope(), synCtx) : null;
+        if (attachElem != null && attachElem instanceof List<?> && !((List<?>) attachElem).isEmpty()) {
+            attachElem = ((List<?>) attachElem).get(0);
+        }
+
+        // for the moment attaching element should be an OMElement
+        if (!(attachElem instanceof OMElement)) {
+            handleException("Error in attaching the splitted elements :: "
+                    + "Unable to get the attach path specified by the expression " + getAttachPath(), synCtx);
+        }
+        return new MessageSkeleton(template, (OMElement) attachElem, copyFilter);
+    }
+
+    /**
+     * Getter for batch size.
+     * 
+     * @return
+     */
+    public Integer getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Setter for batch size.
+     * 
+     * @param batchSize
+     */
+    public void setBatchSize(Integer batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Getter for streaming mode.
+     * 
+     * @return true if payload is split while pull-parsing it
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Setter for streaming mode.
+     * 
+     * @param streaming
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Getter for the maximum serialized size of a batch.
+     * 
+     * @return Maximum size in bytes or null if not limited
+     */
+    public Long getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * Setter for the maximum serialized size of a batch.
+     * 
+     * @param maxBatchBytes
+     */
+    public void setMaxBatchBytes(Long maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Getter for the expression giving the weight of an element.
+     * 
+     * @return Weight expression or null if weight is not limited
+     */
+    public SynapseXPath getWeightExpression() {
+        return weightExpression;
+    }
+
+    /**
+     * Setter for the expression giving the weight of an element. Evaluated
+     * with each split element as the context node.
+     * 
+     * @param weightExpression
+     */
+    public void setWeightExpression(SynapseXPath weightExpression) {
+        this.weightExpression = weightExpression;
+    }
+
+    /**
+     * Getter for the expression giving the partition key of an element.
+     * 
+     * @return Partition expression or null if batches are not partitioned
+     */
+    public SynapseXPath getPartitionExpression() {
+        return partitionExpression;
+    }
+
+    /**
+     * Setter for the expression giving the partition key of an element.
+     * Evaluated with each split element as the context node. The batches of
+     * a partition run one at a time in order, the batches of different
+     * partitions in parallel.
+     * 
+     * @param partitionExpression
+     */
+    public void setPartitionExpression(SynapseXPath partitionExpression) {
+        this.partitionExpression = partitionExpression;
+    }
+
+    /**
+     * Getter for the maximum total weight of a batch.
+     * 
+     * @return Maximum weight or null if weight is not limited
+     */
+    public Double getMaxBatchWeight() {
+        return maxBatchWeight;
+    }
+
+    /**
+     * Setter for the maximum total weight of a batch.
+     * 
+     * @param maxBatchWeight
+     */
+    public void setMaxBatchWeight(Double maxBatchWeight) {
+        this.maxBatchWeight = maxBatchWeight;
+    }
+
+    /**
+     * Getter for the adaptive batch size controller.
+     * 
+     * @return Controller adjusting the batch size or null if batch size is
+     *         fixed
+     */
+    public AdaptiveBatchSizeController getAdaptiveBatchSize() {
+        return adaptiveBatchSize;
+    }
+
+    /**
+     * Setter for the adaptive batch size controller. The controller replaces
+     * batchSize as the limit of the number of elements in a batch.
+     * 
+     * @param adaptiveBatchSize
+     */
+    public void setAdaptiveBatchSize(AdaptiveBatchSizeController adaptiveBatchSize) {
+        this.adaptiveBatchSize = adaptiveBatchSize;
+        BatchIteratorMetrics currentMetrics = metrics;
+        if (currentMetrics != null) {
+            currentMetrics.setAdaptiveBatchSize(adaptiveBatchSize);
+        }
+    }
+
+    /**
+     * Getter for the maximum number of batches in flight.
+     * 
+     * @return Maximum number of concurrent batches or null if not limited
+     */
+    public Integer getMaxConcurrentBatches() {
+        return maxConcurrentBatches;
+    }
+
+    /**
+     * Setter for the maximum number of batches in flight. Applies to
+     * asynchronous targets only.
+     * 
+     * @param maxConcurrentBatches
+     */
+    public void setMaxConcurrentBatches(Integer maxConcurrentBatches) {
+        this.maxConcurrentBatches = maxConcurrentBatches;
+    }
+
+    /**
+     * Getter for the memory budget of the batches waiting for dispatch.
+     * 
+     * @return Budget in bytes or null if the producer waits for a free slot
+     */
+    public Long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Setter for the memory budget of the batches waiting for dispatch. With
+     * a budget the producer does not wait for a free slot; batches above
+     * maxConcurrentBatches wait in a queue and their envelopes above the
+     * budget are spilled to disk.
+     * 
+     * @param memoryBudget
+     */
+    public void setMemoryBudget(Long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Getter for the maximum rate of batches.
+     * 
+     * @return Maximum number of batches dispatched per second or null if not
+     *         limited
+     */
+    public Double getMaxBatchesPerSecond() {
+        return maxBatchesPerSecond;
+    }
+
+    /**
+     * Setter for the maximum rate of batches. The rate is shared by every
+     * message mediated by the mediators with the same id.
+     * 
+     * @param maxBatchesPerSecond
+     */
+    public void setMaxBatchesPerSecond(Double maxBatchesPerSecond) {
+        this.maxBatchesPerSecond = maxBatchesPerSecond;
+    }
+
+    /**
+     * Getter for the number of batches dispatched without waiting after an
+     * idle period.
+     * 
+     * @return Burst size or null if a single batch
+     */
+    public Integer getBurstSize() {
+        return burstSize;
+    }
+
+    /**
+     * Setter for the number of batches dispatched without waiting after an
+     * idle period.
+     * 
+     * @param burstSize
+     */
+    public void setBurstSize(Integer burstSize) {
+        this.burstSize = burstSize;
+    }
+
+    /**
+     * Getter for pipelined mode.
+     * 
+     * @return true if the next batch is prepared while a sequential target
+     *         mediates the current one
+     */
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * Setter for pipelined mode. Has no effect on asynchronous targets.
+     * 
+     * @param pipelined
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * Getter for the filter of the properties copied to the batch messages.
+     * 
+     * @return Filter or null if all properties are copied
+     */
+    public PropertyFilter getCloneProperties() {
+        return cloneProperties;
+    }
+
+    /**
+     * Setter for the filter of the properties copied to the batch messages.
+     * 
+     * @param cloneProperties
+     */
+    public void setCloneProperties(PropertyFilter cloneProperties) {
+        this.cloneProperties = cloneProperties;
+    }
+
+    /**
+     * Getter for the projection applied to the split elements.
+     * 
+     * @return Projection or null if elements are batched as such
+     */
+    public ElementProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * Setter for the projection applied to the split elements. The parts of
+     * each element removed by the projection are not copied into the batch
+     * messages.
+     * 
+     * @param projection
+     */
+    public void setProjection(ElementProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Getter for the path of the iterated JSON array.
+     * 
+     * @return Path or null if the payload is split with the expression
+     */
+    public JsonPath getJsonPath() {
+        return jsonPath;
+    }
+
+    /**
+     * Setter for the path of the iterated JSON array. Enables JSON mode,
+     * where the expression is not used.
+     * 
+     * @param jsonPath
+     */
+    public void setJsonPath(JsonPath jsonPath) {
+        this.jsonPath = jsonPath;
+    }
+
+    /**
+     * Getter for line mode.
+     * 
+     * @return true if text payload is split by line
+     */
+    public boolean isSplitLines() {
+        return splitLines;
+    }
+
+    /**
+     * Setter for line mode, where the expression is not used.
+     * 
+     * @param splitLines
+     */
+    public void setSplitLines(boolean splitLines) {
+        this.splitLines = splitLines;
+    }
+
+    /**
+     * Getter for the header line of line mode.
+     * 
+     * @return true if the first line is written to every batch
+     */
+    public boolean isKeepHeader() {
+        return keepHeader;
+    }
+
+    /**
+     * Setter for the header line of line mode.
+     * 
+     * @param keepHeader
+     */
+    public void setKeepHeader(boolean keepHeader) {
+        this.keepHeader = keepHeader;
+    }
+
+    /**
+     * Getter for fail fast mode.
+     * 
+     * @return true if the remaining batches are cancelled after a failed
+     *         batch
+     */
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    /**
+     * Setter for fail fast mode. After the first failed batch no more batches
+     * are created and batches that have not started are cancelled.
+     * 
+     * @param failFast
+     */
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    /**
+     * Getter for the maximum time an accumulated element waits for its batch.
+     * 
+     * @return Wait time in milliseconds or null if batches are not collected
+     *         across messages
+     */
+    public Long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * Setter for the maximum time an accumulated element waits for its batch.
+     * When set, elements of many messages are collected into the same
+     * batches, which are sent when they have batchSize elements or when the
+     * wait time of their first element has passed.
+     * 
+     * @param maxWaitMillis
+     */
+    public void setMaxWaitMillis(Long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Getter for the store of completed batches.
+     * 
+     * @return Checkpoint store or null if iteration is not resumable
+     */
+    public CheckpointStore getCheckpointStore() {
+        return checkpointStore;
+    }
+
+    /**
+     * Setter for the store of completed batches. Makes the iteration of a
+     * sequential target resumable: a message whose batches have partly
+     * completed skips the completed batches when it is mediated again.
+     * 
+     * @param checkpointStore
+     */
+    public void setCheckpointStore(CheckpointStore checkpointStore) {
+        this.checkpointStore = checkpointStore;
+    }
+
+    /**
+     * Getter for the expression giving the checkpoint key of a message.
+     * 
+     * @return Key expression or null if the message ID is the key
+     */
+    public SynapseXPath getCheckpointKey() {
+        return checkpointKey;
+    }
+
+    /**
+     * Setter for the expression giving the checkpoint key of a message.
+     * 
+     * @param checkpointKey
+     */
+    public void setCheckpointKey(SynapseXPath checkpointKey) {
+        this.checkpointKey = checkpointKey;
+    }
+
+    /**
+     * Getter for ordered mode.
+     * 
+     * @return true if the batches of an asynchronous target are released to
+     *         the release sequence in batch order
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Setter for ordered mode. Has no effect on sequential targets.
+     * 
+     * @param ordered
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+     * Getter for the inline release sequence of ordered mode.
+     * 
+     * @return
+     */
+    public SequenceMediator getReleaseSequence() {
+        return releaseSequence;
+    }
+
+    /**
+     * Setter for the inline release sequence of ordered mode.
+     * 
+     * @param releaseSequence
+     */
+    public void setReleaseSequence(SequenceMediator releaseSequence) {
+        this.releaseSequence = releaseSequence;
+    }
+
+    /**
+     * Getter for the name of the release sequence of ordered mode.
+     * 
+     * @return
+     */
+    public String getReleaseSequenceRef() {
+        return releaseSequenceRef;
+    }
+
+    /**
+     * Setter for the name of the release sequence of ordered mode.
+     * 
+     * @param releaseSequenceRef
+     */
+    public void setReleaseSequenceRef(String releaseSequenceRef) {
+        this.releaseSequenceRef = releaseSequenceRef;
+    }
+
+    /**
+     * Getter for the inline poison sequence receiving the elements that fail
+     * alone after a failed batch has been bisected.
+     * 
+     * @return
+     */
+    public SequenceMediator getPoisonSequence() {
+        return poisonSequence;
+    }
+
+    /**
+     * Setter for the inline poison sequence. A poison sequence turns on the
+     * bisection of failed batches.
+     * 
+     * @param poisonSequence
+     */
+    public void setPoisonSequence(SequenceMediator poisonSequence) {
+        this.poisonSequence = poisonSequence;
+    }
+
+    /**
+     * Getter for the name of the poison sequence.
+     * 
+     * @return
+     */
+    public String getPoisonSequenceRef() {
+        return poisonSequenceRef;
+    }
+
+    /**
+     * Setter for the name of the poison sequence. A poison sequence turns on
+     * the bisection of failed batches.
+     * 
+     * @param poisonSequenceRef
+     */
+    public void setPoisonSequenceRef(String poisonSequenceRef) {
+        this.poisonSequenceRef = poisonSequenceRef;
+    }
+
+    /**
+     * Getter for the dedicated executor configuration.
+     * 
+     * @return Executor configuration or null if batches run on the Synapse
+     *         executor
+     */
+    public BatchExecutorConfig getExecutorConfig() {
+        return executorConfig;
+    }
+
+    /**
+     * Setter for the dedicated executor configuration. Applies to
+     * asynchronous targets only.
+     * 
+     * @param executorConfig
+     */
+    public void setExecutorConfig(BatchExecutorConfig executorConfig) {
+        this.executorConfig = executorConfig;
+    }
+
+    @Override
+    public void setTarget(Target target) {
+        super.setTarget(target);
+        synchronousTarget = null;
+    }
+
+    /**
+     * Sets the split expression and compiles it into a simple path if it is
+     * one, so that the split can bypass Jaxen.
+     */
+    @Override
+    public void setExpression(SynapseXPath expression) {
+        super.setExpression(expression);
+        simplePath = SimplePath.compile(expression);
+    }
+
+    /**
+     * Getter for the split expression compiled into a simple path.
+     * 
+     * @return Simple path or null if the expression is real XPath
+     */
+    public SimplePath getSimplePath() {
+        return simplePath;
+    }
+
+    /**
+     * Streaming, JSON and line modes do not need the message to be built
+     * before mediation.
+     */
+    @Override
+    public boolean isContentAware() {
+        return !streaming && jsonPath == null && !splitLines && super.isContentAware();
+    }
+
+    /**
+     * Helper method to split the payload while pull-parsing it. Only the
+     * elements of the current batch are built in memory and each batch is
+     * submitted as soon as it is full. The original envelope is neither built
+     * nor cloned; the original message continues with headers and an empty
+     * body.
+     * 
+     * @param synCtx
+     *            Original message context
+     * @param synLog
+     *            Used for logging
+     * @throws Exception
+     *             If reading the payload or creating an iterated message fails
+     */
+    private void mediateStreaming(MessageContext synCtx, SynapseLog synLog) throws Exception {
+        if (simplePath == null) {
+            handleException("Streaming mode supports only simple element path expressions : " + getExpression(),
+                    synCtx);
+        }
+
+        RelayUtils.buildMessage(((Axis2MessageContext) synCtx).getAxis2MessageContext(), false);
+        // the key may refer to the payload, which is replaced below
+        String checkpoint = getResumeKey(synCtx);
+        SOAPEnvelope envelope = synCtx.getEnvelope();
+        SOAPBody body = envelope.getBody();
+
+        // the original message carries only the headers from now on, so that
+        // cloning it for each batch does not touch the payload being streamed
+        synCtx.setEnvelope(createHeaderOnlyEnvelope(envelope));
+        MessageSkeleton skeleton = new MessageSkeleton(createStreamingTemplate(synCtx), null);
+
+        if (body == null || body.getFirstElement() == null) {
+            return;
+        }
+
+        // the whole body is streamed, so that matches under any of its
+        // children are found like in split mode
+        List<QName> ancestors = new ArrayList<QName>();
+        ancestors.add(envelope.getQName());
+        StreamingElementReader reader = new StreamingElementReader(body.getXMLStreamReaderWithoutCaching(),
+                simplePath, ancestors);
+
+        BatchSource batches = new StreamingBatchSource(reader, createBatchLimits(), projection);
+        proceedWithBatches(synCtx, synLog, skeleton, batches, checkpoint);
+
+        if (synLog.isTraceOrDebugEnabled()) {
+            synLog.traceOrDebug("Streaming with path : " + getExpression() + " resulted in "
+                    + batches.getElementCount() + " elements");
+        }
+    }
+
+    /**
+     * Helper method to create an envelope containing copies of the headers of
+     * given envelope and an empty body. The body of given envelope is not
+     * accessed.
+     * 
+     * @param envelope
+     *            Envelope to copy headers from
+     * @return Envelope with headers only
+     */
+    private SOAPEnvelope createHeaderOnlyEnvelope(SOAPEnvelope envelope) {
+        SOAPFactory factory = SOAP12Constants.SOAP_ENVELOPE_NAMESPACE_URI
+                .equals(envelope.getNamespace().getNamespaceURI()) ? OMAbstractFactory.getSOAP12Factory()
+                        : OMAbstractFactory.getSOAP11Factory();
+        SOAPEnvelope skeleton = factory.getDefaultEnvelope();
+        if (envelope.getHeader() != null) {
+            for (Iterator<?> itr = envelope.getHeader().getChildElements(); itr.hasNext();) {
+                skeleton.getHeader().addChild(((OMElement) itr.next()).cloneOMElement());
+            }
+        }
+        return skeleton;
+    }
+
+    /**
+     * Helper method to remove payload from given envelope if payload was not
+     * preserved.
+     * 
+     * @param envelope
+     *            To remove payload from
+     */
+    private void removeChildrenIfPayloadNotPreserved(SOAPEnvelope envelope) {
+        // if not preservePayload remove all the child elements
+        if (!isPreservePayload() && envelope.getBody() != null) {
+            for (Iterator<?> itr = envelope.getBody().getChildren(); itr.hasNext();) {
+                ((OMNode) itr.next()).detach();
+            }
+        }
+    }
+
+    /**
+     * Helper method to tell whether the split elements are detached from the
+     * original message instead of a copy of it. The original message is not
+     * copied when it does not continue after the iteration and nothing can
+     * see it after the split: it has no fault handler to run on a failure of
+     * the mediator, and the target is asynchronous, so no failed batch copies
+     * its fault handlers to it. Pipelined mode applies to sequential targets
+     * only, so it always copies the original message.
+     * 
+     * @param synCtx
+     *            Original message context
+     * @return true if the original message is split in place
+     */
+    private boolean splitsOriginalInPlace(MessageContext synCtx) {
+        return !isContinueParent() && getTarget().isAsynchronous() && synCtx.getFaultStack().isEmpty();
+    }
+
+    /**
+     * Iterates the elements of a JSON array in batches while scanning the
+     * JSON payload. Each batch message carries a JSON array as its text
+     * payload; no XML is built from the JSON. Like in streaming mode, the
+     * original message continues with headers and an empty body.
+     * 
+     * @param synCtx
+     *            Original message context
+     * @param synLog
+     *            Used for logging
+     * @throws Exception
+     *             If reading the payload or creating an iterated message fails
+     */
+    private void mediateJson(MessageContext synCtx, SynapseLog synLog) throws Exception {
+        InputStream json = getTextPayload(synCtx, "JSON", UTF8);
+        String checkpoint = getResumeKey(synCtx);
+        synCtx.setEnvelope(createHeaderOnlyEnvelope(synCtx.getEnvelope()));
+        MessageSkeleton skeleton = new MessageSkeleton(createStreamingTemplate(synCtx), null);
+
+        if (synLog.isTraceOrDebugEnabled()) {
+            synLog.traceOrDebug("Batching JSON array at : " + jsonPath);
+        }
+        BatchSource batches = new JsonBatchSource(new JsonArrayReader(json, jsonPath), createBatchLimits());
+        proceedWithBatches(synCtx, synLog, skeleton, batches, checkpoint);
+    }
+
+    /**
+     * Iterates the lines of a text payload in batches while reading it, like
+     * in JSON mode. Each batch message carries its lines, preceded by the
+     * header line if it is kept, as its text payload.
+     * 
+     * @param synCtx
+     *            Original message context
+     * @param synLog
+     *            Used for logging
+     * @throws Exception
+     *             If reading the payload or creating an iterated message fails
+     */
+    private void mediateLines(MessageContext synCtx, SynapseLog synLog) throws Exception {
+        Charset charset = getCharset(synCtx);
+        if (!LineReader.isSupported(charset)) {
+            handleException("Line mode cannot read text in " + charset.name() + " encoding", synCtx);
+        }
+        InputStream text = getTextPayload(synCtx, "Line", charset);
+        String checkpoint = getResumeKey(synCtx);
+        synCtx.setEnvelope(createHeaderOnlyEnvelope(synCtx.getEnvelope()));
+        MessageSkeleton skeleton = new MessageSkeleton(createStreamingTemplate(synCtx), null);
+
+        if (synLog.isTraceOrDebugEnabled()) {
+            synLog.traceOrDebug("Batching text lines" + (keepHeader ? " with header" : ""));
+        }
+        BatchSource batches = new LineBatchSource(new LineReader(text), createBatchLimits(), keepHeader, charset);
+        proceedWithBatches(synCtx, synLog, skeleton, batches, checkpoint);
+    }
+
+    /**
+     * Helper method to get the character encoding of given message.
+     * 
+     * @param synCtx
+     *            Original message context
+     * @return Encoding of the message or UTF-8 if not known
+     */
+    private Charset getCharset(MessageContext synCtx) {
+        Object encoding = ((Axis2MessageContext) synCtx).getAxis2MessageContext()
+                .getProperty(Constants.Configuration.CHARACTER_SET_ENCODING);
+        if (encoding != null) {
+            try {
+                return Charset.forName(encoding.toString());
+            } catch (IllegalArgumentException e) {
+                log.warn("Unknown character encoding " + encoding + ", reading text payload as UTF-8");
+            }
+        }
+        return UTF8;
+    }
+
+    /**
+     * Helper method to get the text payload of given message. An unbuilt
+     * pass-through payload is read from the pipe as such, which marks the
+     * message built; a built message must carry the text as its text payload.
+     * 
+     * @param synCtx
+     *            Original message context
+     * @param mode
+     *            Name of the mode used in error message
+     * @param charset
+     *            Encoding of the returned stream if payload is already built
+     * @return Stream of the text payload
+     */
+    private InputStream getTextPayload(MessageContext synCtx, String mode, Charset charset) {
+        org.apache.axis2.context.MessageContext axis2MsgCtx = ((Axis2MessageContext) synCtx)
+                .getAxis2MessageContext();
+        Object pipe = axis2MsgCtx.getProperty(PassThroughConstants.PASS_THROUGH_PIPE);
+        if (pipe instanceof Pipe
+                && !Boolean.TRUE.equals(axis2MsgCtx.getProperty(PassThroughConstants.MESSAGE_BUILDER_INVOKED))) {
+            // nothing else may read the pipe, and batch messages copied from
+            // this one must be formatted instead of relayed from the pipe
+            axis2MsgCtx.setProperty(PassThroughConstants.MESSAGE_BUILDER_INVOKED, Boolean.TRUE);
+            return ((Pipe) pipe).getInputStream();
+        }
+        SOAPEnvelope envelope = synCtx.getEnvelope();
+        OMElement payload = envelope.getBody() != null ? envelope.getBody().getFirstElement() : null;
+        if (payload == null || !BatchIteratorConstants.TEXT_WRAPPER.equals(payload.getQName())) {
+            handleException(mode + " mode requires an unbuilt pass-through payload or a text payload", synCtx);
+        }
+        return new ByteArrayInputStream(payload.getText().getBytes(charset));
+    }
+
+    /**
+     * Helper method to get the template of the batch messages in streaming,
+     * JSON and line modes. The original message is used as such unless
+     * properties are filtered or the mode is pipelined, in which case it is
+     * copied once. In pipelined mode the next batch is copied from the
+     * template while a failing batch may be copying its fault handlers to
+     * the original message.
+     * 
+     * @param synCtx
+     *            Original message context with header only envelope
+     * @return Template message context
+     * @throws AxisFault
+     *             If cloning the message context fails
+     */
+    private MessageContext createStreamingTemplate(MessageContext synCtx) throws AxisFault {
+        if (cloneProperties == null && !pipelined) {
+            return synCtx;
+        }
+        MessageContext template = copyMessage(synCtx);
+        if (cloneProperties != null) {
+            cloneProperties.apply(template);
+        }
+        return template;
+    }
+
+    /**
+     * Helper method to proceed with batches as they are produced by given
+     * source. In pipelined mode the next batch message is prepared on the
+     * executor while the current batch is mediated by a sequential target.
+     * 
+     * @param synCtx
+     *            Message context used to create batch iterable message context
+     * @param synLog
+     *            Used for logging
+     * @param skeleton
+     *            Skeleton the iterated messages are copied from
+     * @param batches
+     *            Source of the batches to process
+     * @param checkpoint
+     *            Checkpoint key of the message or null if the iteration is
+     *            not resumable
+     * @throws AxisFault
+     *             If cloning current message context fails
+     */
+    private void proceedWithBatches(MessageContext synCtx, SynapseLog synLog, MessageSkeleton skeleton,
+            BatchSource batches, String checkpoint) throws AxisFault {
+        Target target = getTarget();
+        BatchIteratorMetrics currentMetrics = metrics;
+        OrderedReleaser releaser = createReleaser(synCtx, target);
+        FailFastGuard guard = failFast ? new FailFastGuard() : null;
+        BisectingTarget bisector = createBisector(synCtx, skeleton);
+        boolean dispatched = needsDispatcher(target, releaser, guard, bisector);
+        // metrics only observe: the batches of an asynchronous target handed
+        // to the target as such are not seen completing, so neither their
+        // dispatch nor their completion is recorded
+        BatchIteratorMetrics batchMetrics = !target.isAsynchronous() || dispatched ? currentMetrics : null;
+        BatchCompletionListener observer = createObserver(batchMetrics, releaser, guard);
+        RateLimiter limiter = maxBatchesPerSecond != null ? getRateLimiter() : null;
+        BoundedDispatcher dispatcher = dispatched ? createDispatcher(synCtx, observer, bisector) : null;
+        if (dispatcher != null) {
+            dispatcher.setFailFastGuard(guard);
+        }
+        boolean pipeline = pipelined && !target.isAsynchronous();
+        int completedBefore = checkpoint != null ? skipCompletedBatches(synLog, batches, checkpoint) : 0;
+        BatchPreparation nextBatch = null;
+        int batchesSubmitted = 0;
+        try {
+            while (nextBatch != null || batches.hasNext()) {
+                PreparedBatch batch;
+                if (nextBatch != null) {
+                    batch = awaitBatch(synCtx, nextBatch);
+                    nextBatch = null;
+                } else {
+                    if (releaser != null) {
+                        // wait until the window of unreleased batches has room
+                        releaser.reserve();
+                    }
+                    if (dispatcher != null) {
+                        // wait for a free slot before creating the next batch message
+                        dispatcher.reserve();
+                    }
+                    if (guard != null && guard.isFailed()) {
+                        // the slots reserved above die with this mediation
+                        break;
+                    }
+                    batch = prepareBatch(synCtx, synLog, skeleton, batches, target, currentMetrics, bisector);
+                }
+                if (pipeline && batches.hasNext()) {
+                    nextBatch = prepareBatchAsync(synCtx, synLog, skeleton, batches, target, currentMetrics,
+                            bisector);
+                }
+                if (limiter != null) {
+                    // wait for the rate limit before the batch is handed on
+                    long waitedNanos = limiter.acquire();
+                    if (currentMetrics != null) {
+                        currentMetrics.rateLimitWaitTime(waitedNanos);
+                    }
+                }
+                if (releaser != null) {
+                    releaser.submitted(batch.context);
+                }
+                if (guard != null) {
+                    guard.submitted(batch.context, batch.number);
+                }
+                if (batchMetrics != null) {
+                    // recorded only when the batch is handed on, as a batch
+                    // prepared ahead is discarded if the iteration is aborted
+                    batchMetrics.batchDispatched(batch.elementCount);
+                }
+                batchesSubmitted++;
+                proceedWithBatch(synCtx, target, dispatcher, observer, bisector, batch.context,
+                        batch.elementCount);
+                if (checkpoint != null) {
+                    checkpointStore.batchCompleted(checkpoint, completedBefore + batchesSubmitted);
+                }
+            }
+            if (checkpoint != null) {
+                checkpointStore.clear(checkpoint);
+            }
+        } finally {
+            if (dispatcher != null) {
+                dispatcher.close();
+            }
+            boolean batchPending = nextBatch != null;
+            if (nextBatch != null && !nextBatch.abandon()) {
+                // the iteration was aborted while the next batch was being
+                // prepared, make sure the batch source is no longer used once
+                // the mediation returns
+                awaitQuietly(nextBatch);
+            }
+            if (guard != null) {
+                int batchCount = batches.getBatchCount();
+                guard.close(completedBefore + batchesSubmitted, batchPending || batches.hasNext(),
+                        batchCount == BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT ? -1 : batchCount);
+                if (guard.isFailed()) {
+                    synCtx.setProperty(BatchIteratorConstants.NOT_RUN_BATCHES_PROPERTY, guard.getNotRunBatches());
+                }
+            }
+            // batch aggregator cannot know the number of batches of an
+            // aborted iteration or one whose batch count was unknown; a
+            // failure to report must not mask the outcome of the iteration
+            if (BatchAggregateRegistry.isAggregated(getId())) {
+                try {
+                    BatchAggregateRegistry.iterationEnded(getId(), synCtx, completedBefore + batchesSubmitted,
+                            completedBefore);
+                } catch (RuntimeException e) {
+                    log.error("Unable to report the end of the iteration to the batch aggregator", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method to get the checkpoint key of given message, prefixed with
+     * the id of this mediator if it has one, if the iteration is resumable.
+     * The key is evaluated before the payload is split or replaced.
+     * 
+     * @param synCtx
+     *            Original message context
+     * @return Checkpoint key or null if the iteration is not resumable
+     */
+    private String getResumeKey(MessageContext synCtx) {
+        if (checkpointStore == null || getTarget().isAsynchronous()) {
+            return null;
+        }
+        String key = checkpointKey != null ? checkpointKey.stringValueOf(synCtx) : synCtx.getMessageID();
+        if (key == null || key.length() == 0) {
+            handleException("Checkpoint key of the message is empty", synCtx);
+        }
+        return getId() != null ? getId() + "/" + key : key;
+    }
 
     /**
-     * Invokes the mediator passing the current message for mediation. Each
-     * mediator performs its mediation action, and returns true if mediation
-     * should continue, or false if further mediation should be aborted.
-     *
-     * @param context
-     *            Current message context for mediation
-     * @return true if further mediation should continue, otherwise false
+     * Helper method to skip the batches recorded as completed by an earlier
+     * mediation of the message. The batches are read from the source but no
+     * messages are created of them.
+     * 
+     * @param synLog
+     *            Used for logging
+     * @param batches
+     *            Source of the batches to process
+     * @param key
+     *            Checkpoint key of the message
+     * @return Number of batches skipped
      */
-    @Override
-    public boolean mediate(MessageContext synCtx) {
-        SynapseLog synLog = getLog(synCtx);
+    private int skipCompletedBatches(SynapseLog synLog, BatchSource batches, String key) {
+        int completed = checkpointStore.getCompletedBatches(key);
+        int skipped = 0;
+        while (skipped < completed && batches.hasNext()) {
+            batches.next();
+            skipped++;
+        }
+        if (skipped > 0 && synLog.isTraceOrDebugEnabled()) {
+            synLog.traceOrDebug("Resuming " + key + " after " + skipped + " completed batches");
+        }
+        return skipped;
+    }
 
+    /**
+     * Helper method to read the next batch from given source and to create
+     * its message context.
+     * 
+     * @param synCtx
+     *            Message context used to create batch iterable message context
+     * @param synLog
+     *            Used for logging
+     * @param skeleton
+     *            Skeleton the iterated messages are copied from
+     * @param batches
+     *            Source of the batches to process
+     * @param target
+     *            Target of the batches, used for logging
+     * @param currentMetrics
+     *            Metrics of this mediator or null
+     * @param bisector
+     *            Target keeping the elements of the batch for retries or null
+     * @return Batch message context and the number of elements in it
+     * @throws AxisFault
+     *             If cloning current message context fails
+     */
+    private PreparedBatch prepareBatch(MessageContext synCtx, SynapseLog synLog, MessageSkeleton skeleton,
+            BatchSource batches, Target target, BatchIteratorMetrics currentMetrics, BisectingTarget bisector)
+            throws AxisFault {
+        long startNanos = System.nanoTime();
+        ElementBatch elementBatch = batches.next();
+        if (currentMetrics != null && streaming) {
+            // in streaming mode the payload is split while reading batches
+            currentMetrics.splitTime(System.nanoTime() - startNanos);
+        }
+        int msgNumber = elementBatch.getNumber();
+        int msgCount = batches.getBatchCount();
         if (synLog.isTraceOrDebugEnabled()) {
-            synLog.traceOrDebug("Start : BatchIterate mediator");
+            synLog.traceOrDebug("Submitting " + (msgNumber + 1) + " of "
+                    + (msgCount == BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT ? "unknown" : msgCount)
+                    + (target.isAsynchronous() ? " messages for processing in parallel"
+                            : " messages for processing in sequentially"));
+        }
 
-            if (synLog.isTraceTraceEnabled()) {
-                synLog.traceTrace("Message : " + synCtx.getEnvelope());
+        List<OMNode> retryCopies = bisector != null ? BisectingTarget.copyOf(elementBatch.getElements()) : null;
+        MessageContext iteratedMsgCtx = getIteratedMessageContext(synCtx.getMessageID(), msgNumber, msgCount, skeleton,
+                elementBatch.getElements());
+        if (bisector != null) {
+            bisector.register(iteratedMsgCtx, msgNumber, msgCount, retryCopies);
+        }
+        if (elementBatch.getPartitionKey() != null) {
+            iteratedMsgCtx.setProperty(BatchIteratorConstants.PARTITION_KEY_PROPERTY, elementBatch.getPartitionKey());
+        }
+        return new PreparedBatch(iteratedMsgCtx, msgNumber, elementBatch.size());
+    }
+
+    /**
+     * Helper method to start preparing the next batch on the executor. If the
+     * executor does not run the task before the batch is needed, the
+     * mediating thread prepares it itself.
+     * 
+     * @return Task preparing the batch
+     */
+    private BatchPreparation prepareBatchAsync(final MessageContext synCtx, final SynapseLog synLog,
+            final MessageSkeleton skeleton, final BatchSource batches, final Target target,
+            final BatchIteratorMetrics currentMetrics, final BisectingTarget bisector) {
+        BatchPreparation task = new BatchPreparation(new Callable<PreparedBatch>() {
+            @Override
+            public PreparedBatch call() throws AxisFault {
+                return prepareBatch(synCtx, synLog, skeleton, batches, target, currentMetrics, bisector);
             }
+        });
+        try {
+            (executorConfig != null ? getExecutor() : synCtx.getEnvironment().getExecutorService()).execute(task);
+        } catch (RejectedExecutionException e) {
+            synLog.traceOrDebug("Executor rejected preparing the next batch - preparing it when needed");
         }
+        return task;
+    }
 
+    /**
+     * Helper method to get a batch prepared by given task, running the task
+     * in the current thread if it has not yet started.
+     * 
+     * @param synCtx
+     *            Used for exception handling
+     * @param task
+     *            Task preparing the batch
+     * @return Prepared batch
+     * @throws AxisFault
+     *             If cloning current message context failed
+     */
+    private PreparedBatch awaitBatch(MessageContext synCtx, BatchPreparation task) throws AxisFault {
+        task.run();
         try {
-            // get a copy of the message for the processing, if the
-            // continueParent is set to true
-            // this original message can go in further mediations and hence we
-            // should not change
-            // the original message context
-            SOAPEnvelope envelope = MessageHelper.cloneSOAPEnvelope(synCtx.getEnvelope());
-            // get the iteration elements and iterate through the list,
-            // this call will also detach all the iteration elements
-            SynapseXPath expression = getExpression();
-            List<?> splitElements = EIPUtils.getDetachedMatchingElements(envelope, synCtx, expression);
-
-            if (synLog.isTraceOrDebugEnabled()) {
-                synLog.traceOrDebug(
-                        "Splitting with XPath : " + expression + " resulted in " + splitElements.size() + " elements");
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            handleException("Interrupted while preparing the next batch", e, synCtx);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof AxisFault) {
+                throw (AxisFault) cause;
             }
-
-            removeChildrenIfPayloadNotPreserved(envelope);
-
-            if (batchSize == null || batchSize < 0) {
-                batchSize = 1;
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
             }
+            handleException("Error preparing the next batch", e, synCtx);
+        }
+        return null;
+    }
 
-            List<ElementBatch> batchList = batchSplittedElements(synCtx, expression, splitElements);
+    private void awaitQuietly(BatchPreparation task) {
+        task.run();
+        try {
+            task.get();
+        } catch (Exception e) {
+            // the iteration has already failed, the batch is discarded
+        }
+    }
 
-            proceedWithBatches(synCtx, synLog, envelope, batchList);
+    /**
+     * Helper method to create releaser passing the batches of an asynchronous
+     * target to the release sequence in batch order, if ordered mode is on.
+     * 
+     * @param synCtx
+     *            Used to look up the release sequence
+     * @param target
+     *            Target of the batches
+     * @return Releaser or null if batches are not released in order
+     */
+    private OrderedReleaser createReleaser(MessageContext synCtx, Target target) {
+        if (!ordered || !target.isAsynchronous()) {
+            return null;
+        }
+        Mediator release = releaseSequenceRef != null ? synCtx.getSequence(releaseSequenceRef) : releaseSequence;
+        if (release == null) {
+            handleException("Unable to find the release sequence : " + releaseSequenceRef, synCtx);
+        }
+        return new OrderedReleaser(release, maxConcurrentBatches != null ? maxConcurrentBatches : 0);
+    }
 
-        } catch (JaxenException e) {
-            handleException("Error evaluating split XPath expression : " + getExpression(), e, synCtx);
-        } catch (AxisFault af) {
-            handleException("Error creating an iterated copy of the message", af, synCtx);
-        } catch (SynapseException synEx) {
-            throw synEx;
-        } catch (Exception e) {
-            handleException("Exception occurred while executing the Batch Iterate Mediator", e, synCtx);
+    /**
+     * Helper method to create target bisecting the failed batches of this
+     * mediation, if a poison sequence is configured.
+     * 
+     * @param synCtx
+     *            Used to look up the poison sequence and to create the
+     *            retried parts of the batches
+     * @param skeleton
+     *            Skeleton the retried parts are copied from
+     * @return Bisecting target or null if failed batches are not retried
+     */
+    private BisectingTarget createBisector(final MessageContext synCtx, final MessageSkeleton skeleton) {
+        if (poisonSequence == null && poisonSequenceRef == null) {
+            return null;
+        }
+        if (BatchAggregateRegistry.isAggregated(getId())) {
+            // the retried parts of a batch carry the message sequence of the
+            // batch, so the aggregator would take the first part reporting
+            // for the whole batch and drop the responses of the other parts
+            handleException("onPoison cannot be used when the batches are aggregated with batchAggregate", synCtx);
+        }
+        Mediator poison = poisonSequenceRef != null ? synCtx.getSequence(poisonSequenceRef) : poisonSequence;
+        if (poison == null) {
+            handleException("Unable to find the poison sequence : " + poisonSequenceRef, synCtx);
         }
+        return new BisectingTarget(getSynchronousTarget(), poison, new BisectingTarget.BatchFactory() {
+            @Override
+            public MessageContext createBatch(int number, int count, List<OMNode> elements) throws AxisFault {
+                return getIteratedMessageContext(synCtx.getMessageID(), number, count, skeleton, elements);
+            }
+        });
+    }
 
-        // if the continuation of the parent message is stopped from here set
-        // the RESPONSE_WRITTEN
-        // property to SKIP to skip the blank http response
-        OperationContext opCtx = ((Axis2MessageContext) synCtx).getAxis2MessageContext().getOperationContext();
-        if (!isContinueParent() && opCtx != null) {
-            opCtx.setProperty(Constants.RESPONSE_WRITTEN, "SKIP");
+    /**
+     * Helper method to create listener notifying the fail fast guard, the
+     * adaptive batch size controller, the metrics, the batch aggregator and
+     * the ordered releaser of completed batches.
+     * 
+     * @param currentMetrics
+     *            Metrics of this mediator or null
+     * @param releaser
+     *            Releaser of this mediation or null
+     * @param guard
+     *            Fail fast guard of this mediation or null
+     * @return Listener or null if no one needs to be notified
+     */
+    private BatchCompletionListener createObserver(final BatchIteratorMetrics currentMetrics,
+            OrderedReleaser releaser, FailFastGuard guard) {
+        final List<BatchCompletionListener> listeners = new ArrayList<BatchCompletionListener>();
+        if (guard != null) {
+            // first, so that the producer stops as early as possible
+            listeners.add(guard);
+        }
+        if (adaptiveBatchSize != null) {
+            listeners.add(adaptiveBatchSize);
         }
+        if (currentMetrics != null) {
+            listeners.add(currentMetrics);
+        }
+        if (BatchAggregateRegistry.isAggregated(getId())) {
+            final String aggregatorId = getId();
+            listeners.add(new BatchCompletionListener() {
+                @Override
+                public void batchCompleted(MessageContext iteratedMsgCtx, int elementCount, long startNanos,
+                        Exception failure) {
+                    if (failure != null) {
+                        BatchAggregateRegistry.batchFailed(aggregatorId, iteratedMsgCtx);
+                    }
+                }
+            });
+        }
+        if (releaser != null) {
+            // released last, once the others have seen the batch complete
+            listeners.add(releaser);
+        }
+        if (listeners.isEmpty()) {
+            return null;
+        }
+        if (listeners.size() == 1) {
+            return listeners.get(0);
+        }
+        return new BatchCompletionListener() {
+            @Override
+            public void batchCompleted(MessageContext iteratedMsgCtx, int elementCount, long startNanos,
+                    Exception failure) {
+                for (BatchCompletionListener listener : listeners) {
+                    listener.batchCompleted(iteratedMsgCtx, elementCount, startNanos, failure);
+                }
+            }
+        };
+    }
 
-        synLog.traceOrDebug("End : BatchIterate mediator");
+    /**
+     * Helper method to tell whether the mediator runs the batches of an
+     * asynchronous target itself instead of handing them to the target: with
+     * the dedicated executor, with limited number of batches in flight, with
+     * completed batches observed for adaptive batch size, ordered release,
+     * fail fast mode or batch aggregation, or with failed batches bisected or
+     * batches run in partitions. Metrics alone are not a reason.
+     * 
+     * @param target
+     *            Target of the batches
+     * @param releaser
+     *            Releaser of ordered mode or null
+     * @param guard
+     *            Guard of fail fast mode or null
+     * @param bisector
+     *            Target bisecting failed batches or null
+     * @return true if the batches are run by a dispatcher
+     */
+    private boolean needsDispatcher(Target target, OrderedReleaser releaser, FailFastGuard guard,
+            BisectingTarget bisector) {
+        return target.isAsynchronous() && (maxConcurrentBatches != null || executorConfig != null
+                || adaptiveBatchSize != null || releaser != null || guard != null || bisector != null
+                || partitionExpression != null || BatchAggregateRegistry.isAggregated(getId()));
+    }
 
-        // whether to continue mediation on the original message
-        return isContinueParent();
+    /**
+     * Helper method to create dispatcher running the batches of an
+     * asynchronous target, see
+     * {@link #needsDispatcher(Target, OrderedReleaser, FailFastGuard, BisectingTarget)}.
+     * 
+     * @param synCtx
+     *            Used to get the executor of the Synapse environment
+     * @param observer
+     *            Notified of completed batches or null
+     * @param bisector
+     *            Target bisecting failed batches or null
+     * @return Dispatcher
+     */
+    private BoundedDispatcher createDispatcher(MessageContext synCtx, BatchCompletionListener observer,
+            BisectingTarget bisector) {
+        Target batchTarget = bisector != null ? bisector : getSynchronousTarget();
+        Executor batchExecutor = executorConfig != null ? getExecutor()
+                : synCtx.getEnvironment().getExecutorService();
+        if (memoryBudget != null && maxConcurrentBatches != null) {
+            return new SpillingDispatcher(batchExecutor, batchTarget, maxConcurrentBatches, observer,
+                    memoryBudget, new SpillFile(null), metrics);
+        }
+        if (partitionExpression != null) {
+            return new PartitionedDispatcher(batchExecutor, batchTarget,
+                    maxConcurrentBatches != null ? maxConcurrentBatches : Integer.MAX_VALUE, observer);
+        }
+        return new BoundedDispatcher(batchExecutor, batchTarget,
+                maxConcurrentBatches != null ? maxConcurrentBatches : Integer.MAX_VALUE, observer);
     }
 
     /**
-     * Getter for batch size.
+     * Helper method to get the dedicated executor, acquiring it from the
+     * shared registry on first use.
      * 
-     * @return
+     * @return Executor configured for this mediator
      */
-    public Integer getBatchSize() {
-        return batchSize;
+    private synchronized Executor getExecutor() {
+        if (executor == null) {
+            executor = BatchExecutors.acquire(executorConfig);
+        }
+        return executor;
     }
 
     /**
-     * Setter for batch size.
+     * Helper method to get the rate limiter, acquiring the one shared by the
+     * mediators with the same id on first use.
      * 
-     * @param batchSize
+     * @return Rate limiter of this mediator
      */
-    public void setBatchSize(Integer batchSize) {
-        this.batchSize = batchSize;
+    private synchronized RateLimiter getRateLimiter() {
+        if (rateLimiter == null) {
+            int burst = burstSize != null ? burstSize : 1;
+            rateLimiter = getId() != null ? RateLimiters.acquire(getId(), maxBatchesPerSecond, burst)
+                    : new RateLimiter(maxBatchesPerSecond, burst);
+        }
+        return rateLimiter;
     }
 
     /**
-     * Helper method to remove payload from given envelope if payload was not
-     * preserved.
+     * Helper method to get the element accumulator, acquiring the one shared
+     * by the mediators with the same id on first use.
      * 
-     * @param envelope
-     *            To remove payload from
+     * @return Accumulator collecting the elements of this mediator
      */
-    private void removeChildrenIfPayloadNotPreserved(SOAPEnvelope envelope) {
-        // if not preservePayload remove all the child elements
-        if (!isPreservePayload() && envelope.getBody() != null) {
-            for (Iterator<?> itr = envelope.getBody().getChildren(); itr.hasNext();) {
-                ((OMNode) itr.next()).detach();
+    private synchronized ElementAccumulator getAccumulator() {
+        if (accumulator == null) {
+            accumulator = getId() != null ? ElementAccumulators.acquire(getId(), batchSize, maxWaitMillis)
+                    : new ElementAccumulator(Integer.toHexString(System.identityHashCode(this)), batchSize,
+                            maxWaitMillis);
+        }
+        return accumulator;
+    }
+
+    /**
+     * Registers the metrics of this mediator, if the mediator has an id, and
+     * initializes the inline release and poison sequences.
+     */
+    @Override
+    public void init(SynapseEnvironment se) {
+        super.init(se);
+        if (releaseSequence != null) {
+            releaseSequence.init(se);
+        }
+        if (poisonSequence != null) {
+            poisonSequence.init(se);
+        }
+        if (getId() != null && metrics == null) {
+            BatchIteratorMetrics acquired = BatchIteratorMetricsRegistry.acquire(getId());
+            acquired.setAdaptiveBatchSize(adaptiveBatchSize);
+            metrics = acquired;
+        }
+    }
+
+    /**
+     * Releases the dedicated executor, the rate limiter and the metrics, if
+     * they were acquired, sends the batch being accumulated and destroys the
+     * inline release and poison sequences.
+     */
+    @Override
+    public void destroy() {
+        ElementAccumulator unusedAccumulator = null;
+        synchronized (this) {
+            if (executor != null) {
+                BatchExecutors.release(executorConfig.getName());
+                executor = null;
             }
+            if (rateLimiter != null) {
+                if (getId() != null) {
+                    RateLimiters.release(getId());
+                }
+                rateLimiter = null;
+            }
+            unusedAccumulator = accumulator;
+            accumulator = null;
+        }
+        if (unusedAccumulator != null) {
+            // closing hands over the last batch, outside the lock of this
+            // mediator
+            if (getId() != null) {
+                ElementAccumulators.release(getId());
+            } else {
+                unusedAccumulator.close();
+            }
+        }
+        if (metrics != null) {
+            BatchIteratorMetricsRegistry.release(getId());
+            metrics = null;
+        }
+        if (releaseSequence != null) {
+            releaseSequence.destroy();
+        }
+        if (poisonSequence != null) {
+            poisonSequence.destroy();
         }
+        super.destroy();
     }
 
     /**
-     * Helper method to proceed with given batched elements.
+     * Getter for the metrics of this mediator.
      * 
-     * @param synCtx
-     *            Message context used to create batch iterable message context
-     * @param synLog
-     *            Used for logging
-     * @param envelope
-     *            SOAP Envelope instance used to clone current without modifying
-     *            current one
-     * @param batchList
-     *            Batches to process
-     * @throws AxisFault
-     *             If cloning current message context fails
-     * @throws JaxenException
-     *             If XPath express evaluation fails
+     * @return Metrics or null if the mediator has no id or has not been
+     *         initialized
      */
-    private void proceedWithBatches(MessageContext synCtx, SynapseLog synLog, SOAPEnvelope envelope,
-            List<ElementBatch> batchList) throws AxisFault, JaxenException {
-        int msgCount = batchList.size();
-        int msgNumber = 0;
-        Target target = getTarget();
-        for (ElementBatch elementBatch : batchList) {
-            if (synLog.isTraceOrDebugEnabled()) {
-                synLog.traceOrDebug("Submitting " + (msgNumber + 1) + " of " + msgCount + (target.isAsynchronous()
-                        ? " messages for processing in parallel" : " messages for processing in sequentially"));
-            }
+    public BatchIteratorMetrics getMetrics() {
+        return metrics;
+    }
 
-            MessageContext iteratedMsgCtx = getIteratedMessageContext(synCtx, msgNumber++, msgCount, envelope,
-                    elementBatch.elements);
-            if (target.isAsynchronous()) {
-                target.mediate(iteratedMsgCtx);
-            } else {
-                proceedWithSequentialIteration(synCtx, target, iteratedMsgCtx);
+    /**
+     * Helper method to get a synchronous copy of the target, used when this
+     * mediator runs the batches itself instead of the asynchronous target.
+     * 
+     * @return Target mediating in the calling thread
+     */
+    private Target getSynchronousTarget() {
+        if (synchronousTarget == null) {
+            Target target = getTarget();
+            Target copy = new Target();
+            copy.setSequence(target.getSequence());
+            copy.setSequenceRef(target.getSequenceRef());
+            copy.setEndpoint(target.getEndpoint());
+            copy.setEndpointRef(target.getEndpointRef());
+            copy.setToAddress(target.getToAddress());
+            copy.setSoapAction(target.getSoapAction());
+            copy.setAsynchronous(false);
+            synchronousTarget = copy;
+        }
+        return synchronousTarget;
+    }
+
+    /**
+     * Helper method to submit single iterated message to the target.
+     * 
+     * @param synCtx
+     *            Used for exception handling
+     * @param target
+     *            Target mediator to be invoked with given message context
+     * @param dispatcher
+     *            Dispatcher running the batches or null
+     * @param observer
+     *            Notified when a sequential batch has completed or null
+     * @param bisector
+     *            Target bisecting a failed sequential batch or null
+     * @param iteratedMsgCtx
+     *            Message context to be passed to target mediator
+     * @param elementCount
+     *            Number of elements in the batch
+     */
+    private void proceedWithBatch(MessageContext synCtx, Target target, BoundedDispatcher dispatcher,
+            BatchCompletionListener observer, BisectingTarget bisector, MessageContext iteratedMsgCtx,
+            int elementCount) {
+        if (!target.isAsynchronous()) {
+            long startNanos = System.nanoTime();
+            Exception failure = null;
+            try {
+                proceedWithSequentialIteration(synCtx, bisector != null ? bisector : target, iteratedMsgCtx);
+            } catch (RuntimeException e) {
+                failure = e;
+                throw e;
+            } finally {
+                if (observer != null) {
+                    observer.batchCompleted(iteratedMsgCtx, elementCount, startNanos, failure);
+                }
             }
+        } else if (dispatcher != null) {
+            dispatcher.dispatch(iteratedMsgCtx, elementCount);
+        } else {
+            target.mediate(iteratedMsgCtx);
         }
     }
 
     /**
-     * Helper method to batch given splitted elements
+     * Helper method to batch given splitted elements. Batches are produced on
+     * demand by the returned source.
      * 
      * @param synCtx
      *            Used to validate splitted element
@@ -210,25 +1972,44 @@ public class BatchIteratorMediator extends IterateMediator {
      *            Used to validate splitted element
      * @param splitElements
      *            Elements to be batched in defined size
-     * @return List containing batches
+     * @return Source producing the batches
      */
-
-    private List<ElementBatch> batchSplittedElements(MessageContext synCtx, SynapseXPath expression,
+    private BatchSource batchSplittedElements(MessageContext synCtx, SynapseXPath expression,
             List<?> splitElements) {
-        List<ElementBatch> batchList = new LinkedList<ElementBatch>();
-        int elementSize = splitElements.size();
-        ElementBatch batch = null;
-        for (int i = 0; i < elementSize; i++) {
-            Object o = splitElements.get(i);
+        OMNode[] elements = new OMNode[splitElements.size()];
+        int i = 0;
+        for (Object o : splitElements) {
             validateIterableObject(synCtx, expression, o);
-            boolean newBatch = i % batchSize == 0;
-            if (newBatch || batch == null) {
-                batch = new ElementBatch();
-                batchList.add(batch);
-            }
-            batch.elements.add((OMNode) o);
+            elements[i++] = (OMNode) o;
+        }
+        BatchLimits limits = createBatchLimits();
+        if (partitionExpression != null) {
+            return new PartitionedBatchSource(elements, partitionExpression, limits);
+        }
+        if (limits.isAdaptive() || limits.isMeasured()) {
+            // measured elements are measured as their batch is produced
+            return new SplitBatchSource(elements, limits);
+        }
+        return new SplitBatchSource(elements, limits.getMaxElements());
+    }
+
+    /**
+     * Helper method to create the limits closing a batch. Without batchSize
+     * the number of elements is limited only if no other limit is set. The
+     * adaptive controller overrides batchSize.
+     * 
+     * @return Limits of a batch
+     */
+    private BatchLimits createBatchLimits() {
+        boolean measured = maxBatchBytes != null || weightExpression != null;
+        int maxElements;
+        if (batchSize == null) {
+            maxElements = measured ? Integer.MAX_VALUE : 1;
+        } else {
+            maxElements = Math.max(batchSize, 1);
         }
-        return batchList;
+        return new BatchLimits(maxElements, maxBatchBytes != null ? maxBatchBytes : 0, weightExpression,
+                maxBatchWeight != null ? maxBatchWeight : Double.MAX_VALUE, adaptiveBatchSize);
     }
 
     /**
@@ -280,46 +2061,62 @@ public class BatchIteratorMediator extends IterateMediator {
     }
 
     /**
-     * Create a new message context using the given original message context,
-     * the envelope and the split result element.
+     * Create a new message context using the skeleton and the split result
+     * elements.
      *
-     * @param synCtx
-     *            - original message context
+     * @param parentMessageId
+     *            - message ID of the original message
      * @param msgNumber
      *            - message number in the iteration
      * @param msgCount
      *            - total number of messages in the split
-     * @param envelope
-     *            - envelope to be used in the iteration
-     * @param o
-     *            - element which participates in the iteration replacement
+     * @param skeleton
+     *            - skeleton to be copied for the iteration
+     * @param elements
+     *            - elements which participate in the iteration replacement
      * @return newCtx created by the iteration
      * @throws AxisFault
      *             if there is a message creation failure
-     * @throws JaxenException
-     *             if the expression evaluation failure
      */
-    private MessageContext getIteratedMessageContext(MessageContext synCtx, int msgNumber, int msgCount,
-            SOAPEnvelope envelope, List<OMNode> elements) throws AxisFault, JaxenException {
+    private MessageContext getIteratedMessageContext(String parentMessageId, int msgNumber, int msgCount,
+            MessageSkeleton skeleton, List<OMNode> elements) throws AxisFault {
 
-        // clone the message context without cloning the SOAP envelope, for the
-        // mediation in iteration.
-        MessageContext newCtx = MessageHelper.cloneMessageContext(synCtx);
+        // copy the skeleton, this clones the message context and the
+        // remaining envelope without the split elements
+        BatchIteratorMetrics currentMetrics = metrics;
+        long startNanos = System.nanoTime();
+        MessageContext newCtx = skeleton.newMessageContext();
+        if (currentMetrics != null) {
+            currentMetrics.cloneTime(System.nanoTime() - startNanos);
+        }
 
-        setMessageSequenceAndParentCorrelationProperties(synCtx, msgNumber, msgCount, newCtx);
+        setMessageSequenceAndParentCorrelationProperties(parentMessageId, msgNumber, msgCount, newCtx);
 
-        // get a clone of the envelope to be attached
-        SOAPEnvelope newEnvelope = MessageHelper.cloneSOAPEnvelope(envelope);
+        SOAPEnvelope newEnvelope = newCtx.getEnvelope();
 
         // if payload should be preserved then attach the iteration element to
         // the node specified by the attachPath
-        if (isPreservePayload()) {
-            preservePayload(synCtx, elements, newEnvelope);
+        if (skeleton.hasAttachElement()) {
+            OMElement attachElement = skeleton.getAttachElement(newEnvelope);
+            for (OMNode child : elements) {
+                attachElement.addChild(child);
+            }
+        } else if (jsonPath != null || splitLines) {
+            // the JSON array or the lines are the payload as such
+            for (OMNode child : elements) {
+                newEnvelope.getBody().addChild(child);
+            }
+            org.apache.axis2.context.MessageContext axis2MsgCtx = ((Axis2MessageContext) newCtx)
+                    .getAxis2MessageContext();
+            axis2MsgCtx.setProperty(Constants.Configuration.MESSAGE_TYPE,
+                    BatchIteratorConstants.TEXT_BATCH_MESSAGE_TYPE);
+            if (jsonPath != null) {
+                axis2MsgCtx.setProperty(Constants.Configuration.CONTENT_TYPE,
+                        BatchIteratorConstants.JSON_BATCH_CONTENT_TYPE);
+            }
         } else if (newEnvelope.getBody() != null) {
             dontPreservePayload(elements, newEnvelope);
         }
-        // set the envelope and mediate as specified in the target
-        newCtx.setEnvelope(newEnvelope);
 
         return newCtx;
     }
@@ -337,32 +2134,14 @@ public class BatchIteratorMediator extends IterateMediator {
         }
     }
 
-    private void preservePayload(MessageContext synCtx, List<OMNode> elements, SOAPEnvelope newEnvelope) {
-        Object attachElem = getAttachPath().evaluate(newEnvelope, synCtx);
-        if (attachElem != null && attachElem instanceof List<?> && !((List<?>) attachElem).isEmpty()) {
-            attachElem = ((List<?>) attachElem).get(0);
-        }
-
-        // for the moment attaching element should be an OMElement
-        if (attachElem != null && attachElem instanceof OMElement) {
-            OMElement attachElement = (OMElement) attachElem;
-            for (OMNode child : elements) {
-                attachElement.addChild(child);
-            }
-        } else {
-            handleException("Error in attaching the splitted elements :: "
-                    + "Unable to get the attach path specified by the expression " + getAttachPath(), synCtx);
-        }
-    }
-
-    private void setMessageSequenceAndParentCorrelationProperties(MessageContext synCtx, int msgNumber, int msgCount,
-            MessageContext newCtx) {
+    private void setMessageSequenceAndParentCorrelationProperties(String parentMessageId, int msgNumber,
+            int msgCount, MessageContext newCtx) {
         String messageSequenceKey = EIPConstants.MESSAGE_SEQUENCE;
         String id = getId();
         if (id != null) {
             // set the parent correlation details to the cloned MC -
             // for the use of aggregation like tasks
-            newCtx.setProperty(EIPConstants.AGGREGATE_CORRELATION + "." + id, synCtx.getMessageID());
+            newCtx.setProperty(EIPConstants.AGGREGATE_CORRELATION + "." + id, parentMessageId);
             // set the messageSequence property for possible aggregations
             messageSequenceKey += "." + id;
         }
@@ -406,11 +2185,50 @@ public class BatchIteratorMediator extends IterateMediator {
         }
     }
 
-    private class ElementBatch {
-        List<OMNode> elements;
+    /**
+     * Batch message context ready to be submitted to the target.
+     */
+    private static class PreparedBatch {
+        final MessageContext context;
+        final int number;
+        final int elementCount;
+
+        PreparedBatch(MessageContext context, int number, int elementCount) {
+            this.context = context;
+            this.number = number;
+            this.elementCount = elementCount;
+        }
+    }
+
+    /**
+     * Preparation of the next batch in pipelined mode, which can be abandoned
+     * as long as it has not started.
+     */
+    private static class BatchPreparation extends FutureTask<PreparedBatch> {
+        private final AtomicBoolean claimed;
+
+        BatchPreparation(Callable<PreparedBatch> preparation) {
+            this(preparation, new AtomicBoolean());
+        }
+
+        private BatchPreparation(final Callable<PreparedBatch> preparation, final AtomicBoolean claimed) {
+            super(new Callable<PreparedBatch>() {
+                @Override
+                public PreparedBatch call() throws Exception {
+                    if (!claimed.compareAndSet(false, true)) {
+                        throw new CancellationException("Preparation of the batch was abandoned");
+                    }
+                    return preparation.call();
+                }
+            });
+            this.claimed = claimed;
+        }
 
-        ElementBatch() {
-            elements = new LinkedList<OMNode>();
+        /**
+         * @return true if the preparation had not started and now never will
+         */
+        boolean abandon() {
+            return claimed.compareAndSet(false, true);
         }
     }
 }
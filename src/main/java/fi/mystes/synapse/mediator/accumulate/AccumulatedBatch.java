@@ -0,0 +1,93 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.accumulate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.axiom.om.OMNode;
+
+import fi.mystes.synapse.mediator.context.MessageSkeleton;
+
+/**
+ * Elements collected from one or more messages into a batch, with the source
+ * of each element and the skeleton of the message that started the batch.
+ */
+public class AccumulatedBatch {
+
+    private final int number;
+
+    private final MessageSkeleton skeleton;
+
+    private final ElementAccumulator.BatchHandler handler;
+
+    private final List<OMNode> elements = new ArrayList<OMNode>();
+
+    private final List<ElementSource> sources = new ArrayList<ElementSource>();
+
+    AccumulatedBatch(int number, MessageSkeleton skeleton, ElementAccumulator.BatchHandler handler) {
+        this.number = number;
+        this.skeleton = skeleton;
+        this.handler = handler;
+    }
+
+    void add(OMNode element, ElementSource source) {
+        elements.add(element);
+        sources.add(source);
+    }
+
+    ElementAccumulator.BatchHandler getHandler() {
+        return handler;
+    }
+
+    /**
+     * @return Zero based number of the batch among the batches of the
+     *         accumulator
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * @return Skeleton of the message that contributed the first element of
+     *         the batch
+     */
+    public MessageSkeleton getSkeleton() {
+        return skeleton;
+    }
+
+    /**
+     * @return Elements of the batch in the order they were added
+     */
+    public List<OMNode> getElements() {
+        return elements;
+    }
+
+    /**
+     * @return Source of each element, in the order of the elements
+     */
+    public List<ElementSource> getSources() {
+        return Collections.unmodifiableList(sources);
+    }
+
+    /**
+     * @return Number of elements in the batch
+     */
+    public int size() {
+        return elements.size();
+    }
+}
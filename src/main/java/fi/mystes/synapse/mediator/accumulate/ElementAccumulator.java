@@ -0,0 +1,219 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.accumulate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.axiom.om.OMNode;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import fi.mystes.synapse.mediator.context.MessageSkeleton;
+
+/**
+ * Collects split elements from many messages into batches. A batch is handed
+ * over when it has reached the batch size or when the maximum wait time has
+ * passed since its first element was added, whichever comes first.
+ *
+ * The elements of one message are added in one step, so they stay together
+ * in the order they were split, and the lock is held only while element
+ * references are moved into the buffer. Batches are handed over outside the
+ * lock, either by the thread adding the last element or by the timer thread
+ * of the accumulator.
+ */
+public class ElementAccumulator {
+
+    private static final Log log = LogFactory.getLog(ElementAccumulator.class);
+
+    private final int batchSize;
+
+    private final long maxWaitMillis;
+
+    private final ScheduledExecutorService timer;
+
+    private AccumulatedBatch current;
+
+    private int nextNumber;
+
+    private boolean closed;
+
+    /**
+     * Handles the batches of an accumulator.
+     */
+    public interface BatchHandler {
+
+        /**
+         * Called once for each batch, outside the lock of the accumulator.
+         * 
+         * @param batch
+         *            Complete batch
+         * @throws Exception
+         *             If handling the batch fails, the failure is logged
+         */
+        void handle(AccumulatedBatch batch) throws Exception;
+    }
+
+    /**
+     * @param name
+     *            Used for naming the timer thread
+     * @param batchSize
+     *            Maximum number of elements in a batch
+     * @param maxWaitMillis
+     *            Maximum time in milliseconds the first element of a batch
+     *            waits for the batch to be handed over
+     */
+    public ElementAccumulator(String name, int batchSize, long maxWaitMillis) {
+        this(batchSize, maxWaitMillis, createTimer(name));
+    }
+
+    ElementAccumulator(int batchSize, long maxWaitMillis, ScheduledExecutorService timer) {
+        this.batchSize = Math.max(batchSize, 1);
+        this.maxWaitMillis = maxWaitMillis;
+        this.timer = timer;
+    }
+
+    /**
+     * Adds the elements split from a message. Batches filled by the elements
+     * are handed over by the calling thread before this method returns.
+     * 
+     * @param elements
+     *            Detached elements in the order they were split
+     * @param messageId
+     *            Message ID of the message the elements were split from
+     * @param skeleton
+     *            Skeleton of the batch messages started by these elements, a
+     *            snapshot that does not change after the message has gone on
+     * @param handler
+     *            Handles the batches started by these elements
+     * @throws IllegalStateException
+     *             If the accumulator has been closed
+     */
+    public void add(List<OMNode> elements, String messageId, MessageSkeleton skeleton, BatchHandler handler) {
+        List<AccumulatedBatch> full = new ArrayList<AccumulatedBatch>();
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Element accumulator has been closed");
+            }
+            for (int i = 0; i < elements.size(); i++) {
+                if (current == null) {
+                    current = new AccumulatedBatch(nextNumber++, skeleton, handler);
+                    scheduleDeadline(current);
+                }
+                current.add(elements.get(i), new ElementSource(messageId, i));
+                if (current.size() >= batchSize) {
+                    full.add(current);
+                    current = null;
+                }
+            }
+        }
+        for (AccumulatedBatch batch : full) {
+            handOver(batch);
+        }
+    }
+
+    /**
+     * Hands over the batch being collected, if it has any elements.
+     */
+    public void flush() {
+        AccumulatedBatch batch;
+        synchronized (this) {
+            batch = current;
+            current = null;
+        }
+        if (batch != null) {
+            handOver(batch);
+        }
+    }
+
+    /**
+     * Hands over the batch being collected and stops the timer. Elements can
+     * not be added after the accumulator has been closed.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        timer.shutdownNow();
+    }
+
+    /**
+     * @return Number of elements waiting in the batch being collected
+     */
+    public synchronized int getPendingCount() {
+        return current != null ? current.size() : 0;
+    }
+
+    /**
+     * @return Maximum number of elements in a batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return Maximum time in milliseconds the first element of a batch waits
+     */
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    private void scheduleDeadline(final AccumulatedBatch batch) {
+        // the deadline is not cancelled when the batch fills up, the expired
+        // task just finds that the batch is no longer being collected
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expire(batch);
+            }
+        }, maxWaitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void expire(AccumulatedBatch batch) {
+        synchronized (this) {
+            if (current != batch) {
+                return;
+            }
+            current = null;
+        }
+        handOver(batch);
+    }
+
+    private void handOver(AccumulatedBatch batch) {
+        try {
+            batch.getHandler().handle(batch);
+        } catch (Exception e) {
+            log.error("Error handling accumulated batch " + (batch.getNumber() + 1) + " of " + batch.size()
+                    + " elements", e);
+        }
+    }
+
+    private static ScheduledExecutorService createTimer(final String name) {
+        return new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "batch-accumulator-" + name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.accumulate;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Registry of the element accumulators shared by the mediators with the same
+ * id, so that elements from every message mediated by the id end up in the
+ * same batches. An accumulator is created when the first mediator asks for it
+ * and closed, handing over its last batch, when the last one releases it.
+ */
+public final class ElementAccumulators {
+
+    private static final Log log = LogFactory.getLog(ElementAccumulators.class);
+
+    private static final Map<String, SharedAccumulator> accumulators = new HashMap<String, SharedAccumulator>();
+
+    private ElementAccumulators() {
+    }
+
+    /**
+     * Gets the accumulator of given mediator id, creating it if it does not
+     * exist. Each call must be paired with {@link #release(String)}.
+     * 
+     * @param id
+     *            Mediator id
+     * @param batchSize
+     *            Batch size used if the accumulator is created
+     * @param maxWaitMillis
+     *            Maximum wait time used if the accumulator is created
+     * @return Accumulator of the id
+     */
+    public static synchronized ElementAccumulator acquire(String id, int batchSize, long maxWaitMillis) {
+        SharedAccumulator shared = accumulators.get(id);
+        if (shared == null) {
+            shared = new SharedAccumulator(new ElementAccumulator(id, batchSize, maxWaitMillis));
+            accumulators.put(id, shared);
+        } else if (shared.accumulator.getBatchSize() != Math.max(batchSize, 1)
+                || shared.accumulator.getMaxWaitMillis() != maxWaitMillis) {
+            log.warn("Batch iterators with id " + id + " accumulate differently, using batch size "
+                    + shared.accumulator.getBatchSize() + " and maximum wait of "
+                    + shared.accumulator.getMaxWaitMillis() + " ms");
+        }
+        shared.references++;
+        return shared.accumulator;
+    }
+
+    /**
+     * Releases an accumulator acquired with
+     * {@link #acquire(String, int, long)}, closing it if it is no longer used.
+     * 
+     * @param id
+     *            Mediator id
+     */
+    public static void release(String id) {
+        ElementAccumulator closed = null;
+        synchronized (ElementAccumulators.class) {
+            SharedAccumulator shared = accumulators.get(id);
+            if (shared != null && --shared.references == 0) {
+                accumulators.remove(id);
+                closed = shared.accumulator;
+            }
+        }
+        // the last batch is handed over outside the registry lock
+        if (closed != null) {
+            closed.close();
+        }
+    }
+
+    private static class SharedAccumulator {
+        final ElementAccumulator accumulator;
+        int references;
+
+        SharedAccumulator(ElementAccumulator accumulator) {
+            this.accumulator = accumulator;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.accumulate;
+
+/**
+ * Message an accumulated element was split from and the position of the
+ * element among the elements of that message. Kept for each element of an
+ * accumulated batch, so that results can be routed back to the messages the
+ * elements came from. Only the message ID is kept, as the message itself has
+ * gone on by the time the batch is sent.
+ */
+public class ElementSource {
+
+    private final String messageId;
+
+    private final int index;
+
+    /**
+     * @param messageId
+     *            Message ID of the message the element was split from
+     * @param index
+     *            Zero based position of the element among the elements split
+     *            from the message
+     */
+    public ElementSource(String messageId, int index) {
+        this.messageId = messageId;
+        this.index = index;
+    }
+
+    /**
+     * @return Message ID of the message the element was split from
+     */
+    public String getMessageID() {
+        return messageId;
+    }
+
+    /**
+     * @return Zero based position of the element among the elements split
+     *         from the message
+     */
+    public int getIndex() {
+        return index;
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.aggregate;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.TimerTask;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNode;
+import org.apache.synapse.MessageContext;
+
+import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+
+/**
+ * State of the aggregation of the batches of one iterated message. Responses
+ * are merged into the result element as they arrive and the response message
+ * contexts are not kept, except for the first one which carries the result
+ * when the aggregation completes. If no batch has reported when the iteration
+ * ends, a copy of the iterated message is kept to carry the result instead,
+ * so that an iteration without batches completes too.
+ *
+ * The aggregation completes when the total number of batches is known and
+ * each batch has reported either success or failure. Reports of the same
+ * batch after the first one are ignored. Once the iteration has ended, the
+ * number of batches it created is the total, whatever the batches report.
+ * Batches a resumed iteration skipped as completed earlier never report, so
+ * they count towards the total as skipped.
+ */
+public class BatchAggregate {
+
+    private final String correlation;
+
+    private final OMElement result;
+
+    private final BitSet reported = new BitSet();
+
+    private int total = BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT;
+
+    private boolean iterationEnded;
+
+    private int succeeded;
+
+    private int failed;
+
+    private int skipped;
+
+    private MessageContext carrier;
+
+    private boolean completed;
+
+    private TimerTask timeout;
+
+    /**
+     * @param correlation
+     *            Id of the iterated message
+     * @param result
+     *            Element the responses are merged into
+     */
+    public BatchAggregate(String correlation, OMElement result) {
+        this.correlation = correlation;
+        this.result = result;
+    }
+
+    /**
+     * Merges the response of a successful batch.
+     * 
+     * @param synCtx
+     *            Response message context
+     * @param number
+     *            Zero based number of the batch
+     * @param total
+     *            Total number of batches as reported by the batch
+     * @param elements
+     *            Detached response elements to merge
+     * @return true if the aggregation completed with this batch
+     */
+    public synchronized boolean batchSucceeded(MessageContext synCtx, int number, int total,
+            List<? extends OMNode> elements) {
+        if (!report(synCtx, number, total)) {
+            return false;
+        }
+        succeeded++;
+        for (OMNode element : elements) {
+            result.addChild(element);
+        }
+        return checkCompleted();
+    }
+
+    /**
+     * Counts a failed batch.
+     * 
+     * @param synCtx
+     *            Message context of the batch
+     * @param number
+     *            Zero based number of the batch
+     * @param total
+     *            Total number of batches as reported by the batch
+     * @return true if the aggregation completed with this batch
+     */
+    public synchronized boolean batchFailed(MessageContext synCtx, int number, int total) {
+        if (!report(synCtx, number, total)) {
+            return false;
+        }
+        failed++;
+        return checkCompleted();
+    }
+
+    /**
+     * Sets the total number of batches once the iteration has ended.
+     * 
+     * @param batchCount
+     *            Number of batches created by the iteration
+     * @return true if the aggregation completed
+     */
+    public boolean iterationEnded(int batchCount) {
+        return iterationEnded(batchCount, 0, null);
+    }
+
+    /**
+     * Sets the total number of batches once the iteration has ended.
+     * 
+     * @param batchCount
+     *            Number of batches of the iteration, including skipped ones
+     * @param skippedCount
+     *            Number of batches skipped as completed by an earlier
+     *            mediation of the message
+     * @param iterated
+     *            Copy of the iterated message to carry the result if no batch
+     *            has reported or null
+     * @return true if the aggregation completed
+     */
+    public synchronized boolean iterationEnded(int batchCount, int skippedCount, MessageContext iterated) {
+        if (completed) {
+            return false;
+        }
+        if (carrier == null) {
+            carrier = iterated;
+        }
+        total = batchCount;
+        skipped = skippedCount;
+        iterationEnded = true;
+        return checkCompleted();
+    }
+
+    /**
+     * Completes the aggregation regardless of missing batches.
+     * 
+     * @return true if the aggregation was not yet completed
+     */
+    public synchronized boolean expire() {
+        if (completed) {
+            return false;
+        }
+        completed = true;
+        return true;
+    }
+
+    public String getCorrelation() {
+        return correlation;
+    }
+
+    /**
+     * @return Element the responses have been merged into
+     */
+    public OMElement getResult() {
+        return result;
+    }
+
+    /**
+     * @return First message context reported, or the iterated message if
+     *         none had reported when the iteration ended, or null
+     */
+    public synchronized MessageContext getCarrier() {
+        return carrier;
+    }
+
+    public synchronized int getSucceeded() {
+        return succeeded;
+    }
+
+    public synchronized int getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return Number of batches skipped by a resumed iteration
+     */
+    public synchronized int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return Total number of batches or
+     *         {@link BatchIteratorConstants#UNKNOWN_MESSAGE_COUNT} if not yet
+     *         known
+     */
+    public synchronized int getTotal() {
+        return total;
+    }
+
+    public synchronized void setTimeout(TimerTask timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Cancels the timeout of the aggregation, if scheduled.
+     */
+    public synchronized void cancelTimeout() {
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
+        }
+    }
+
+    private boolean report(MessageContext synCtx, int number, int batchTotal) {
+        if (completed || reported.get(number)) {
+            return false;
+        }
+        reported.set(number);
+        if (carrier == null) {
+            carrier = synCtx;
+        }
+        if (!iterationEnded && batchTotal != BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT) {
+            // an aborted iteration creates fewer batches than they report
+            total = batchTotal;
+        }
+        return true;
+    }
+
+    private boolean checkCompleted() {
+        if (!completed && total != BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT
+                && succeeded + failed + skipped >= total) {
+            completed = true;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.aggregate;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.synapse.MessageContext;
+
+import fi.mystes.synapse.mediator.BatchAggregateMediator;
+
+/**
+ * Registry of the batch aggregate mediators by the id of the batch iterator
+ * they aggregate. Lets the iterator report failed batches and the end of the
+ * iteration to the aggregator, so that the aggregation completes without
+ * waiting for batches that will never respond.
+ */
+public final class BatchAggregateRegistry {
+
+    private static final ConcurrentMap<String, BatchAggregateMediator> aggregators =
+            new ConcurrentHashMap<String, BatchAggregateMediator>();
+
+    private BatchAggregateRegistry() {
+    }
+
+    /**
+     * @param id
+     *            Id of the aggregated batch iterator
+     * @param aggregator
+     *            Aggregator of the batches
+     */
+    public static void register(String id, BatchAggregateMediator aggregator) {
+        aggregators.put(id, aggregator);
+    }
+
+    /**
+     * Removes given aggregator, if it is still registered for given id.
+     * 
+     * @param id
+     *            Id of the aggregated batch iterator
+     * @param aggregator
+     *            Aggregator of the batches
+     */
+    public static void unregister(String id, BatchAggregateMediator aggregator) {
+        // a newer aggregator may have replaced given one on redeployment
+        aggregators.remove(id, aggregator);
+    }
+
+    /**
+     * @param id
+     *            Id of the batch iterator
+     * @return true if the batches of given iterator are aggregated
+     */
+    public static boolean isAggregated(String id) {
+        return id != null && aggregators.containsKey(id);
+    }
+
+    /**
+     * Reports a batch whose mediation failed.
+     * 
+     * @param id
+     *            Id of the batch iterator
+     * @param batchCtx
+     *            Message context of the batch
+     */
+    public static void batchFailed(String id, MessageContext batchCtx) {
+        BatchAggregateMediator aggregator = id != null ? aggregators.get(id) : null;
+        if (aggregator != null) {
+            aggregator.batchFailed(batchCtx);
+        }
+    }
+
+    /**
+     * Reports the number of batches created once the iteration has ended.
+     * 
+     * @param id
+     *            Id of the batch iterator
+     * @param synCtx
+     *            Iterated message context
+     * @param batchCount
+     *            Number of batches of the iteration, including the ones
+     *            skipped on resume
+     * @param skippedCount
+     *            Number of batches skipped as completed by an earlier
+     *            mediation of the message
+     */
+    public static void iterationEnded(String id, MessageContext synCtx, int batchCount, int skippedCount) {
+        BatchAggregateMediator aggregator = id != null ? aggregators.get(id) : null;
+        if (aggregator != null) {
+            aggregator.iterationEnded(synCtx, batchCount, skippedCount);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.MessageContext;
+
+import fi.mystes.synapse.mediator.dispatch.BatchCompletionListener;
+
+/**
+ * Adjusts the number of elements in a batch from the observed latency of the
+ * target in AIMD (additive increase, multiplicative decrease) fashion. A batch
+ * completing within the target latency grows the batch size by a fixed
+ * increment, a batch exceeding it or failing halves the batch size.
+ *
+ * Only one decrease is made per round trip: slow batches that started before
+ * the previous decrease do not decrease the size again. The size is shared by
+ * all messages mediated by the same mediator, so tuning carries over from one
+ * message to the next.
+ */
+public class AdaptiveBatchSizeController implements BatchCompletionListener {
+
+    private static final Log log = LogFactory.getLog(AdaptiveBatchSizeController.class);
+
+    /**
+     * Number of adjustments kept in the history.
+     */
+    public static final int HISTORY_SIZE = 100;
+
+    private final int minBatchSize;
+
+    private final int maxBatchSize;
+
+    private final long targetLatency;
+
+    private final int increment;
+
+    private volatile int batchSize;
+
+    private long lastDecreaseNanos;
+
+    private boolean decreased;
+
+    private final LinkedList<Adjustment> history = new LinkedList<Adjustment>();
+
+    /**
+     * @param minBatchSize
+     *            Smallest batch size
+     * @param maxBatchSize
+     *            Largest batch size
+     * @param targetLatency
+     *            Latency of a batch in milliseconds not to be exceeded
+     * @param increment
+     *            Number of elements added to the batch size after a batch
+     *            within the target latency
+     * @param initialBatchSize
+     *            Batch size to start with, adjusted to the limits
+     */
+    public AdaptiveBatchSizeController(int minBatchSize, int maxBatchSize, long targetLatency, int increment,
+            int initialBatchSize) {
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.targetLatency = targetLatency;
+        this.increment = increment;
+        this.batchSize = Math.min(Math.max(initialBatchSize, minBatchSize), maxBatchSize);
+    }
+
+    /**
+     * @return Number of elements in the next batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getTargetLatency() {
+        return targetLatency;
+    }
+
+    public int getIncrement() {
+        return increment;
+    }
+
+    /**
+     * @return Latest batch size adjustments, oldest first
+     */
+    public synchronized List<Adjustment> getHistory() {
+        return new ArrayList<Adjustment>(history);
+    }
+
+    @Override
+    public void batchCompleted(MessageContext iteratedMsgCtx, int elementCount, long startNanos, Exception failure) {
+        recordBatch(elementCount, startNanos, System.nanoTime(), failure != null);
+    }
+
+    /**
+     * Adjusts the batch size from the latency of a completed batch.
+     * 
+     * @param elementCount
+     *            Number of elements in the batch
+     * @param startNanos
+     *            Value of {@link System#nanoTime()} when mediation of the batch
+     *            started
+     * @param endNanos
+     *            Value of {@link System#nanoTime()} when mediation of the batch
+     *            ended
+     * @param failed
+     *            true if mediation of the batch failed
+     */
+    public synchronized void recordBatch(int elementCount, long startNanos, long endNanos, boolean failed) {
+        long latency = (endNanos - startNanos) / 1000000L;
+        int previousSize = batchSize;
+        if (failed || latency > targetLatency) {
+            if (decreased && startNanos - lastDecreaseNanos < 0) {
+                // already reacted to the batches started before last decrease
+                return;
+            }
+            batchSize = Math.max(minBatchSize, previousSize / 2);
+            lastDecreaseNanos = endNanos;
+            decreased = true;
+        } else if (elementCount >= previousSize) {
+            // a batch smaller than the current size tells nothing about a
+            // larger one
+            batchSize = (int) Math.min((long) maxBatchSize, (long) previousSize + increment);
+        }
+        if (batchSize != previousSize) {
+            if (history.size() == HISTORY_SIZE) {
+                history.removeFirst();
+            }
+            history.add(new Adjustment(System.currentTimeMillis(), previousSize, batchSize, latency, failed));
+            if (log.isDebugEnabled()) {
+                log.debug("Batch size adjusted from " + previousSize + " to " + batchSize + " after batch of "
+                        + elementCount + " elements took " + latency + " ms" + (failed ? " and failed" : ""));
+            }
+        }
+    }
+
+    /**
+     * Single change of the batch size.
+     */
+    public static class Adjustment {
+
+        private final long time;
+
+        private final int previousSize;
+
+        private final int newSize;
+
+        private final long latency;
+
+        private final boolean failed;
+
+        Adjustment(long time, int previousSize, int newSize, long latency, boolean failed) {
+            this.time = time;
+            this.previousSize = previousSize;
+            this.newSize = newSize;
+            this.latency = latency;
+            this.failed = failed;
+        }
+
+        /**
+         * @return Time of the adjustment in milliseconds since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public int getPreviousSize() {
+            return previousSize;
+        }
+
+        public int getNewSize() {
+            return newSize;
+        }
+
+        /**
+         * @return Latency of the batch causing the adjustment in milliseconds
+         */
+        public long getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return true if the batch causing the adjustment failed
+         */
+        public boolean isFailed() {
+            return failed;
+        }
+
+        @Override
+        public String toString() {
+            return previousSize + " -> " + newSize + " (" + latency + " ms" + (failed ? ", failed" : "") + ")";
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.axiom.om.OMNode;
+import org.apache.synapse.SynapseException;
+import org.apache.synapse.util.xpath.SynapseXPath;
+import org.jaxen.JaxenException;
+
+/**
+ * Limits that close a batch: number of elements, serialized size of the
+ * elements in bytes and total weight of the elements given by an XPath
+ * expression. A batch is closed when adding the next element would exceed any
+ * of the limits. An element exceeding a limit alone forms a batch of its own.
+ * The number of elements may be given by an adaptive controller, in which case
+ * it is read when a new batch is started.
+ */
+public class BatchLimits {
+
+    private final int maxElements;
+
+    private final long maxBytes;
+
+    private final SynapseXPath weightExpression;
+
+    private final double maxWeight;
+
+    private final AdaptiveBatchSizeController adaptiveBatchSize;
+
+    /**
+     * @param maxElements
+     *            Maximum number of elements in a batch
+     * @param maxBytes
+     *            Maximum serialized size of a batch in bytes or 0 if not
+     *            limited
+     * @param weightExpression
+     *            Expression giving the weight of an element or null if not
+     *            limited
+     * @param maxWeight
+     *            Maximum total weight of a batch
+     */
+    public BatchLimits(int maxElements, long maxBytes, SynapseXPath weightExpression, double maxWeight) {
+        this(maxElements, maxBytes, weightExpression, maxWeight, null);
+    }
+
+    /**
+     * @param maxElements
+     *            Maximum number of elements in a batch, used if there is no
+     *            adaptive controller
+     * @param maxBytes
+     *            Maximum serialized size of a batch in bytes or 0 if not
+     *            limited
+     * @param weightExpression
+     *            Expression giving the weight of an element or null if not
+     *            limited
+     * @param maxWeight
+     *            Maximum total weight of a batch
+     * @param adaptiveBatchSize
+     *            Controller giving the maximum number of elements in a batch
+     *            or null
+     */
+    public BatchLimits(int maxElements, long maxBytes, SynapseXPath weightExpression, double maxWeight,
+            AdaptiveBatchSizeController adaptiveBatchSize) {
+        this.maxElements = Math.max(maxElements, 1);
+        this.maxBytes = maxBytes;
+        this.weightExpression = weightExpression;
+        this.maxWeight = maxWeight;
+        this.adaptiveBatchSize = adaptiveBatchSize;
+    }
+
+    /**
+     * @return Maximum number of elements in the next batch
+     */
+    public int getMaxElements() {
+        return adaptiveBatchSize != null ? Math.max(adaptiveBatchSize.getBatchSize(), 1) : maxElements;
+    }
+
+    /**
+     * @return true if the number of elements in a batch may change during the
+     *         iteration
+     */
+    public boolean isAdaptive() {
+        return adaptiveBatchSize != null;
+    }
+
+    /**
+     * @return true if elements must be measured to close batches, false if
+     *         batches are closed by element count only
+     */
+    public boolean isMeasured() {
+        return maxBytes > 0 || weightExpression != null;
+    }
+
+    /**
+     * @return Accumulator for a new, empty batch
+     */
+    public Accumulator newBatch() {
+        return newBatch(null);
+    }
+
+    /**
+     * Starts the batch following given one. The element that did not fit in
+     * the previous batch, which starts the new batch, is not measured again.
+     * 
+     * @param previous
+     *            Accumulator of the previous batch or null
+     * @return Accumulator for a new, empty batch
+     */
+    public Accumulator newBatch(Accumulator previous) {
+        Accumulator batch = new Accumulator(getMaxElements());
+        if (previous != null) {
+            batch.carried = previous.rejected;
+            batch.carriedBytes = previous.rejectedBytes;
+            batch.carriedWeight = previous.rejectedWeight;
+        }
+        return batch;
+    }
+
+    /**
+     * Computes batch boundaries for given elements.
+     * 
+     * @param elements
+     *            Elements to be batched
+     * @return Exclusive end index of each batch
+     */
+    public int[] batchEnds(OMNode[] elements) {
+        int[] ends = new int[16];
+        int count = 0;
+        Accumulator batch = newBatch();
+        for (int i = 0; i < elements.length; i++) {
+            if (!batch.add(elements[i])) {
+                if (count == ends.length) {
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                ends[count++] = i;
+                batch = newBatch(batch);
+                batch.add(elements[i]);
+            }
+        }
+        if (elements.length > 0) {
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, count + 1);
+            }
+            ends[count++] = elements.length;
+        }
+        return Arrays.copyOf(ends, count);
+    }
+
+    /**
+     * Serialized size of given node in bytes.
+     * 
+     * @param node
+     *            Node to measure
+     * @return Size in bytes
+     */
+    public static long serializedSize(OMNode node) {
+        CountingOutputStream out = new CountingOutputStream();
+        try {
+            node.serialize(out);
+        } catch (XMLStreamException e) {
+            throw new SynapseException("Error measuring the size of a split element", e);
+        }
+        return out.count;
+    }
+
+    private double weightOf(OMNode node) {
+        double weight;
+        try {
+            weight = weightExpression.numberValueOf(node).doubleValue();
+        } catch (JaxenException e) {
+            throw new SynapseException("Error evaluating weight expression : " + weightExpression, e);
+        }
+        if (Double.isNaN(weight) || weight < 0) {
+            throw new SynapseException(
+                    "Weight expression " + weightExpression + " did not evaluate to a non-negative number");
+        }
+        return weight;
+    }
+
+    /**
+     * Keeps track of the elements added to a batch.
+     */
+    public class Accumulator {
+
+        private final int maxElements;
+
+        private int elements;
+
+        private long bytes;
+
+        private double weight;
+
+        private OMNode rejected;
+
+        private long rejectedBytes;
+
+        private double rejectedWeight;
+
+        private OMNode carried;
+
+        private long carriedBytes;
+
+        private double carriedWeight;
+
+        Accumulator(int maxElements) {
+            this.maxElements = maxElements;
+        }
+
+        /**
+         * Adds given element to the batch if it fits. An empty batch always
+         * accepts the element. An element that does not fit is remembered
+         * with its size and weight for the next batch.
+         * 
+         * @param node
+         *            Element to add
+         * @return true if element was added, false if the batch is full
+         */
+        public boolean add(OMNode node) {
+            if (elements > 0 && elements >= maxElements) {
+                return false;
+            }
+            long nodeBytes;
+            double nodeWeight;
+            if (node == carried) {
+                nodeBytes = carriedBytes;
+                nodeWeight = carriedWeight;
+            } else {
+                nodeBytes = maxBytes > 0 ? serializedSize(node) : 0;
+                nodeWeight = weightExpression != null ? weightOf(node) : 0;
+            }
+            if (add(nodeBytes, nodeWeight)) {
+                return true;
+            }
+            rejected = node;
+            rejectedBytes = nodeBytes;
+            rejectedWeight = nodeWeight;
+            return false;
+        }
+
+        /**
+         * Adds an element of given size and weight to the batch if it fits,
+         * for elements that are not Axiom nodes. An empty batch always accepts
+         * the element.
+         * 
+         * @param nodeBytes
+         *            Size of the element in bytes
+         * @param nodeWeight
+         *            Weight of the element
+         * @return true if element was added, false if the batch is full
+         */
+        public boolean add(long nodeBytes, double nodeWeight) {
+            if (elements > 0 && elements >= maxElements) {
+                return false;
+            }
+            if (elements > 0 && ((maxBytes > 0 && bytes + nodeBytes > maxBytes)
+                    || (weightExpression != null && weight + nodeWeight > maxWeight))) {
+                return false;
+            }
+            elements++;
+            bytes += nodeBytes;
+            weight += nodeWeight;
+            return true;
+        }
+
+        /**
+         * @return Number of elements in the batch
+         */
+        public int size() {
+            return elements;
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) throws IOException {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count += len;
+        }
+    }
+}
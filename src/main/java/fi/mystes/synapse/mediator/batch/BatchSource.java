@@ -0,0 +1,39 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import java.util.Iterator;
+
+/**
+ * Produces batches on demand while they are being dispatched.
+ */
+public interface BatchSource extends Iterator<ElementBatch> {
+
+    /**
+     * Total number of batches. May change while batches are produced, e.g.
+     * once a streamed payload has been read to the end.
+     * 
+     * @return Total number of batches or
+     *         {@link fi.mystes.synapse.mediator.config.BatchIteratorConstants#UNKNOWN_MESSAGE_COUNT}
+     *         if it is not yet known
+     */
+    int getBatchCount();
+
+    /**
+     * @return Number of elements produced so far
+     */
+    int getElementCount();
+}
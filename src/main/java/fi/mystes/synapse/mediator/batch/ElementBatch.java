@@ -0,0 +1,108 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import java.util.List;
+
+import org.apache.axiom.om.OMNode;
+
+/**
+ * Elements of a single batch together with the position of the batch in the
+ * iteration.
+ */
+public class ElementBatch {
+
+    private final int number;
+
+    private final List<OMNode> elements;
+
+    private final int size;
+
+    private final String partitionKey;
+
+    /**
+     * @param number
+     *            Zero based position of the batch in the iteration
+     * @param elements
+     *            Elements of the batch
+     */
+    public ElementBatch(int number, List<OMNode> elements) {
+        this(number, elements, elements.size());
+    }
+
+    /**
+     * @param number
+     *            Zero based position of the batch in the iteration
+     * @param elements
+     *            Nodes carrying the batch, e.g. a single text node
+     * @param size
+     *            Number of split elements the nodes carry
+     */
+    public ElementBatch(int number, List<OMNode> elements, int size) {
+        this(number, elements, size, null);
+    }
+
+    /**
+     * @param number
+     *            Zero based position of the batch in the iteration
+     * @param elements
+     *            Elements of the batch
+     * @param size
+     *            Number of split elements the nodes carry
+     * @param partitionKey
+     *            Partition key shared by the elements or null if not
+     *            partitioned
+     */
+    public ElementBatch(int number, List<OMNode> elements, int size, String partitionKey) {
+        this.number = number;
+        this.elements = elements;
+        this.size = size;
+        this.partitionKey = partitionKey;
+    }
+
+    /**
+     * @return Zero based position of the batch in the iteration
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * Elements of the batch. The list may be a view of the split result which
+     * is valid only until the next batch is requested from the source the
+     * batch came from.
+     * 
+     * @return Elements of the batch
+     */
+    public List<OMNode> getElements() {
+        return elements;
+    }
+
+    /**
+     * @return Number of elements in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Partition key shared by the elements or null if the batches are
+     *         not partitioned
+     */
+    public String getPartitionKey() {
+        return partitionKey;
+    }
+}
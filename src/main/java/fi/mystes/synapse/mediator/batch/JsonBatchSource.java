@@ -0,0 +1,124 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNode;
+import org.apache.synapse.SynapseException;
+
+import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+import fi.mystes.synapse.mediator.json.JsonArrayReader;
+
+/**
+ * Produces batches of JSON array elements while scanning the JSON payload.
+ * Each batch is a JSON array written from the bytes of its elements into a
+ * single text payload element, so no tree is built per element. Batches are
+ * closed by element count and by the size of the elements in bytes; only one
+ * element of the following batch is read ahead.
+ */
+public class JsonBatchSource implements BatchSource {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final JsonArrayReader reader;
+
+    private final BatchLimits limits;
+
+    private final OMFactory factory = OMAbstractFactory.getOMFactory();
+
+    private byte[] nextElement;
+
+    private int number;
+
+    private int elementCount;
+
+    private int batchCount = BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT;
+
+    /**
+     * @param reader
+     *            Reader providing the array elements
+     * @param limits
+     *            Limits closing a batch
+     */
+    public JsonBatchSource(JsonArrayReader reader, BatchLimits limits) {
+        this.reader = reader;
+        this.limits = limits;
+        this.nextElement = read();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextElement != null;
+    }
+
+    @Override
+    public ElementBatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ByteArrayOutputStream array = new ByteArrayOutputStream();
+        array.write('[');
+        int count = 0;
+        BatchLimits.Accumulator batch = limits.newBatch();
+        while (nextElement != null && batch.add(nextElement.length, 0)) {
+            if (count > 0) {
+                array.write(',');
+            }
+            array.write(nextElement, 0, nextElement.length);
+            count++;
+            nextElement = read();
+        }
+        array.write(']');
+        elementCount += count;
+        if (nextElement == null) {
+            batchCount = number + 1;
+        }
+        OMElement payload = factory.createOMElement(BatchIteratorConstants.TEXT_WRAPPER);
+        factory.createOMText(payload, new String(array.toByteArray(), UTF8));
+        return new ElementBatch(number++, Collections.<OMNode> singletonList(payload), count);
+    }
+
+    @Override
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    @Override
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private byte[] read() {
+        try {
+            return reader.next();
+        } catch (IOException e) {
+            throw new SynapseException("Error reading JSON payload", e);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNode;
+import org.apache.synapse.SynapseException;
+
+import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+import fi.mystes.synapse.mediator.text.LineReader;
+
+/**
+ * Produces batches of text lines while reading the text payload. Each batch
+ * is written from the bytes of its lines into a single text payload element,
+ * one line per row, so nothing is built per line. Optionally the first line
+ * is taken as a header and written at the start of every batch. Batches are
+ * closed by line count and by the size of the lines in bytes; only one line of
+ * the following batch is read ahead.
+ */
+public class LineBatchSource implements BatchSource {
+
+    private static final int LINE_FEED = '\n';
+
+    private final LineReader reader;
+
+    private final BatchLimits limits;
+
+    private final Charset charset;
+
+    private final OMFactory factory = OMAbstractFactory.getOMFactory();
+
+    private final byte[] header;
+
+    private byte[] nextLine;
+
+    private int number;
+
+    private int elementCount;
+
+    private int batchCount = BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT;
+
+    /**
+     * @param reader
+     *            Reader providing the lines
+     * @param limits
+     *            Limits closing a batch, applied to the lines without the
+     *            header
+     * @param keepHeader
+     *            true if the first line is a header written to every batch
+     * @param charset
+     *            Encoding of the text
+     */
+    public LineBatchSource(LineReader reader, BatchLimits limits, boolean keepHeader, Charset charset) {
+        this.reader = reader;
+        this.limits = limits;
+        this.charset = charset;
+        this.header = keepHeader ? read() : null;
+        this.nextLine = read();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextLine != null;
+    }
+
+    @Override
+    public ElementBatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        if (header != null) {
+            text.write(header, 0, header.length);
+            text.write(LINE_FEED);
+        }
+        int count = 0;
+        BatchLimits.Accumulator batch = limits.newBatch();
+        while (nextLine != null && batch.add(nextLine.length + 1, 0)) {
+            text.write(nextLine, 0, nextLine.length);
+            text.write(LINE_FEED);
+            count++;
+            nextLine = read();
+        }
+        elementCount += count;
+        if (nextLine == null) {
+            batchCount = number + 1;
+        }
+        OMElement payload = factory.createOMElement(BatchIteratorConstants.TEXT_WRAPPER);
+        factory.createOMText(payload, new String(text.toByteArray(), charset));
+        return new ElementBatch(number++, Collections.<OMNode> singletonList(payload), count);
+    }
+
+    @Override
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    @Override
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private byte[] read() {
+        try {
+            return reader.next();
+        } catch (IOException e) {
+            throw new SynapseException("Error reading text payload", e);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.axiom.om.OMNode;
+import org.apache.synapse.SynapseException;
+import org.apache.synapse.util.xpath.SynapseXPath;
+import org.jaxen.JaxenException;
+
+import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+
+/**
+ * Produces batches whose elements share a partition key, the string value of
+ * an XPath expression evaluated against each element. The elements of a
+ * partition keep their original order and are batched with the given limits.
+ * Batches are produced in turns from each partition, in the order the
+ * partitions first appear, so that consecutive batches belong to different
+ * partitions whenever possible.
+ *
+ * With adaptive limits the batch boundaries are computed one batch at a time
+ * and the total number of batches is known only when the last batch has been
+ * produced.
+ */
+public class PartitionedBatchSource implements BatchSource {
+
+    private final List<Partition> active = new ArrayList<Partition>();
+
+    private final BatchLimits limits;
+
+    private final int batchCount;
+
+    private int turn;
+
+    private int number;
+
+    private int elementCount;
+
+    private Partition previous;
+
+    private int previousStart;
+
+    /**
+     * @param elements
+     *            Split result
+     * @param partitionExpression
+     *            Expression giving the partition key of an element
+     * @param limits
+     *            Limits closing a batch
+     * @throws SynapseException
+     *             If the partition expression cannot be evaluated
+     */
+    public PartitionedBatchSource(OMNode[] elements, SynapseXPath partitionExpression, BatchLimits limits) {
+        this.limits = limits;
+        Map<String, List<OMNode>> groups = new LinkedHashMap<String, List<OMNode>>();
+        for (OMNode element : elements) {
+            String key = keyOf(element, partitionExpression);
+            List<OMNode> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<OMNode>();
+                groups.put(key, group);
+            }
+            group.add(element);
+        }
+        int count = 0;
+        for (Map.Entry<String, List<OMNode>> group : groups.entrySet()) {
+            OMNode[] partitionElements = group.getValue().toArray(new OMNode[group.getValue().size()]);
+            int[] ends = limits.isAdaptive() ? null : limits.batchEnds(partitionElements);
+            active.add(new Partition(group.getKey(), partitionElements, ends));
+            count += ends != null ? ends.length : 0;
+        }
+        this.batchCount = limits.isAdaptive() ? -1 : count;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !active.isEmpty();
+    }
+
+    @Override
+    public ElementBatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        releasePrevious();
+        if (turn >= active.size()) {
+            turn = 0;
+        }
+        Partition partition = active.get(turn);
+        int start = partition.position;
+        int end = partition.nextEnd();
+        ElementBatch batch = new ElementBatch(number++, partition.view.subList(start, end), end - start,
+                partition.key);
+        partition.position = end;
+        elementCount += end - start;
+        previous = partition;
+        previousStart = start;
+        if (partition.position == partition.elements.length) {
+            active.remove(turn);
+        } else {
+            turn++;
+        }
+        return batch;
+    }
+
+    @Override
+    public int getBatchCount() {
+        if (batchCount >= 0) {
+            return batchCount;
+        }
+        return hasNext() ? BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT : number;
+    }
+
+    @Override
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void releasePrevious() {
+        if (previous != null) {
+            Arrays.fill(previous.elements, previousStart, previous.position, null);
+            previous = null;
+        }
+    }
+
+    private static String keyOf(OMNode element, SynapseXPath partitionExpression) {
+        try {
+            return partitionExpression.stringValueOf(element);
+        } catch (JaxenException e) {
+            throw new SynapseException("Error evaluating partition expression : " + partitionExpression, e);
+        }
+    }
+
+    private class Partition {
+        final String key;
+        final OMNode[] elements;
+        final List<OMNode> view;
+        final int[] ends;
+        int position;
+        int batches;
+        BatchLimits.Accumulator batch;
+
+        Partition(String key, OMNode[] elements, int[] ends) {
+            this.key = key;
+            this.elements = elements;
+            this.view = Arrays.asList(elements);
+            this.ends = ends;
+        }
+
+        int nextEnd() {
+            if (ends != null) {
+                return ends[batches++];
+            }
+            batch = limits.newBatch(batch);
+            int end = position;
+            while (end < elements.length && batch.add(elements[end])) {
+                end++;
+            }
+            return end;
+        }
+    }
+}
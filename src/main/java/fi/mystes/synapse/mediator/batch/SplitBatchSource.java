@@ -0,0 +1,135 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.axiom.om.OMNode;
+
+import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+
+/**
+ * Produces batches as index range views over the split result. Batches are
+ * not materialised up front and the slots of already produced batches are
+ * cleared, so elements that have been sent can be garbage collected during the
+ * iteration.
+ *
+ * With adaptive limits, or limits that measure the elements, the batch
+ * boundaries are computed one batch at a time, so that no element is measured
+ * before its batch is produced, and the total number of batches is known only
+ * when the last batch has been produced.
+ */
+public class SplitBatchSource implements BatchSource {
+
+    private final OMNode[] elements;
+
+    private final List<OMNode> view;
+
+    private final int batchSize;
+
+    private final BatchLimits limits;
+
+    private BatchLimits.Accumulator accumulator;
+
+    private int position;
+
+    private int previousPosition;
+
+    private int number;
+
+    /**
+     * @param elements
+     *            Split result, not copied
+     * @param batchSize
+     *            Maximum number of elements in a batch
+     */
+    public SplitBatchSource(OMNode[] elements, int batchSize) {
+        this(elements, batchSize, null);
+    }
+
+    /**
+     * @param elements
+     *            Split result, not copied
+     * @param limits
+     *            Limits closing a batch, applied when the batch is produced
+     */
+    public SplitBatchSource(OMNode[] elements, BatchLimits limits) {
+        this(elements, 1, limits);
+    }
+
+    private SplitBatchSource(OMNode[] elements, int batchSize, BatchLimits limits) {
+        this.elements = elements;
+        this.view = Arrays.asList(elements);
+        this.batchSize = Math.max(batchSize, 1);
+        this.limits = limits;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < elements.length;
+    }
+
+    @Override
+    public ElementBatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        releasePrevious();
+        int end;
+        if (limits != null) {
+            end = nextEnd();
+        } else {
+            end = Math.min(position + batchSize, elements.length);
+        }
+        ElementBatch batch = new ElementBatch(number++, view.subList(position, end));
+        previousPosition = position;
+        position = end;
+        return batch;
+    }
+
+    @Override
+    public int getBatchCount() {
+        if (limits != null) {
+            return hasNext() ? BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT : number;
+        }
+        return (elements.length + batchSize - 1) / batchSize;
+    }
+
+    @Override
+    public int getElementCount() {
+        return position;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private int nextEnd() {
+        accumulator = limits.newBatch(accumulator);
+        int end = position;
+        while (end < elements.length && accumulator.add(elements[end])) {
+            end++;
+        }
+        return end;
+    }
+
+    private void releasePrevious() {
+        Arrays.fill(elements, previousPosition, position, null);
+    }
+}
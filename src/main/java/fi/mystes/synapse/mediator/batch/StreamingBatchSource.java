@@ -0,0 +1,130 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNode;
+import org.apache.synapse.SynapseException;
+
+import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+import fi.mystes.synapse.mediator.split.ElementProjection;
+import fi.mystes.synapse.mediator.split.StreamingElementReader;
+
+/**
+ * Produces batches while pull-parsing the payload. A batch is returned as soon
+ * as it is full; only one element of the following batch is read ahead to find
+ * out whether the batch is the last one.
+ */
+public class StreamingBatchSource implements BatchSource {
+
+    private final StreamingElementReader reader;
+
+    private final BatchLimits limits;
+
+    private final ElementProjection projection;
+
+    private OMElement nextElement;
+
+    private BatchLimits.Accumulator batch;
+
+    private int number;
+
+    private int elementCount;
+
+    private int batchCount = BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT;
+
+    /**
+     * @param reader
+     *            Reader providing the elements
+     * @param limits
+     *            Limits closing a batch
+     */
+    public StreamingBatchSource(StreamingElementReader reader, BatchLimits limits) {
+        this(reader, limits, null);
+    }
+
+    /**
+     * @param reader
+     *            Reader providing the elements
+     * @param limits
+     *            Limits closing a batch
+     * @param projection
+     *            Projection applied to each element as it is read or null
+     */
+    public StreamingBatchSource(StreamingElementReader reader, BatchLimits limits, ElementProjection projection) {
+        this.reader = reader;
+        this.limits = limits;
+        this.projection = projection;
+        this.nextElement = read();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextElement != null;
+    }
+
+    @Override
+    public ElementBatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<OMNode> elements = new ArrayList<OMNode>();
+        // the element read ahead was measured by the previous batch
+        batch = limits.newBatch(batch);
+        while (nextElement != null && batch.add(nextElement)) {
+            elements.add(nextElement);
+            nextElement = read();
+        }
+        elementCount += elements.size();
+        if (nextElement == null) {
+            batchCount = number + 1;
+        }
+        return new ElementBatch(number++, elements);
+    }
+
+    @Override
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    @Override
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private OMElement read() {
+        try {
+            OMElement element = reader.next();
+            if (element != null && projection != null) {
+                projection.apply(element);
+            }
+            return element;
+        } catch (XMLStreamException e) {
+            throw new SynapseException("Error reading streamed payload", e);
+        }
+    }
+}
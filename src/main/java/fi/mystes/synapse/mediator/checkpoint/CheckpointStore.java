@@ -0,0 +1,176 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.checkpoint;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.apache.synapse.SynapseException;
+
+/**
+ * Stores the number of batches of a message that have completed, keyed by a
+ * string identifying the message. Each key has a file of its own in the store
+ * directory, named after a digest of the key, so that keys of any length and
+ * content can be used. A checkpoint is replaced by writing a new file and
+ * renaming it over the old one, so a crash leaves either checkpoint intact.
+ *
+ * The same key must not be iterated by two messages at the same time.
+ */
+public class CheckpointStore {
+
+    private static final String FILE_SUFFIX = ".checkpoint";
+
+    private static final String KEY = "key";
+
+    private static final String COMPLETED_BATCHES = "completedBatches";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File directory;
+
+    /**
+     * @param directory
+     *            Directory of the checkpoint files, created when the first
+     *            checkpoint is written
+     */
+    public CheckpointStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return Directory of the checkpoint files
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Reads the checkpoint of given key.
+     * 
+     * @param key
+     *            Key of the message
+     * @return Number of batches completed or 0 if there is no checkpoint
+     */
+    public int getCompletedBatches(String key) {
+        File file = fileOf(key);
+        if (!file.exists()) {
+            return 0;
+        }
+        Properties checkpoint = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            checkpoint.load(in);
+        } catch (IOException e) {
+            throw new SynapseException("Error reading checkpoint " + file + " of key " + key, e);
+        } finally {
+            closeQuietly(in);
+        }
+        if (!key.equals(checkpoint.getProperty(KEY))) {
+            // digest collision, do not resume another message
+            return 0;
+        }
+        try {
+            return Integer.parseInt(checkpoint.getProperty(COMPLETED_BATCHES));
+        } catch (NumberFormatException e) {
+            throw new SynapseException("Invalid checkpoint " + file + " of key " + key, e);
+        }
+    }
+
+    /**
+     * Records the number of batches completed for given key.
+     * 
+     * @param key
+     *            Key of the message
+     * @param completedBatches
+     *            Number of batches completed, counting from the first batch
+     */
+    public void batchCompleted(String key, int completedBatches) {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new SynapseException("Unable to create checkpoint directory " + directory);
+        }
+        File file = fileOf(key);
+        File temporary = new File(directory, file.getName() + ".tmp");
+        Properties checkpoint = new Properties();
+        checkpoint.setProperty(KEY, key);
+        checkpoint.setProperty(COMPLETED_BATCHES, String.valueOf(completedBatches));
+        OutputStream out = null;
+        try {
+            FileOutputStream fileOut = new FileOutputStream(temporary);
+            out = fileOut;
+            checkpoint.store(out, null);
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            throw new SynapseException("Error writing checkpoint " + temporary + " of key " + key, e);
+        } finally {
+            closeQuietly(out);
+        }
+        if (!temporary.renameTo(file)) {
+            // some platforms do not rename over an existing file
+            file.delete();
+            if (!temporary.renameTo(file)) {
+                throw new SynapseException("Unable to replace checkpoint " + file + " of key " + key);
+            }
+        }
+    }
+
+    /**
+     * Removes the checkpoint of given key, e.g. when all batches have
+     * completed.
+     * 
+     * @param key
+     *            Key of the message
+     */
+    public void clear(String key) {
+        File file = fileOf(key);
+        if (file.exists() && !file.delete()) {
+            throw new SynapseException("Unable to remove checkpoint " + file + " of key " + key);
+        }
+    }
+
+    private File fileOf(String key) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new SynapseException("SHA-1 is not available", e);
+        }
+        StringBuilder name = new StringBuilder(digest.length * 2 + FILE_SUFFIX.length());
+        for (byte b : digest) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return new File(directory, name.append(FILE_SUFFIX).toString());
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing to recover
+            }
+        }
+    }
+}
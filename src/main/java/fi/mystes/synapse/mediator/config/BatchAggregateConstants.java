@@ -0,0 +1,82 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.config;
+
+import javax.xml.namespace.QName;
+
+import org.apache.synapse.config.xml.XMLConfigConstants;
+
+public class BatchAggregateConstants {
+
+    public static final String ATT_ID = "id";
+
+    public static final String ATT_EXPRESSION = "expression";
+
+    public static final String ATT_ROOT_ELEMENT = "rootElement";
+
+    public static final String ATT_TIMEOUT = "timeout";
+
+    public static final String ATT_SEQUENCE = "sequence";
+
+    public static final String ON_COMPLETE_TAG_NAME = "onComplete";
+
+    /**
+     * Default name of the element the responses are merged into.
+     */
+    public static final String DEFAULT_ROOT_ELEMENT = "batchResponses";
+
+    /**
+     * Default aggregation timeout in milliseconds, so that an aggregation
+     * whose batches never report does not stay in memory for good.
+     */
+    public static final long DEFAULT_TIMEOUT = 300000;
+
+    /**
+     * Property telling the number of batches merged into the aggregated
+     * message.
+     */
+    public static final String SUCCEEDED_BATCHES_PROPERTY = "BATCH_AGGREGATE_SUCCEEDED";
+
+    /**
+     * Property telling the number of failed batches of the aggregated message.
+     */
+    public static final String FAILED_BATCHES_PROPERTY = "BATCH_AGGREGATE_FAILED";
+
+    /**
+     * Property set to true if the aggregation completed on timeout.
+     */
+    public static final String TIMED_OUT_PROPERTY = "BATCH_AGGREGATE_TIMED_OUT";
+
+    /**
+     * Mediator's namespace.
+     */
+    public static final String NAMESPACE_STRING = XMLConfigConstants.SYNAPSE_NAMESPACE;
+
+    /**
+     * Mediator's root tag name.
+     */
+    public static final String ROOT_TAG_NAME = "batchAggregate";
+
+    /**
+     * Mediator's root tag QName instance.
+     */
+    public static final QName ROOT_TAG = new QName(NAMESPACE_STRING, ROOT_TAG_NAME);
+
+    /**
+     * On complete element's QName instance.
+     */
+    public static final QName ON_COMPLETE_TAG = new QName(NAMESPACE_STRING, ON_COMPLETE_TAG_NAME);
+}
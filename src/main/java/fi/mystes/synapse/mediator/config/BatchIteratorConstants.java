@@ -23,6 +23,133 @@ public class BatchIteratorConstants {
 
     public static final String ATT_BATCH_SIZE = "batchSize";
 
+    public static final String ATT_STREAMING = "streaming";
+
+    public static final String ATT_MAX_BATCH_BYTES = "maxBatchBytes";
+
+    public static final String ATT_WEIGHT_EXPRESSION = "weightExpression";
+
+    public static final String ATT_MAX_BATCH_WEIGHT = "maxBatchWeight";
+
+    public static final String ATT_PARTITION_EXPRESSION = "partitionExpression";
+
+    public static final String ATT_MAX_CONCURRENT_BATCHES = "maxConcurrentBatches";
+
+    public static final String ATT_MEMORY_BUDGET = "memoryBudget";
+
+    public static final String ATT_MAX_BATCHES_PER_SECOND = "maxBatchesPerSecond";
+
+    public static final String ATT_BURST_SIZE = "burstSize";
+
+    public static final String ATT_PIPELINED = "pipelined";
+
+    public static final String ATT_ORDERED = "ordered";
+
+    public static final String ATT_FAIL_FAST = "failFast";
+
+    public static final String ATT_MAX_WAIT_MILLIS = "maxWaitMillis";
+
+    public static final String ATT_JSON_PATH = "jsonPath";
+
+    public static final String ATT_SPLIT_LINES = "splitLines";
+
+    public static final String ATT_KEEP_HEADER = "keepHeader";
+
+    /**
+     * Expression given to the iterate mediator factory in JSON and line
+     * modes, where the expression attribute is not used.
+     */
+    public static final String EXPRESSION_PLACEHOLDER = "/";
+
+    /**
+     * Message type selecting the formatter that writes the text payload of a
+     * JSON or line batch as such.
+     */
+    public static final String TEXT_BATCH_MESSAGE_TYPE = "text/plain";
+
+    /**
+     * Content type of JSON batches.
+     */
+    public static final String JSON_BATCH_CONTENT_TYPE = "application/json";
+
+    /**
+     * Total message count used in message sequence property while the total
+     * is not yet known, e.g. in streaming mode. Stock aggregators keep waiting
+     * for their completion condition instead of completing too early.
+     */
+    public static final int UNKNOWN_MESSAGE_COUNT = Integer.MAX_VALUE;
+
+    /**
+     * Property set on the original message in fail fast mode after a batch
+     * has failed, listing the batches that did not run, e.g. "4,6-7,9-".
+     */
+    public static final String NOT_RUN_BATCHES_PROPERTY = "BATCH_ITERATOR_NOT_RUN_BATCHES";
+
+    /**
+     * Property set on each batch message in partitioned mode, holding the
+     * partition key shared by the elements of the batch.
+     */
+    public static final String PARTITION_KEY_PROPERTY = "BATCH_ITERATOR_PARTITION_KEY";
+
+    /**
+     * Property set on each batch message in accumulating mode, holding the
+     * {@link fi.mystes.synapse.mediator.accumulate.ElementSource} of each
+     * element of the batch in element order.
+     */
+    public static final String ELEMENT_SOURCES_PROPERTY = "BATCH_ITERATOR_ELEMENT_SOURCES";
+
+    /**
+     * Property set on each batch message in accumulating mode, listing the
+     * message ID of the source message of each element, separated by commas.
+     */
+    public static final String SOURCE_MESSAGE_IDS_PROPERTY = "BATCH_ITERATOR_SOURCE_MESSAGE_IDS";
+
+    public static final String EXECUTOR_TAG_NAME = "executor";
+
+    public static final String ATT_NAME = "name";
+
+    public static final String ATT_POOL_SIZE = "poolSize";
+
+    public static final String ATT_QUEUE_LENGTH = "queueLength";
+
+    public static final String ATT_REJECTION_POLICY = "rejectionPolicy";
+
+    public static final String ATT_VIRTUAL_THREADS = "virtualThreads";
+
+    public static final String ADAPTIVE_TAG_NAME = "adaptive";
+
+    public static final String ATT_MIN_BATCH_SIZE = "minBatchSize";
+
+    public static final String ATT_MAX_BATCH_SIZE = "maxBatchSize";
+
+    public static final String ATT_TARGET_LATENCY = "targetLatency";
+
+    public static final String ATT_INCREMENT = "increment";
+
+    public static final String RELEASE_TAG_NAME = "onRelease";
+
+    public static final String ATT_SEQUENCE = "sequence";
+
+    public static final String POISON_TAG_NAME = "onPoison";
+
+    public static final String CLONE_PROPERTIES_TAG_NAME = "cloneProperties";
+
+    public static final String ATT_INCLUDE = "include";
+
+    public static final String ATT_EXCLUDE = "exclude";
+
+    public static final String PROJECTION_TAG_NAME = "projection";
+
+    public static final String ATT_KEEP = "keep";
+
+    public static final String ATT_DROP = "drop";
+
+    public static final String CHECKPOINT_TAG_NAME = "checkpoint";
+
+    public static final String ATT_DIRECTORY = "directory";
+
+    public static final String ATT_KEY = "key";
+
     /**
      * Mediator's namespace.
      */
@@ -33,8 +160,49 @@ public class BatchIteratorConstants {
      */
     public static final String ROOT_TAG_NAME = "batchIterator";
 
+    /**
+     * Element carrying a text payload, as used by the Axis2 text builders and
+     * formatters.
+     */
+    public static final QName TEXT_WRAPPER = new QName("http://ws.apache.org/commons/ns/payload", "text");
+
     /**
      * Mediator's root tag QName instance.
      */
     public static final QName ROOT_TAG = new QName(NAMESPACE_STRING, ROOT_TAG_NAME);
+
+    /**
+     * Executor configuration element's QName instance.
+     */
+    public static final QName EXECUTOR_TAG = new QName(NAMESPACE_STRING, EXECUTOR_TAG_NAME);
+
+    /**
+     * Adaptive batch size configuration element's QName instance.
+     */
+    public static final QName ADAPTIVE_TAG = new QName(NAMESPACE_STRING, ADAPTIVE_TAG_NAME);
+
+    /**
+     * Release sequence element's QName instance.
+     */
+    public static final QName RELEASE_TAG = new QName(NAMESPACE_STRING, RELEASE_TAG_NAME);
+
+    /**
+     * Poison sequence element's QName instance.
+     */
+    public static final QName POISON_TAG = new QName(NAMESPACE_STRING, POISON_TAG_NAME);
+
+    /**
+     * Clone properties element's QName instance.
+     */
+    public static final QName CLONE_PROPERTIES_TAG = new QName(NAMESPACE_STRING, CLONE_PROPERTIES_TAG_NAME);
+
+    /**
+     * Projection element's QName instance.
+     */
+    public static final QName PROJECTION_TAG = new QName(NAMESPACE_STRING, PROJECTION_TAG_NAME);
+
+    /**
+     * Checkpoint element's QName instance.
+     */
+    public static final QName CHECKPOINT_TAG = new QName(NAMESPACE_STRING, CHECKPOINT_TAG_NAME);
 }
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.context;
+
+import java.util.Iterator;
+
+import org.apache.axiom.om.OMContainer;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axis2.AxisFault;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.util.MessageHelper;
+
+/**
+ * Message context prepared once per mediation to be copied for each batch. The
+ * envelope of the template contains the headers and the payload without the
+ * split elements, so the cost of a copy depends on what remains of the message
+ * instead of the whole original message.
+ *
+ * The element the batch elements are attached to is located once and found in
+ * each copy by its position, so that the attach path XPath is not evaluated
+ * against every copy.
+ *
+ * When the template is the original message itself, the properties not to be
+ * copied are removed from each copy instead of the template, so that the
+ * original message keeps them.
+ */
+public class MessageSkeleton {
+
+    private final MessageContext template;
+
+    private final int[] attachRoute;
+
+    private final PropertyFilter copyFilter;
+
+    /**
+     * @param template
+     *            Message context whose envelope contains no split elements
+     * @param attachElement
+     *            Element of the template envelope to attach batch elements to
+     *            or null if batch elements are wrapped into the body
+     */
+    public MessageSkeleton(MessageContext template, OMElement attachElement) {
+        this(template, attachElement, null);
+    }
+
+    /**
+     * @param template
+     *            Message context whose envelope contains no split elements
+     * @param attachElement
+     *            Element of the template envelope to attach batch elements to
+     *            or null if batch elements are wrapped into the body
+     * @param copyFilter
+     *            Filter applied to each copy or null if the template carries
+     *            only the properties to copy
+     */
+    public MessageSkeleton(MessageContext template, OMElement attachElement, PropertyFilter copyFilter) {
+        this.template = template;
+        this.attachRoute = attachElement != null ? routeOf(template.getEnvelope(), attachElement) : null;
+        this.copyFilter = copyFilter;
+    }
+
+    /**
+     * @return Message context the copies are made from
+     */
+    public MessageContext getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return true if batch elements are attached to an element located by
+     *         the attach path
+     */
+    public boolean hasAttachElement() {
+        return attachRoute != null;
+    }
+
+    /**
+     * Creates a copy of the template message context, including a copy of its
+     * envelope.
+     *
+     * @return New message context
+     * @throws AxisFault
+     *             If cloning the template fails
+     */
+    public MessageContext newMessageContext() throws AxisFault {
+        MessageContext copy = MessageHelper.cloneMessageContext(template);
+        if (copyFilter != null) {
+            copyFilter.apply(copy);
+        }
+        return copy;
+    }
+
+    /**
+     * Finds the attach element from a copy of the template envelope.
+     *
+     * @param envelope
+     *            Copy of the template envelope
+     * @return Element at the position of the attach element in the template
+     */
+    public OMElement getAttachElement(SOAPEnvelope envelope) {
+        OMElement element = envelope;
+        for (int index : attachRoute) {
+            element = childElement(element, index);
+        }
+        return element;
+    }
+
+    private static int[] routeOf(SOAPEnvelope envelope, OMElement element) {
+        int depth = 0;
+        for (OMElement current = element; current != envelope; current = (OMElement) current.getParent()) {
+            if (!(current.getParent() instanceof OMElement)) {
+                throw new IllegalArgumentException("Attach element " + element.getQName() + " is not in the envelope");
+            }
+            depth++;
+        }
+        int[] route = new int[depth];
+        OMElement current = element;
+        for (int i = depth - 1; i >= 0; i--) {
+            OMContainer parent = current.getParent();
+            route[i] = indexOf((OMElement) parent, current);
+            current = (OMElement) parent;
+        }
+        return route;
+    }
+
+    private static int indexOf(OMElement parent, OMElement child) {
+        int index = 0;
+        for (Iterator<?> itr = parent.getChildElements(); itr.hasNext(); index++) {
+            if (itr.next() == child) {
+                return index;
+            }
+        }
+        throw new IllegalArgumentException("Element " + child.getQName() + " is not a child of " + parent.getQName());
+    }
+
+    private static OMElement childElement(OMElement parent, int index) {
+        Iterator<?> itr = parent.getChildElements();
+        for (int i = 0; i < index; i++) {
+            itr.next();
+        }
+        return (OMElement) itr.next();
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.context;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.synapse.MessageContext;
+
+/**
+ * Selects the properties copied to the iterated message contexts. Properties
+ * are given as comma separated names, where a name ending with * matches
+ * every property starting with the rest of the name. Only properties matching
+ * the include list, if given, and not matching the exclude list are kept.
+ *
+ * The filter is applied once to the template the batch messages are copied
+ * from, so each copy carries only the kept properties. When the template is
+ * the original message split in place, it is applied to each copy instead, so
+ * that the original message keeps its properties.
+ */
+public class PropertyFilter {
+
+    private final String include;
+
+    private final String exclude;
+
+    private final String[] includeNames;
+
+    private final String[] excludeNames;
+
+    /**
+     * @param include
+     *            Comma separated names of the properties to keep or null to
+     *            keep all properties not excluded
+     * @param exclude
+     *            Comma separated names of the properties to remove or null
+     */
+    public PropertyFilter(String include, String exclude) {
+        this.include = include;
+        this.exclude = exclude;
+        this.includeNames = include != null ? parseNames(include) : null;
+        this.excludeNames = exclude != null ? parseNames(exclude) : new String[0];
+    }
+
+    /**
+     * @param name
+     *            Name of a property
+     * @return true if the property is copied to the iterated message contexts
+     */
+    public boolean accepts(String name) {
+        return (includeNames == null || matches(includeNames, name)) && !matches(excludeNames, name);
+    }
+
+    /**
+     * Removes the properties not accepted by this filter from given message
+     * context.
+     * 
+     * @param synCtx
+     *            Message context to filter
+     * @return Number of properties removed
+     */
+    public int apply(MessageContext synCtx) {
+        List<Object> removed = new ArrayList<Object>();
+        for (Object key : synCtx.getPropertyKeySet()) {
+            if (!(key instanceof String) || !accepts((String) key)) {
+                removed.add(key);
+            }
+        }
+        synCtx.getPropertyKeySet().removeAll(removed);
+        return removed.size();
+    }
+
+    /**
+     * @return Comma separated names of the properties to keep or null
+     */
+    public String getInclude() {
+        return include;
+    }
+
+    /**
+     * @return Comma separated names of the properties to remove or null
+     */
+    public String getExclude() {
+        return exclude;
+    }
+
+    private static boolean matches(String[] names, String name) {
+        for (String candidate : names) {
+            if (candidate.endsWith("*") ? name.startsWith(candidate.substring(0, candidate.length() - 1))
+                    : name.equals(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] parseNames(String names) {
+        List<String> parsed = new ArrayList<String>();
+        for (String name : names.split(",")) {
+            if (name.trim().length() > 0) {
+                parsed.add(name.trim());
+            }
+        }
+        return parsed.toArray(new String[parsed.size()]);
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import org.apache.synapse.MessageContext;
+
+/**
+ * Notified by {@link BatchWorker} when mediation of a batch has finished.
+ */
+public interface BatchCompletionListener {
+
+    /**
+     * @param iteratedMsgCtx
+     *            Message context of the batch
+     * @param elementCount
+     *            Number of elements in the batch
+     * @param startNanos
+     *            Value of {@link System#nanoTime()} when mediation of the batch
+     *            started
+     * @param failure
+     *            Exception that ended the mediation or null if the target
+     *            completed normally
+     */
+    void batchCompleted(MessageContext iteratedMsgCtx, int elementCount, long startNanos, Exception failure);
+}
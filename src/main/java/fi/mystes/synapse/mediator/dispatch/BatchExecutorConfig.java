@@ -0,0 +1,126 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+/**
+ * Configuration of a named executor dedicated to running batches.
+ */
+public class BatchExecutorConfig {
+
+    /**
+     * What to do with a batch when the pool and its queue are full.
+     */
+    public enum RejectionPolicy {
+        /**
+         * Block the mediating thread until the queue has room.
+         */
+        BLOCK("block"),
+        /**
+         * Run the batch in the mediating thread.
+         */
+        CALLER_RUNS("callerRuns"),
+        /**
+         * Fail the mediation.
+         */
+        ABORT("abort");
+
+        private final String value;
+
+        private RejectionPolicy(String value) {
+            this.value = value;
+        }
+
+        /**
+         * @return Value used in the XML configuration
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * @param value
+         *            Value used in the XML configuration
+         * @return Matching policy or null if there is none
+         */
+        public static RejectionPolicy fromValue(String value) {
+            for (RejectionPolicy policy : values()) {
+                if (policy.value.equals(value)) {
+                    return policy;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final String name;
+
+    private int poolSize = Runtime.getRuntime().availableProcessors();
+
+    private int queueLength = Integer.MAX_VALUE;
+
+    private RejectionPolicy rejectionPolicy = RejectionPolicy.BLOCK;
+
+    private boolean virtualThreads;
+
+    /**
+     * @param name
+     *            Name of the executor, mediators using the same name share the
+     *            executor
+     */
+    public BatchExecutorConfig(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public int getQueueLength() {
+        return queueLength;
+    }
+
+    public void setQueueLength(int queueLength) {
+        this.queueLength = queueLength;
+    }
+
+    public RejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    /**
+     * @return true if each batch should run on a virtual thread of its own,
+     *         when the JVM supports virtual threads
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+}
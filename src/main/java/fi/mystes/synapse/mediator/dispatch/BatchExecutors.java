@@ -0,0 +1,164 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Registry of the named executors dedicated to running batches. An executor is
+ * created when the first mediator referring to its name asks for it and shut
+ * down when the last one releases it.
+ */
+public final class BatchExecutors {
+
+    private static final Log log = LogFactory.getLog(BatchExecutors.class);
+
+    private static final Map<String, SharedExecutor> executors = new HashMap<String, SharedExecutor>();
+
+    private BatchExecutors() {
+    }
+
+    /**
+     * Gets the executor with the name of given configuration, creating it if
+     * it does not exist. Each call must be paired with {@link #release(String)}.
+     * 
+     * @param config
+     *            Configuration used if the executor is created
+     * @return Executor for the batches
+     */
+    public static synchronized ExecutorService acquire(BatchExecutorConfig config) {
+        SharedExecutor shared = executors.get(config.getName());
+        if (shared == null) {
+            shared = new SharedExecutor(createExecutor(config));
+            executors.put(config.getName(), shared);
+        }
+        shared.references++;
+        return shared.executor;
+    }
+
+    /**
+     * Releases an executor acquired with
+     * {@link #acquire(BatchExecutorConfig)}.
+     * 
+     * @param name
+     *            Name of the executor
+     */
+    public static synchronized void release(String name) {
+        SharedExecutor shared = executors.get(name);
+        if (shared != null && --shared.references == 0) {
+            executors.remove(name);
+            shared.executor.shutdown();
+        }
+    }
+
+    private static ExecutorService createExecutor(BatchExecutorConfig config) {
+        if (config.isVirtualThreads()) {
+            ExecutorService executor = createVirtualThreadExecutor();
+            if (executor != null) {
+                return executor;
+            }
+            log.warn("Virtual threads are not supported by this JVM, batch executor " + config.getName()
+                    + " uses a thread pool instead");
+        }
+
+        BlockingQueue<Runnable> queue = config.getQueueLength() == Integer.MAX_VALUE
+                ? new LinkedBlockingQueue<Runnable>() : new ArrayBlockingQueue<Runnable>(config.getQueueLength());
+        return new ThreadPoolExecutor(config.getPoolSize(), config.getPoolSize(), 60, TimeUnit.SECONDS, queue,
+                new NamedThreadFactory(config.getName()), createRejectionHandler(config.getRejectionPolicy()));
+    }
+
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method factoryMethod = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factoryMethod.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (Exception e) {
+            log.warn("Unable to create virtual thread executor", e);
+            return null;
+        }
+    }
+
+    private static RejectedExecutionHandler createRejectionHandler(BatchExecutorConfig.RejectionPolicy policy) {
+        switch (policy) {
+        case CALLER_RUNS:
+            return new ThreadPoolExecutor.CallerRunsPolicy();
+        case ABORT:
+            return new ThreadPoolExecutor.AbortPolicy();
+        default:
+            return new BlockPolicy();
+        }
+    }
+
+    private static class SharedExecutor {
+        final ExecutorService executor;
+        int references;
+
+        SharedExecutor(ExecutorService executor) {
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * Blocks the submitting thread until the queue of the pool has room.
+     */
+    private static class BlockPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Batch executor has been shut down");
+            }
+            try {
+                executor.getQueue().put(r);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for room in batch executor", e);
+            }
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.prefix = "batch-iterator-" + name + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
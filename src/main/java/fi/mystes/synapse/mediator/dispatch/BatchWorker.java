@@ -0,0 +1,114 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.FaultHandler;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.mediators.eip.Target;
+
+/**
+ * Mediates a single batch through a synchronous target on an executor thread
+ * and notifies a listener when done. Faults are handled the same way as the
+ * Synapse mediator worker used by asynchronous targets: the topmost fault
+ * handler of the batch message is executed.
+ */
+public class BatchWorker implements Runnable {
+
+    private static final Log log = LogFactory.getLog(BatchWorker.class);
+
+    private final Target target;
+
+    private final MessageContext iteratedMsgCtx;
+
+    private final int elementCount;
+
+    private final BatchCompletionListener listener;
+
+    private final FailFastGuard guard;
+
+    /**
+     * @param target
+     *            Synchronous target to mediate the batch with
+     * @param iteratedMsgCtx
+     *            Message context of the batch
+     * @param elementCount
+     *            Number of elements in the batch
+     * @param listener
+     *            Notified when mediation has finished
+     */
+    public BatchWorker(Target target, MessageContext iteratedMsgCtx, int elementCount,
+            BatchCompletionListener listener) {
+        this(target, iteratedMsgCtx, elementCount, listener, null);
+    }
+
+    /**
+     * @param target
+     *            Synchronous target to mediate the batch with
+     * @param iteratedMsgCtx
+     *            Message context of the batch
+     * @param elementCount
+     *            Number of elements in the batch
+     * @param listener
+     *            Notified when mediation has finished
+     * @param guard
+     *            Guard cancelling the batch if an earlier batch has failed or
+     *            null
+     */
+    public BatchWorker(Target target, MessageContext iteratedMsgCtx, int elementCount,
+            BatchCompletionListener listener, FailFastGuard guard) {
+        this.target = target;
+        this.iteratedMsgCtx = iteratedMsgCtx;
+        this.elementCount = elementCount;
+        this.listener = listener;
+        this.guard = guard;
+    }
+
+    @Override
+    public void run() {
+        Exception failure = null;
+        long startNanos = System.nanoTime();
+        if (guard != null && guard.isFailed()) {
+            // neither mediated nor given to the fault handlers
+            listener.batchCompleted(iteratedMsgCtx, elementCount, startNanos, guard.cancellation());
+            return;
+        }
+        try {
+            target.mediate(iteratedMsgCtx);
+        } catch (Exception e) {
+            failure = e;
+            handleFault(e);
+        } finally {
+            listener.batchCompleted(iteratedMsgCtx, elementCount, startNanos, failure);
+        }
+    }
+
+    private void handleFault(Exception e) {
+        if (!iteratedMsgCtx.getFaultStack().isEmpty()) {
+            log.warn("Executing fault handler due to exception encountered while mediating a batch", e);
+            FaultHandler faultHandler = iteratedMsgCtx.getFaultStack().pop();
+            try {
+                faultHandler.handleFault(iteratedMsgCtx, e);
+            } catch (Exception faultHandlerException) {
+                log.error("Fault handler of a batch failed", faultHandlerException);
+            }
+        } else {
+            log.warn("Exception encountered while mediating a batch but no fault handler found - message dropped",
+                    e);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseException;
+import org.apache.synapse.mediators.eip.Target;
+
+/**
+ * Dispatches batches of a single mediation to an executor while keeping at
+ * most a fixed number of them in flight. The producer reserves a slot before
+ * it creates the next batch message and blocks until a running batch frees
+ * one. An optional observer is notified of each completed batch, e.g. to
+ * measure batch latency.
+ */
+public class BoundedDispatcher implements BatchCompletionListener {
+
+    private final Executor executor;
+
+    private final Target target;
+
+    private final int maxConcurrentBatches;
+
+    private final Semaphore slots;
+
+    private final BatchCompletionListener observer;
+
+    private FailFastGuard guard;
+
+    /**
+     * @param executor
+     *            Executor to run the batches on
+     * @param target
+     *            Synchronous target to mediate the batches with
+     * @param maxConcurrentBatches
+     *            Maximum number of batches in flight
+     */
+    public BoundedDispatcher(Executor executor, Target target, int maxConcurrentBatches) {
+        this(executor, target, maxConcurrentBatches, null);
+    }
+
+    /**
+     * @param executor
+     *            Executor to run the batches on
+     * @param target
+     *            Synchronous target to mediate the batches with
+     * @param maxConcurrentBatches
+     *            Maximum number of batches in flight
+     * @param observer
+     *            Notified when a batch has completed or null
+     */
+    public BoundedDispatcher(Executor executor, Target target, int maxConcurrentBatches,
+            BatchCompletionListener observer) {
+        this.executor = executor;
+        this.target = target;
+        this.maxConcurrentBatches = maxConcurrentBatches;
+        this.slots = new Semaphore(maxConcurrentBatches);
+        this.observer = observer;
+    }
+
+    /**
+     * Sets the guard cancelling batches that have not started once a batch
+     * has failed. Must be set before the first batch is dispatched.
+     * 
+     * @param guard
+     *            Fail fast guard or null
+     */
+    public void setFailFastGuard(FailFastGuard guard) {
+        this.guard = guard;
+    }
+
+    /**
+     * @return Fail fast guard or null
+     */
+    protected FailFastGuard getFailFastGuard() {
+        return guard;
+    }
+
+    /**
+     * Reserves a slot for the next batch, blocking until one is free.
+     */
+    public void reserve() {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SynapseException("Interrupted while waiting for a batch to complete", e);
+        }
+    }
+
+    /**
+     * Dispatches a batch into a slot reserved with {@link #reserve()}. If the
+     * executor rejects the batch, the slot is freed and the observer is
+     * notified of the failure before the exception is rethrown.
+     * 
+     * @param iteratedMsgCtx
+     *            Message context of the batch
+     * @param elementCount
+     *            Number of elements in the batch
+     */
+    public void dispatch(MessageContext iteratedMsgCtx, int elementCount) {
+        try {
+            execute(iteratedMsgCtx, elementCount);
+        } catch (RejectedExecutionException e) {
+            batchCompleted(iteratedMsgCtx, elementCount, System.nanoTime(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Hands a batch to the executor without notifying anyone if the executor
+     * rejects it.
+     * 
+     * @param iteratedMsgCtx
+     *            Message context of the batch
+     * @param elementCount
+     *            Number of elements in the batch
+     * @throws RejectedExecutionException
+     *             If the executor rejects the batch
+     */
+    protected void execute(MessageContext iteratedMsgCtx, int elementCount) {
+        executor.execute(new BatchWorker(target, iteratedMsgCtx, elementCount, this, guard));
+    }
+
+    /**
+     * Called by the producer when no more batches will be dispatched. Batches
+     * already dispatched run to completion.
+     */
+    public void close() {
+        // nothing is held once the batches have been handed to the executor
+    }
+
+    @Override
+    public void batchCompleted(MessageContext iteratedMsgCtx, int elementCount, long startNanos,
+            Exception failure) {
+        try {
+            if (observer != null) {
+                observer.batchCompleted(iteratedMsgCtx, elementCount, startNanos, failure);
+            }
+        } finally {
+            slots.release();
+        }
+    }
+
+    /**
+     * @return Number of batches currently reserved or running
+     */
+    public int getInFlightCount() {
+        return maxConcurrentBatches - slots.availablePermits();
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.MessageContext;
+
+/**
+ * Stops the batches of a single mediation after the first failed batch. Once
+ * a batch has failed, the producer creates no more batches and batches that
+ * have been dispatched but not started are completed with a
+ * {@link CancellationException} instead of being mediated.
+ *
+ * The guard keeps track of the batches that never ran: cancelled batches and
+ * the batches never created. The summary is logged once the producer has
+ * closed the guard and every batch in flight has completed.
+ */
+public class FailFastGuard implements BatchCompletionListener {
+
+    private static final Log log = LogFactory.getLog(FailFastGuard.class);
+
+    private final Map<MessageContext, Integer> numbers = new IdentityHashMap<MessageContext, Integer>();
+
+    private final SortedSet<Integer> cancelled = new TreeSet<Integer>();
+
+    private volatile boolean failed;
+
+    private int failedBatch = -1;
+
+    private Exception failure;
+
+    private int notCreatedFrom = -1;
+
+    private int batchCount = -1;
+
+    private boolean closed;
+
+    private boolean reported;
+
+    /**
+     * @return true if a batch has failed
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Records the number of given batch. Must be called before the batch is
+     * dispatched.
+     * 
+     * @param iteratedMsgCtx
+     *            Message context of the batch
+     * @param number
+     *            Number of the batch, starting from 0
+     */
+    public synchronized void submitted(MessageContext iteratedMsgCtx, int number) {
+        numbers.put(iteratedMsgCtx, number);
+    }
+
+    /**
+     * Creates the failure given to a batch cancelled by this guard.
+     * 
+     * @return Cancellation failure
+     */
+    public CancellationException cancellation() {
+        return new CancellationException("Batch cancelled after an earlier batch failed");
+    }
+
+    @Override
+    public void batchCompleted(MessageContext iteratedMsgCtx, int elementCount, long startNanos,
+            Exception failure) {
+        synchronized (this) {
+            Integer number = numbers.remove(iteratedMsgCtx);
+            if (number == null) {
+                return;
+            }
+            if (failure instanceof CancellationException) {
+                cancelled.add(number);
+            } else if (failure != null && !failed) {
+                this.failedBatch = number;
+                this.failure = failure;
+                this.failed = true;
+            }
+        }
+        reportIfDone();
+    }
+
+    /**
+     * Called by the producer when no more batches will be created.
+     * 
+     * @param nextNumber
+     *            Number of the first batch not created
+     * @param moreBatches
+     *            true if the producer stopped before the last batch
+     * @param batchCount
+     *            Total number of batches or -1 if not known
+     */
+    public void close(int nextNumber, boolean moreBatches, int batchCount) {
+        synchronized (this) {
+            if (moreBatches) {
+                notCreatedFrom = nextNumber;
+            }
+            this.batchCount = batchCount;
+            closed = true;
+        }
+        reportIfDone();
+    }
+
+    /**
+     * @return Batches that did not run so far as a comma separated list of
+     *         batch numbers and ranges starting from 1, e.g. "4,6-7,9-"
+     */
+    public synchronized String getNotRunBatches() {
+        StringBuilder list = new StringBuilder();
+        int notCreated = notCreatedFrom;
+        int rangeStart = -1;
+        int previous = -2;
+        for (int number : cancelled) {
+            if (number != previous + 1) {
+                appendRange(list, rangeStart, previous);
+                rangeStart = number;
+            }
+            previous = number;
+        }
+        if (notCreated >= 0 && notCreated == previous + 1) {
+            // cancelled batches run into the batches never created
+            notCreated = rangeStart;
+            rangeStart = -1;
+        }
+        appendRange(list, rangeStart, previous);
+        if (notCreated >= 0) {
+            if (batchCount > 0) {
+                appendRange(list, notCreated, batchCount - 1);
+            } else {
+                appendRange(list, notCreated, notCreated);
+                list.append('-');
+            }
+        }
+        return list.toString();
+    }
+
+    /**
+     * @return Number of the failed batch starting from 1 or 0 if no batch has
+     *         failed
+     */
+    public synchronized int getFailedBatch() {
+        return failedBatch + 1;
+    }
+
+    private static void appendRange(StringBuilder list, int first, int last) {
+        if (first < 0) {
+            return;
+        }
+        if (list.length() > 0) {
+            list.append(',');
+        }
+        list.append(first + 1);
+        if (last > first) {
+            list.append('-').append(last + 1);
+        }
+    }
+
+    private void reportIfDone() {
+        String notRun;
+        Exception cause;
+        synchronized (this) {
+            if (!failed || !closed || !numbers.isEmpty() || reported) {
+                return;
+            }
+            reported = true;
+            cause = failure;
+        }
+        notRun = getNotRunBatches();
+        log.warn("Batch " + getFailedBatch() + " failed, batches not run: " + (notRun.length() > 0 ? notRun : "none"),
+                cause);
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.Mediator;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseException;
+
+/**
+ * Releases the batches of a single mediation to a release mediator in the
+ * order they were submitted, regardless of the order they complete in.
+ * Completed batches wait in a reorder buffer until every earlier batch has
+ * been released. Failed batches are skipped. The thread completing the next
+ * batch in order releases it and any buffered batches following it, so
+ * releases never run concurrently.
+ *
+ * With a window the producer reserves a slot before it creates the next
+ * batch message, and the slot is freed only when the batch is released, which
+ * bounds both the batches in flight and the reorder buffer.
+ */
+public class OrderedReleaser implements BatchCompletionListener {
+
+    private static final Log log = LogFactory.getLog(OrderedReleaser.class);
+
+    private final Mediator release;
+
+    private final Semaphore window;
+
+    private final Map<MessageContext, Integer> numbers = new IdentityHashMap<MessageContext, Integer>();
+
+    private final Map<Integer, Completed> completed = new HashMap<Integer, Completed>();
+
+    private int submitted;
+
+    private int nextRelease;
+
+    private int released;
+
+    private int skipped;
+
+    private boolean releasing;
+
+    /**
+     * @param release
+     *            Mediator the batches are released to
+     * @param window
+     *            Maximum number of batches submitted but not yet released or
+     *            0 if not limited
+     */
+    public OrderedReleaser(Mediator release, int window) {
+        this.release = release;
+        this.window = window > 0 ? new Semaphore(window) : null;
+    }
+
+    /**
+     * Reserves a slot in the window for the next batch, blocking until one is
+     * free.
+     */
+    public void reserve() {
+        if (window == null) {
+            return;
+        }
+        try {
+            window.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SynapseException("Interrupted while waiting for a batch to be released", e);
+        }
+    }
+
+    /**
+     * Gives the next position in the release order to given batch. Must be
+     * called in batch order before the batch is dispatched.
+     * 
+     * @param iteratedMsgCtx
+     *            Message context of the batch
+     */
+    public synchronized void submitted(MessageContext iteratedMsgCtx) {
+        numbers.put(iteratedMsgCtx, submitted++);
+    }
+
+    @Override
+    public void batchCompleted(MessageContext iteratedMsgCtx, int elementCount, long startNanos,
+            Exception failure) {
+        synchronized (this) {
+            Integer number = numbers.remove(iteratedMsgCtx);
+            if (number == null) {
+                return;
+            }
+            completed.put(number, new Completed(iteratedMsgCtx, failure == null));
+            if (releasing) {
+                // the thread releasing earlier batches releases this one too
+                return;
+            }
+            releasing = true;
+        }
+        while (true) {
+            Completed next;
+            synchronized (this) {
+                next = completed.remove(nextRelease);
+                if (next == null) {
+                    releasing = false;
+                    return;
+                }
+                nextRelease++;
+            }
+            try {
+                if (next.succeeded) {
+                    released(next.context);
+                } else {
+                    synchronized (this) {
+                        skipped++;
+                    }
+                }
+            } finally {
+                if (window != null) {
+                    window.release();
+                }
+            }
+        }
+    }
+
+    private void released(MessageContext iteratedMsgCtx) {
+        try {
+            release.mediate(iteratedMsgCtx);
+        } catch (Exception e) {
+            log.error("Error releasing a batch in order", e);
+        }
+        synchronized (this) {
+            released++;
+        }
+    }
+
+    /**
+     * @return Number of batches released so far
+     */
+    public synchronized int getReleasedCount() {
+        return released;
+    }
+
+    /**
+     * @return Number of failed batches skipped so far
+     */
+    public synchronized int getSkippedCount() {
+        return skipped;
+    }
+
+    /**
+     * @return Number of completed batches waiting for an earlier batch
+     */
+    public synchronized int getBufferedCount() {
+        return completed.size();
+    }
+
+    private static class Completed {
+        final MessageContext context;
+        final boolean succeeded;
+
+        Completed(MessageContext context, boolean succeeded) {
+            this.context = context;
+            this.succeeded = succeeded;
+        }
+    }
+}
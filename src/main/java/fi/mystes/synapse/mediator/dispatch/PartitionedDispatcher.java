@@ -0,0 +1,149 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.mediators.eip.Target;
+
+import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+
+/**
+ * Dispatcher running the batches of different partitions in parallel and the
+ * batches of the same partition one at a time in dispatch order. The partition
+ * of a batch is read from the partition key property of the batch message.
+ * A batch whose partition has a batch running waits in the queue of the
+ * partition and is handed to the executor when the running batch completes.
+ * Waiting batches hold their slots, so the limit of batches in flight covers
+ * them too.
+ */
+public class PartitionedDispatcher extends BoundedDispatcher {
+
+    private static final Log log = LogFactory.getLog(PartitionedDispatcher.class);
+
+    private final Map<String, Queue<WaitingBatch>> partitions = new HashMap<String, Queue<WaitingBatch>>();
+
+    private final Map<MessageContext, String> running = new IdentityHashMap<MessageContext, String>();
+
+    /**
+     * @param executor
+     *            Executor to run the batches on
+     * @param target
+     *            Synchronous target to mediate the batches with
+     * @param maxConcurrentBatches
+     *            Maximum number of batches in flight, including the batches
+     *            waiting for their partition
+     * @param observer
+     *            Notified when a batch has completed or null
+     */
+    public PartitionedDispatcher(Executor executor, Target target, int maxConcurrentBatches,
+            BatchCompletionListener observer) {
+        super(executor, target, maxConcurrentBatches, observer);
+    }
+
+    @Override
+    protected void execute(MessageContext iteratedMsgCtx, int elementCount) {
+        String key = partitionOf(iteratedMsgCtx);
+        synchronized (this) {
+            Queue<WaitingBatch> waiting = partitions.get(key);
+            if (waiting != null) {
+                waiting.add(new WaitingBatch(iteratedMsgCtx, elementCount));
+                return;
+            }
+            partitions.put(key, new ArrayDeque<WaitingBatch>());
+            running.put(iteratedMsgCtx, key);
+        }
+        super.execute(iteratedMsgCtx, elementCount);
+    }
+
+    @Override
+    public void batchCompleted(MessageContext iteratedMsgCtx, int elementCount, long startNanos,
+            Exception failure) {
+        try {
+            super.batchCompleted(iteratedMsgCtx, elementCount, startNanos, failure);
+        } finally {
+            runNext(iteratedMsgCtx);
+        }
+    }
+
+    /**
+     * @return Number of batches waiting for a running batch of their partition
+     */
+    public synchronized int getWaitingCount() {
+        int count = 0;
+        for (Queue<WaitingBatch> waiting : partitions.values()) {
+            count += waiting.size();
+        }
+        return count;
+    }
+
+    /**
+     * Hands the next waiting batch of the partition of given completed batch
+     * to the executor. A batch the executor rejects completes as failed and
+     * the one after it is tried.
+     */
+    private void runNext(MessageContext completed) {
+        MessageContext previous = completed;
+        while (true) {
+            WaitingBatch next;
+            synchronized (this) {
+                String key = running.remove(previous);
+                if (key == null) {
+                    return;
+                }
+                Queue<WaitingBatch> waiting = partitions.get(key);
+                next = waiting.poll();
+                if (next == null) {
+                    partitions.remove(key);
+                    return;
+                }
+                running.put(next.context, key);
+            }
+            try {
+                super.execute(next.context, next.elementCount);
+                return;
+            } catch (RejectedExecutionException e) {
+                log.error("Executor rejected a batch waiting for its partition", e);
+                super.batchCompleted(next.context, next.elementCount, System.nanoTime(), e);
+                previous = next.context;
+            }
+        }
+    }
+
+    private static String partitionOf(MessageContext iteratedMsgCtx) {
+        Object key = iteratedMsgCtx.getProperty(BatchIteratorConstants.PARTITION_KEY_PROPERTY);
+        return key != null ? key.toString() : "";
+    }
+
+    private static class WaitingBatch {
+        final MessageContext context;
+        final int elementCount;
+
+        WaitingBatch(MessageContext context, int elementCount) {
+            this.context = context;
+            this.elementCount = elementCount;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.synapse.SynapseException;
+
+/**
+ * Token bucket limiting the rate batches are dispatched at. The bucket holds
+ * at most burst tokens and is refilled at the given rate. Taking a token from
+ * an empty bucket reserves the next token to be refilled, so callers waiting
+ * for a token are served in the order they arrived and the sustained rate
+ * never exceeds the limit.
+ */
+public class RateLimiter {
+
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    private final double permitsPerSecond;
+
+    private final int burst;
+
+    private final double nanosPerToken;
+
+    private double tokens;
+
+    private long refilledNanos;
+
+    /**
+     * @param permitsPerSecond
+     *            Sustained rate of tokens per second
+     * @param burst
+     *            Maximum number of tokens taken without waiting after an idle
+     *            period
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, System.nanoTime());
+    }
+
+    RateLimiter(double permitsPerSecond, int burst, long nowNanos) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(burst, 1);
+        this.nanosPerToken = NANOS_PER_SECOND / permitsPerSecond;
+        this.tokens = this.burst;
+        this.refilledNanos = nowNanos;
+    }
+
+    /**
+     * @return Sustained rate of tokens per second
+     */
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * @return Maximum number of tokens taken without waiting
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Takes a token, blocking until one is available.
+     * 
+     * @return Time waited in nanoseconds
+     * @throws SynapseException
+     *             If interrupted while waiting
+     */
+    public long acquire() {
+        long waitNanos = reserve(System.nanoTime());
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SynapseException("Interrupted while waiting for the batch rate limit", e);
+            }
+        }
+        return waitNanos;
+    }
+
+    /**
+     * Takes a token at given time.
+     * 
+     * @param nowNanos
+     *            Current time as given by {@link System#nanoTime()}
+     * @return Time in nanoseconds until the token is available
+     */
+    synchronized long reserve(long nowNanos) {
+        if (nowNanos > refilledNanos) {
+            tokens = Math.min(burst, tokens + (nowNanos - refilledNanos) / nanosPerToken);
+            refilledNanos = nowNanos;
+        }
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * nanosPerToken);
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Registry of the rate limiters shared by the mediators with the same id, so
+ * that the limit holds across every mediator and message using the id. A
+ * limiter is created when the first mediator asks for it and dropped when the
+ * last one releases it.
+ */
+public final class RateLimiters {
+
+    private static final Log log = LogFactory.getLog(RateLimiters.class);
+
+    private static final Map<String, SharedLimiter> limiters = new HashMap<String, SharedLimiter>();
+
+    private RateLimiters() {
+    }
+
+    /**
+     * Gets the rate limiter of given mediator id, creating it if it does not
+     * exist. Each call must be paired with {@link #release(String)}.
+     * 
+     * @param id
+     *            Mediator id
+     * @param permitsPerSecond
+     *            Rate used if the limiter is created
+     * @param burst
+     *            Burst used if the limiter is created
+     * @return Rate limiter of the id
+     */
+    public static synchronized RateLimiter acquire(String id, double permitsPerSecond, int burst) {
+        SharedLimiter shared = limiters.get(id);
+        if (shared == null) {
+            shared = new SharedLimiter(new RateLimiter(permitsPerSecond, burst));
+            limiters.put(id, shared);
+        } else if (shared.limiter.getPermitsPerSecond() != permitsPerSecond
+                || shared.limiter.getBurst() != Math.max(burst, 1)) {
+            log.warn("Batch iterators with id " + id + " have different rate limits, using "
+                    + shared.limiter.getPermitsPerSecond() + " batches per second with burst of "
+                    + shared.limiter.getBurst());
+        }
+        shared.references++;
+        return shared.limiter;
+    }
+
+    /**
+     * Releases a rate limiter acquired with
+     * {@link #acquire(String, double, int)}.
+     * 
+     * @param id
+     *            Mediator id
+     */
+    public static synchronized void release(String id) {
+        SharedLimiter shared = limiters.get(id);
+        if (shared != null && --shared.references == 0) {
+            limiters.remove(id);
+        }
+    }
+
+    private static class SharedLimiter {
+        final RateLimiter limiter;
+        int references;
+
+        SharedLimiter(RateLimiter limiter) {
+            this.limiter = limiter;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only temporary file holding serialized batches. Records are written
+ * and read with positional channel operations, so reads and writes do not
+ * disturb each other. The file is created on first write and deleted on
+ * close.
+ */
+public class SpillFile {
+
+    private final File directory;
+
+    private File file;
+
+    private FileChannel channel;
+
+    private long size;
+
+    private int recordCount;
+
+    /**
+     * @param directory
+     *            Directory of the file or null for the default temporary
+     *            directory
+     */
+    public SpillFile(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Appends given record to the file.
+     * 
+     * @param record
+     *            Bytes to write
+     * @return Position of the record in the file
+     * @throws IOException
+     *             If creating or writing the file fails
+     */
+    public synchronized long write(byte[] record) throws IOException {
+        if (channel == null) {
+            file = File.createTempFile("batchIterator", ".spill", directory);
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+        long position = size;
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        size += record.length;
+        recordCount++;
+        return position;
+    }
+
+    /**
+     * Reads a record written with {@link #write(byte[])}.
+     * 
+     * @param position
+     *            Position of the record
+     * @param length
+     *            Length of the record in bytes
+     * @return Bytes of the record
+     * @throws IOException
+     *             If reading the file fails
+     */
+    public synchronized byte[] read(long position, int length) throws IOException {
+        if (channel == null) {
+            throw new IOException("Spill file is closed");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of spill file " + file);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @return Number of bytes written to the file
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return Number of records written to the file
+     */
+    public synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Closes and deletes the file. Records can no longer be read.
+     */
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing to recover, the file is deleted anyway
+        }
+        channel = null;
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.util.StAXUtils;
+import org.apache.axiom.soap.SOAP12Constants;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.impl.builder.StAXSOAPModelBuilder;
+import org.apache.axis2.AxisFault;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseException;
+import org.apache.synapse.mediators.eip.Target;
+
+/**
+ * Dispatcher that never blocks the producer. At most a fixed number of
+ * batches run at a time and the rest wait in a queue in dispatch order. The
+ * envelopes of waiting batches are serialized and kept on the heap as bytes up
+ * to a memory budget; above it they are written to a spill file. Either way
+ * the batch message keeps an empty envelope until the batch is run.
+ */
+public class SpillingDispatcher extends BoundedDispatcher {
+
+    private static final Log log = LogFactory.getLog(SpillingDispatcher.class);
+
+    private final int maxConcurrentBatches;
+
+    private final long memoryBudget;
+
+    private final SpillListener spillListener;
+
+    private final SpillFile spillFile;
+
+    private final Queue<PendingBatch> pending = new ArrayDeque<PendingBatch>();
+
+    private int running;
+
+    private long heldBytes;
+
+    private boolean closed;
+
+    /**
+     * @param executor
+     *            Executor to run the batches on
+     * @param target
+     *            Synchronous target to mediate the batches with
+     * @param maxConcurrentBatches
+     *            Maximum number of batches running
+     * @param observer
+     *            Notified when a batch has completed or null
+     * @param memoryBudget
+     *            Maximum serialized size of the waiting envelopes kept on the
+     *            heap in bytes
+     * @param spillFile
+     *            File the envelopes above the budget are written to
+     * @param spillListener
+     *            Notified of spilled batches or null
+     */
+    public SpillingDispatcher(Executor executor, Target target, int maxConcurrentBatches,
+            BatchCompletionListener observer, long memoryBudget, SpillFile spillFile, SpillListener spillListener) {
+        super(executor, target, Integer.MAX_VALUE, observer);
+        this.maxConcurrentBatches = maxConcurrentBatches;
+        this.memoryBudget = memoryBudget;
+        this.spillFile = spillFile;
+        this.spillListener = spillListener;
+    }
+
+    /**
+     * Runs given batch if fewer than the maximum number of batches are
+     * running, otherwise adds it to the queue, spilling its envelope if the
+     * memory budget is used up. The envelope is serialized and spilled
+     * without holding the lock; batches are dispatched by one thread, so they
+     * are still queued in dispatch order.
+     */
+    @Override
+    public void dispatch(MessageContext iteratedMsgCtx, int elementCount) {
+        if (!reserveSlot()) {
+            PendingBatch batch = hold(iteratedMsgCtx, elementCount);
+            if (enqueue(batch)) {
+                if (batch.position >= 0 && spillListener != null) {
+                    spillListener.batchSpilled(batch.length);
+                }
+                return;
+            }
+        }
+        super.dispatch(iteratedMsgCtx, elementCount);
+    }
+
+    @Override
+    public void batchCompleted(MessageContext iteratedMsgCtx, int elementCount, long startNanos,
+            Exception failure) {
+        try {
+            super.batchCompleted(iteratedMsgCtx, elementCount, startNanos, failure);
+        } finally {
+            runNext();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        deleteSpillFileIfDone();
+    }
+
+    /**
+     * @return Number of batches waiting to be run
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return Serialized size of the waiting envelopes kept on the heap
+     */
+    public synchronized long getHeldBytes() {
+        return heldBytes;
+    }
+
+    /**
+     * Takes the slot of a completed batch for the next waiting batch. A batch
+     * that cannot be read back or is rejected by the executor is completed as
+     * failed and the slot goes to the batch after it. Once a batch has failed
+     * in fail fast mode, the waiting batches are cancelled.
+     */
+    private void runNext() {
+        while (true) {
+            PendingBatch next;
+            boolean cancelled;
+            byte[] spilled;
+            synchronized (this) {
+                next = pending.poll();
+                if (next == null) {
+                    running--;
+                    deleteSpillFileIfDone();
+                    return;
+                }
+                heldBytes -= next.heldBytes;
+                // read while the spill file cannot be closed
+                cancelled = isCancelled();
+                spilled = cancelled ? null : next.read();
+            }
+            if (cancelled) {
+                super.batchCompleted(next.context, next.elementCount, System.nanoTime(),
+                        getFailFastGuard().cancellation());
+                continue;
+            }
+            try {
+                next.restore(spilled);
+                execute(next.context, next.elementCount);
+                return;
+            } catch (RuntimeException e) {
+                log.error("Unable to run a batch waiting for dispatch", e);
+                super.batchCompleted(next.context, next.elementCount, System.nanoTime(), e);
+            }
+        }
+    }
+
+    /**
+     * Adds a prepared batch to the queue, unless a slot was freed while the
+     * batch was prepared, in which case the slot is taken for it.
+     * 
+     * @return True if the batch was queued
+     */
+    private synchronized boolean enqueue(PendingBatch batch) {
+        if (running < maxConcurrentBatches) {
+            running++;
+            return false;
+        }
+        heldBytes += batch.heldBytes;
+        pending.add(batch);
+        batch.release();
+        return true;
+    }
+
+    private synchronized boolean reserveSlot() {
+        if (running >= maxConcurrentBatches) {
+            return false;
+        }
+        running++;
+        return true;
+    }
+
+    private boolean isCancelled() {
+        FailFastGuard guard = getFailFastGuard();
+        return guard != null && guard.isFailed();
+    }
+
+    /**
+     * Prepares a batch for waiting by serializing its envelope and writing it
+     * to the spill file if it does not fit in the memory budget. Called
+     * without holding the lock; only the dispatching thread adds to the held
+     * bytes, so the budget cannot be used up by others meanwhile.
+     */
+    private PendingBatch hold(MessageContext iteratedMsgCtx, int elementCount) {
+        byte[] envelope = serialize(iteratedMsgCtx.getEnvelope());
+        if (getHeldBytes() + envelope.length <= memoryBudget) {
+            return new PendingBatch(iteratedMsgCtx, elementCount, envelope, -1, envelope.length);
+        }
+        long position;
+        try {
+            position = spillFile.write(envelope);
+        } catch (IOException e) {
+            log.warn("Unable to write a batch to spill file, keeping it in memory above the budget", e);
+            return new PendingBatch(iteratedMsgCtx, elementCount, envelope, -1, envelope.length);
+        }
+        return new PendingBatch(iteratedMsgCtx, elementCount, null, position, envelope.length);
+    }
+
+    private void deleteSpillFileIfDone() {
+        if (closed && pending.isEmpty()) {
+            if (log.isDebugEnabled() && spillFile.getRecordCount() > 0) {
+                log.debug("Spilled " + spillFile.getRecordCount() + " batches, " + spillFile.getSize() + " bytes");
+            }
+            spillFile.close();
+        }
+    }
+
+    private static byte[] serialize(SOAPEnvelope envelope) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            envelope.serialize(out);
+        } catch (XMLStreamException e) {
+            throw new SynapseException("Error serializing a batch waiting for dispatch", e);
+        }
+        return out.toByteArray();
+    }
+
+    private static void setEnvelope(MessageContext iteratedMsgCtx, SOAPEnvelope envelope) {
+        try {
+            iteratedMsgCtx.setEnvelope(envelope);
+        } catch (AxisFault e) {
+            throw new SynapseException("Error setting the envelope of a batch", e);
+        }
+    }
+
+    private class PendingBatch {
+        final MessageContext context;
+        final int elementCount;
+        final byte[] envelope;
+        final long heldBytes;
+        final long position;
+        final int length;
+
+        PendingBatch(MessageContext context, int elementCount, byte[] envelope, long position, int length) {
+            this.context = context;
+            this.elementCount = elementCount;
+            this.envelope = envelope;
+            this.heldBytes = envelope != null ? envelope.length : 0;
+            this.position = position;
+            this.length = length;
+        }
+
+        /**
+         * Replaces the envelope of the batch message with an empty one, so
+         * that only the serialized envelope is kept while the batch waits.
+         */
+        void release() {
+            boolean soap12 = SOAP12Constants.SOAP_ENVELOPE_NAMESPACE_URI
+                    .equals(context.getEnvelope().getNamespace().getNamespaceURI());
+            setEnvelope(context, soap12 ? OMAbstractFactory.getSOAP12Factory().getDefaultEnvelope()
+                    : OMAbstractFactory.getSOAP11Factory().getDefaultEnvelope());
+        }
+
+        /**
+         * Reads the serialized envelope of the batch, from the spill file if
+         * the batch was spilled.
+         * 
+         * @return Serialized envelope or null if it could not be read
+         */
+        byte[] read() {
+            if (envelope != null) {
+                return envelope;
+            }
+            try {
+                return spillFile.read(position, length);
+            } catch (IOException e) {
+                log.error("Error reading a batch from spill file", e);
+                return null;
+            }
+        }
+
+        /**
+         * Gives the batch back its envelope parsed from the serialized one.
+         */
+        void restore(byte[] spilled) {
+            if (spilled == null) {
+                throw new SynapseException("Envelope of a spilled batch could not be read");
+            }
+            try {
+                StAXSOAPModelBuilder builder = new StAXSOAPModelBuilder(
+                        StAXUtils.createXMLStreamReader(new ByteArrayInputStream(spilled)));
+                SOAPEnvelope envelope = builder.getSOAPEnvelope();
+                envelope.build();
+                setEnvelope(context, envelope);
+            } catch (XMLStreamException e) {
+                throw new SynapseException("Error parsing a batch read from spill file", e);
+            }
+        }
+    }
+}
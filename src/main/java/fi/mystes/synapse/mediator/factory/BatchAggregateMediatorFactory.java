@@ -0,0 +1,107 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.factory;
+
+import java.util.Properties;
+
+import javax.xml.namespace.QName;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.synapse.Mediator;
+import org.apache.synapse.config.xml.AbstractMediatorFactory;
+import org.apache.synapse.config.xml.SequenceMediatorFactory;
+import org.apache.synapse.config.xml.SynapseXPathFactory;
+import org.jaxen.JaxenException;
+
+import fi.mystes.synapse.mediator.BatchAggregateMediator;
+import fi.mystes.synapse.mediator.config.BatchAggregateConstants;
+
+public class BatchAggregateMediatorFactory extends AbstractMediatorFactory {
+
+    /**
+     * The QName of batch aggregate mediator element in the XML config
+     * 
+     * @return QName of batch aggregate mediator
+     */
+    @Override
+    public QName getTagQName() {
+        return BatchAggregateConstants.ROOT_TAG;
+    }
+
+    /**
+     * Specific mediator factory implementation to build the
+     * org.apache.synapse.Mediator by the given XML configuration
+     * 
+     * @param OMElement
+     *            element configuration element describing the properties of the
+     *            mediator
+     * @param properties
+     *            bag of properties to pass in any information to the factory
+     * 
+     * @return built batch aggregate mediator
+     */
+    @Override
+    public Mediator createSpecificMediator(OMElement element, Properties properties) {
+        BatchAggregateMediator mediator = new BatchAggregateMediator();
+        processAuditStatus(mediator, element);
+
+        String id = element.getAttributeValue(new QName(BatchAggregateConstants.ATT_ID));
+        if (id == null) {
+            handleException("id attribute is required for Batch Aggregate Mediator");
+        }
+        mediator.setId(id);
+
+        if (element.getAttribute(new QName(BatchAggregateConstants.ATT_EXPRESSION)) != null) {
+            try {
+                mediator.setExpression(SynapseXPathFactory.getSynapseXPath(element,
+                        new QName(BatchAggregateConstants.ATT_EXPRESSION)));
+            } catch (JaxenException e) {
+                handleException("Invalid expression", e);
+            }
+        }
+
+        String rootElement = element.getAttributeValue(new QName(BatchAggregateConstants.ATT_ROOT_ELEMENT));
+        if (rootElement != null) {
+            mediator.setRootElement(rootElement);
+        }
+
+        String timeout = element.getAttributeValue(new QName(BatchAggregateConstants.ATT_TIMEOUT));
+        if (timeout != null) {
+            try {
+                mediator.setTimeout(Long.parseLong(timeout));
+            } catch (NumberFormatException e) {
+                handleException("timeout value must be number", e);
+            }
+            if (mediator.getTimeout() <= 0) {
+                handleException("timeout value must be greater than zero");
+            }
+        }
+
+        OMElement onComplete = element.getFirstChildWithName(BatchAggregateConstants.ON_COMPLETE_TAG);
+        if (onComplete == null) {
+            handleException("onComplete element is required for Batch Aggregate Mediator");
+        }
+        String sequence = onComplete.getAttributeValue(new QName(BatchAggregateConstants.ATT_SEQUENCE));
+        if (sequence != null) {
+            mediator.setOnCompleteSequenceRef(sequence);
+        } else {
+            mediator.setOnCompleteSequence(
+                    new SequenceMediatorFactory().createAnonymousSequence(onComplete, properties));
+        }
+
+        return mediator;
+    }
+}
@@ -15,6 +15,7 @@
  */
 package fi.mystes.synapse.mediator.factory;
 
+import java.io.File;
 import java.util.Properties;
 
 import javax.xml.namespace.QName;
@@ -22,10 +23,19 @@ import javax.xml.namespace.QName;
 import org.apache.axiom.om.OMElement;
 import org.apache.synapse.Mediator;
 import org.apache.synapse.config.xml.IterateMediatorFactory;
+import org.apache.synapse.config.xml.SequenceMediatorFactory;
+import org.apache.synapse.config.xml.SynapseXPathFactory;
 import org.apache.synapse.mediators.eip.splitter.IterateMediator;
+import org.jaxen.JaxenException;
 
 import fi.mystes.synapse.mediator.BatchIteratorMediator;
+import fi.mystes.synapse.mediator.batch.AdaptiveBatchSizeController;
+import fi.mystes.synapse.mediator.checkpoint.CheckpointStore;
 import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+import fi.mystes.synapse.mediator.context.PropertyFilter;
+import fi.mystes.synapse.mediator.dispatch.BatchExecutorConfig;
+import fi.mystes.synapse.mediator.json.JsonPath;
+import fi.mystes.synapse.mediator.split.ElementProjection;
 
 public class BatchIteratorMediatorFactory extends IterateMediatorFactory {
 
@@ -53,27 +63,416 @@ public class BatchIteratorMediatorFactory extends IterateMediatorFactory {
      */
     @Override
     public Mediator createSpecificMediator(OMElement element, Properties properties) {
-        IterateMediator mediator = (IterateMediator) super.createSpecificMediator(element, properties);
+        String jsonPath = element.getAttributeValue(new QName(BatchIteratorConstants.ATT_JSON_PATH));
+        boolean splitLines = Boolean
+                .parseBoolean(element.getAttributeValue(new QName(BatchIteratorConstants.ATT_SPLIT_LINES)));
+        OMElement iterateElement = element;
+        if ((jsonPath != null || splitLines) && element.getAttribute(new QName("expression")) == null) {
+            // iterate mediator requires an expression, which is not used in
+            // JSON and line modes
+            iterateElement = element.cloneOMElement();
+            iterateElement.addAttribute("expression", BatchIteratorConstants.EXPRESSION_PLACEHOLDER, null);
+        }
+        IterateMediator mediator = (IterateMediator) super.createSpecificMediator(iterateElement, properties);
         BatchIteratorMediator batchIterator = new BatchIteratorMediator();
         batchIterator.setAttachPath(mediator.getAttachPath());
         batchIterator.setContinueParent(mediator.isContinueParent());
         batchIterator.setDescription(mediator.getDescription());
+        // simple paths are compiled here into a direct traversal of the
+        // envelope, so that splitting bypasses Jaxen
         batchIterator.setExpression(mediator.getExpression());
         batchIterator.setId(mediator.getId());
         batchIterator.setPreservePayload(mediator.isPreservePayload());
         batchIterator.setTarget(mediator.getTarget());
         batchIterator.setTraceState(mediator.getTraceState());
+
+        String maxBatchBytes = element.getAttributeValue(new QName(BatchIteratorConstants.ATT_MAX_BATCH_BYTES));
+        if (maxBatchBytes != null) {
+            try {
+                batchIterator.setMaxBatchBytes(Long.parseLong(maxBatchBytes));
+            } catch (NumberFormatException e) {
+                handleException("maxBatchBytes value must be number", e);
+            }
+            if (batchIterator.getMaxBatchBytes() < 1) {
+                handleException("maxBatchBytes value must be greater than zero");
+            }
+        }
+
+        String maxBatchWeight = element.getAttributeValue(new QName(BatchIteratorConstants.ATT_MAX_BATCH_WEIGHT));
+        if (element.getAttribute(new QName(BatchIteratorConstants.ATT_WEIGHT_EXPRESSION)) != null) {
+            if (maxBatchWeight == null) {
+                handleException("maxBatchWeight attribute is required with weightExpression");
+            }
+            try {
+                batchIterator.setWeightExpression(SynapseXPathFactory.getSynapseXPath(element,
+                        new QName(BatchIteratorConstants.ATT_WEIGHT_EXPRESSION)));
+                batchIterator.setMaxBatchWeight(Double.parseDouble(maxBatchWeight));
+            } catch (JaxenException e) {
+                handleException("Invalid weightExpression", e);
+            } catch (NumberFormatException e) {
+                handleException("maxBatchWeight value must be number", e);
+            }
+            if (!(batchIterator.getMaxBatchWeight() > 0)) {
+                handleException("maxBatchWeight value must be greater than zero");
+            }
+        } else if (maxBatchWeight != null) {
+            handleException("weightExpression attribute is required with maxBatchWeight");
+        }
+
+        OMElement adaptiveElement = element.getFirstChildWithName(BatchIteratorConstants.ADAPTIVE_TAG);
         String batchSize = element.getAttributeValue(new QName(BatchIteratorConstants.ATT_BATCH_SIZE));
         if (batchSize == null) {
-            handleException("batchSize attribute is required for Batch Iterator Mediator");
+            if (maxBatchBytes == null && maxBatchWeight == null && adaptiveElement == null) {
+                handleException("batchSize attribute is required for Batch Iterator Mediator "
+                        + "unless maxBatchBytes, maxBatchWeight or adaptive is given");
+            }
+        } else {
+            try {
+                Integer batchSizeInt = Integer.parseInt(batchSize);
+                batchIterator.setBatchSize(batchSizeInt);
+            } catch (Exception e) {
+                handleException("batchSize value must be number", e);
+            }
         }
-        try {
-            Integer batchSizeInt = Integer.parseInt(batchSize);
-            batchIterator.setBatchSize(batchSizeInt);
-        } catch (Exception e) {
-            handleException("batchSize value must be number", e);
+
+        if (adaptiveElement != null) {
+            batchIterator.setAdaptiveBatchSize(createAdaptiveBatchSize(adaptiveElement, batchIterator.getBatchSize()));
+        }
+
+        String maxConcurrentBatches = element
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_MAX_CONCURRENT_BATCHES));
+        if (maxConcurrentBatches != null) {
+            batchIterator.setMaxConcurrentBatches(parsePositiveInteger(maxConcurrentBatches,
+                    BatchIteratorConstants.ATT_MAX_CONCURRENT_BATCHES));
+        }
+
+        String memoryBudget = element.getAttributeValue(new QName(BatchIteratorConstants.ATT_MEMORY_BUDGET));
+        if (memoryBudget != null) {
+            if (maxConcurrentBatches == null) {
+                handleException("maxConcurrentBatches attribute is required with memoryBudget");
+            }
+            try {
+                batchIterator.setMemoryBudget(Long.parseLong(memoryBudget));
+            } catch (NumberFormatException e) {
+                handleException("memoryBudget value must be number", e);
+            }
+            if (batchIterator.getMemoryBudget() < 0) {
+                handleException("memoryBudget value must not be negative");
+            }
+        }
+
+        String maxBatchesPerSecond = element
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_MAX_BATCHES_PER_SECOND));
+        if (maxBatchesPerSecond != null) {
+            try {
+                batchIterator.setMaxBatchesPerSecond(Double.parseDouble(maxBatchesPerSecond));
+            } catch (NumberFormatException e) {
+                handleException("maxBatchesPerSecond value must be number", e);
+            }
+            if (!(batchIterator.getMaxBatchesPerSecond() > 0)
+                    || batchIterator.getMaxBatchesPerSecond().isInfinite()) {
+                handleException("maxBatchesPerSecond value must be greater than zero");
+            }
+        }
+
+        String burstSize = element.getAttributeValue(new QName(BatchIteratorConstants.ATT_BURST_SIZE));
+        if (burstSize != null) {
+            if (maxBatchesPerSecond == null) {
+                handleException("maxBatchesPerSecond attribute is required with burstSize");
+            }
+            batchIterator.setBurstSize(parsePositiveInteger(burstSize, BatchIteratorConstants.ATT_BURST_SIZE));
+        }
+
+        OMElement clonePropertiesElement = element
+                .getFirstChildWithName(BatchIteratorConstants.CLONE_PROPERTIES_TAG);
+        if (clonePropertiesElement != null) {
+            String include = clonePropertiesElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_INCLUDE));
+            String exclude = clonePropertiesElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_EXCLUDE));
+            if (include == null && exclude == null) {
+                handleException("include or exclude attribute is required for cloneProperties of Batch Iterator "
+                        + "Mediator");
+            }
+            batchIterator.setCloneProperties(new PropertyFilter(include, exclude));
+        }
+
+        OMElement projectionElement = element.getFirstChildWithName(BatchIteratorConstants.PROJECTION_TAG);
+        if (projectionElement != null) {
+            if (jsonPath != null || splitLines) {
+                handleException("projection cannot be used with jsonPath or splitLines");
+            }
+            String keep = projectionElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_KEEP));
+            String drop = projectionElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_DROP));
+            if (keep == null && drop == null) {
+                handleException("keep or drop attribute is required for projection of Batch Iterator Mediator");
+            }
+            batchIterator.setProjection(new ElementProjection(keep, drop));
+        }
+
+        OMElement executorElement = element.getFirstChildWithName(BatchIteratorConstants.EXECUTOR_TAG);
+        if (executorElement != null) {
+            batchIterator.setExecutorConfig(createExecutorConfig(executorElement));
+        }
+        if (maxConcurrentBatches != null && executorElement == null && batchIterator.getTarget().isAsynchronous()) {
+            // the mediating thread waits for running batches, which must not
+            // be queued to the Synapse worker pool the thread itself is from
+            handleException("executor element is required with maxConcurrentBatches");
+        }
+
+        if (Boolean.parseBoolean(element.getAttributeValue(new QName(BatchIteratorConstants.ATT_STREAMING)))) {
+            if (batchIterator.isPreservePayload()) {
+                handleException("preservePayload cannot be used in streaming mode");
+            }
+            if (batchIterator.getSimplePath() == null) {
+                handleException("streaming mode supports only simple element path expressions like //element or "
+                        + "/prefix:root/element, but got : " + batchIterator.getExpression());
+            }
+            batchIterator.setStreaming(true);
+        }
+
+        if (jsonPath != null) {
+            JsonPath compiled = JsonPath.compile(jsonPath);
+            if (compiled == null) {
+                handleException("jsonPath must be $ or a dot separated member path like $.orders, but got : "
+                        + jsonPath);
+            }
+            if (batchIterator.isStreaming() || batchIterator.isPreservePayload()
+                    || batchIterator.getWeightExpression() != null) {
+                handleException("jsonPath cannot be used with streaming, preservePayload or weightExpression");
+            }
+            batchIterator.setJsonPath(compiled);
+        }
+
+        boolean keepHeader = Boolean
+                .parseBoolean(element.getAttributeValue(new QName(BatchIteratorConstants.ATT_KEEP_HEADER)));
+        if (splitLines) {
+            if (jsonPath != null || batchIterator.isStreaming() || batchIterator.isPreservePayload()
+                    || batchIterator.getWeightExpression() != null) {
+                handleException(
+                        "splitLines cannot be used with jsonPath, streaming, preservePayload or weightExpression");
+            }
+            batchIterator.setSplitLines(true);
+            batchIterator.setKeepHeader(keepHeader);
+        } else if (keepHeader) {
+            handleException("keepHeader can be used only with splitLines");
+        }
+
+        if (element.getAttribute(new QName(BatchIteratorConstants.ATT_PARTITION_EXPRESSION)) != null) {
+            if (batchIterator.isStreaming() || jsonPath != null || splitLines) {
+                handleException("partitionExpression cannot be used with streaming, jsonPath or splitLines");
+            }
+            if (batchIterator.getMemoryBudget() != null) {
+                handleException("partitionExpression cannot be used with memoryBudget");
+            }
+            try {
+                batchIterator.setPartitionExpression(SynapseXPathFactory.getSynapseXPath(element,
+                        new QName(BatchIteratorConstants.ATT_PARTITION_EXPRESSION)));
+            } catch (JaxenException e) {
+                handleException("Invalid partitionExpression", e);
+            }
+        }
+
+        batchIterator.setPipelined(
+                Boolean.parseBoolean(element.getAttributeValue(new QName(BatchIteratorConstants.ATT_PIPELINED))));
+
+        batchIterator.setFailFast(
+                Boolean.parseBoolean(element.getAttributeValue(new QName(BatchIteratorConstants.ATT_FAIL_FAST))));
+
+        if (Boolean.parseBoolean(element.getAttributeValue(new QName(BatchIteratorConstants.ATT_ORDERED)))) {
+            if (!batchIterator.getTarget().isAsynchronous()) {
+                handleException("ordered mode cannot be used with a sequential target");
+            }
+            OMElement releaseElement = element.getFirstChildWithName(BatchIteratorConstants.RELEASE_TAG);
+            if (releaseElement == null) {
+                handleException("onRelease element is required in ordered mode");
+            }
+            String releaseSequenceRef = releaseElement
+                    .getAttributeValue(new QName(BatchIteratorConstants.ATT_SEQUENCE));
+            if (releaseSequenceRef != null) {
+                batchIterator.setReleaseSequenceRef(releaseSequenceRef);
+            } else {
+                batchIterator.setReleaseSequence(
+                        new SequenceMediatorFactory().createAnonymousSequence(releaseElement, properties));
+            }
+            batchIterator.setOrdered(true);
+        }
+
+        OMElement poisonElement = element.getFirstChildWithName(BatchIteratorConstants.POISON_TAG);
+        if (poisonElement != null) {
+            if (batchIterator.getJsonPath() != null || batchIterator.isSplitLines()) {
+                handleException("onPoison cannot be used with jsonPath or splitLines");
+            }
+            if (batchIterator.isOrdered()) {
+                handleException("onPoison cannot be used in ordered mode");
+            }
+            String poisonSequenceRef = poisonElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_SEQUENCE));
+            if (poisonSequenceRef != null) {
+                batchIterator.setPoisonSequenceRef(poisonSequenceRef);
+            } else {
+                batchIterator.setPoisonSequence(
+                        new SequenceMediatorFactory().createAnonymousSequence(poisonElement, properties));
+            }
+        }
+
+        OMElement checkpointElement = element.getFirstChildWithName(BatchIteratorConstants.CHECKPOINT_TAG);
+        if (checkpointElement != null) {
+            if (batchIterator.getTarget().isAsynchronous()) {
+                handleException("checkpoint can be used only with a sequential target");
+            }
+            if (batchIterator.getAdaptiveBatchSize() != null) {
+                handleException("checkpoint cannot be used with adaptive batch size, as the batches of a resumed "
+                        + "message must be the same as before");
+            }
+            String directory = checkpointElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_DIRECTORY));
+            if (directory == null) {
+                handleException("directory attribute is required for checkpoint of Batch Iterator Mediator");
+            }
+            batchIterator.setCheckpointStore(new CheckpointStore(new File(directory)));
+            if (checkpointElement.getAttribute(new QName(BatchIteratorConstants.ATT_KEY)) != null) {
+                try {
+                    batchIterator.setCheckpointKey(SynapseXPathFactory.getSynapseXPath(checkpointElement,
+                            new QName(BatchIteratorConstants.ATT_KEY)));
+                } catch (JaxenException e) {
+                    handleException("Invalid checkpoint key expression", e);
+                }
+            }
+        }
+
+        String maxWaitMillis = element.getAttributeValue(new QName(BatchIteratorConstants.ATT_MAX_WAIT_MILLIS));
+        if (maxWaitMillis != null) {
+            if (batchSize == null) {
+                handleException("batchSize attribute is required with maxWaitMillis");
+            }
+            if (!batchIterator.getTarget().isAsynchronous()) {
+                handleException("maxWaitMillis cannot be used with a sequential target");
+            }
+            if (batchIterator.isStreaming() || jsonPath != null || splitLines || maxBatchBytes != null
+                    || maxBatchWeight != null || adaptiveElement != null
+                    || batchIterator.getPartitionExpression() != null) {
+                handleException("maxWaitMillis cannot be used with streaming, jsonPath, splitLines, maxBatchBytes, "
+                        + "weightExpression, adaptive or partitionExpression");
+            }
+            if (maxConcurrentBatches != null || maxBatchesPerSecond != null || executorElement != null
+                    || batchIterator.isPipelined() || batchIterator.isOrdered() || batchIterator.isFailFast()
+                    || poisonElement != null) {
+                handleException("maxWaitMillis cannot be used with maxConcurrentBatches, maxBatchesPerSecond, "
+                        + "executor, pipelined, ordered, failFast or onPoison");
+            }
+            try {
+                batchIterator.setMaxWaitMillis(Long.parseLong(maxWaitMillis));
+            } catch (NumberFormatException e) {
+                handleException("maxWaitMillis value must be number", e);
+            }
+            if (batchIterator.getMaxWaitMillis() < 1) {
+                handleException("maxWaitMillis value must be greater than zero");
+            }
         }
 
         return batchIterator;
     }
+
+    /**
+     * Helper method to create adaptive batch size controller from given
+     * adaptive element.
+     * 
+     * @param adaptiveElement
+     *            Adaptive batch size configuration element
+     * @param batchSize
+     *            Initial batch size or null to start from the minimum
+     * @return Adaptive batch size controller
+     */
+    private AdaptiveBatchSizeController createAdaptiveBatchSize(OMElement adaptiveElement, Integer batchSize) {
+        int minBatchSize = parseRequiredPositiveInteger(adaptiveElement, BatchIteratorConstants.ATT_MIN_BATCH_SIZE);
+        int maxBatchSize = parseRequiredPositiveInteger(adaptiveElement, BatchIteratorConstants.ATT_MAX_BATCH_SIZE);
+        int targetLatency = parseRequiredPositiveInteger(adaptiveElement,
+                BatchIteratorConstants.ATT_TARGET_LATENCY);
+        if (minBatchSize > maxBatchSize) {
+            handleException("minBatchSize value must not be greater than maxBatchSize value");
+        }
+        int increment = 1;
+        String incrementValue = adaptiveElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_INCREMENT));
+        if (incrementValue != null) {
+            increment = parsePositiveInteger(incrementValue, BatchIteratorConstants.ATT_INCREMENT);
+        }
+        return new AdaptiveBatchSizeController(minBatchSize, maxBatchSize, targetLatency, increment,
+                batchSize != null ? batchSize : minBatchSize);
+    }
+
+    /**
+     * Helper method to parse required attribute that must be a positive
+     * number.
+     * 
+     * @param element
+     *            Element containing the attribute
+     * @param attributeName
+     *            Name of the attribute
+     * @return Parsed number
+     */
+    private Integer parseRequiredPositiveInteger(OMElement element, String attributeName) {
+        String value = element.getAttributeValue(new QName(attributeName));
+        if (value == null) {
+            handleException(attributeName + " attribute is required for " + element.getLocalName()
+                    + " of Batch Iterator Mediator");
+        }
+        return parsePositiveInteger(value, attributeName);
+    }
+
+    /**
+     * Helper method to create dedicated executor configuration from given
+     * executor element.
+     * 
+     * @param executorElement
+     *            Executor configuration element
+     * @return Executor configuration
+     */
+    private BatchExecutorConfig createExecutorConfig(OMElement executorElement) {
+        String name = executorElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_NAME));
+        if (name == null) {
+            handleException("name attribute is required for the executor of Batch Iterator Mediator");
+        }
+        BatchExecutorConfig config = new BatchExecutorConfig(name);
+
+        String poolSize = executorElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_POOL_SIZE));
+        if (poolSize != null) {
+            config.setPoolSize(parsePositiveInteger(poolSize, BatchIteratorConstants.ATT_POOL_SIZE));
+        }
+        String queueLength = executorElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_QUEUE_LENGTH));
+        if (queueLength != null) {
+            config.setQueueLength(parsePositiveInteger(queueLength, BatchIteratorConstants.ATT_QUEUE_LENGTH));
+        }
+        String rejectionPolicy = executorElement
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_REJECTION_POLICY));
+        if (rejectionPolicy != null) {
+            BatchExecutorConfig.RejectionPolicy policy = BatchExecutorConfig.RejectionPolicy
+                    .fromValue(rejectionPolicy);
+            if (policy == null) {
+                handleException("rejectionPolicy value must be one of block, callerRuns or abort");
+            }
+            config.setRejectionPolicy(policy);
+        }
+        config.setVirtualThreads(Boolean.parseBoolean(
+                executorElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_VIRTUAL_THREADS))));
+        return config;
+    }
+
+    /**
+     * Helper method to parse attribute value that must be a positive number.
+     * 
+     * @param value
+     *            Attribute value
+     * @param attributeName
+     *            Used for describing parsing failure
+     * @return Parsed number
+     */
+    private Integer parsePositiveInteger(String value, String attributeName) {
+        Integer number = null;
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            handleException(attributeName + " value must be number", e);
+        }
+        if (number < 1) {
+            handleException(attributeName + " value must be greater than zero");
+        }
+        return number;
+    }
 }
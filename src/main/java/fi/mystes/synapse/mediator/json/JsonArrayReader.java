@@ -0,0 +1,306 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the elements of the array located by a {@link JsonPath} from a JSON
+ * stream one at a time. The stream is scanned byte by byte and each element
+ * is returned as the bytes it was written with, so no object tree is built and
+ * nothing is decoded except the member names on the path. Members not on the
+ * path are skipped, and the stream is not read past the end of the array.
+ *
+ * Scanning bytes is safe for UTF-8, as the bytes of multi-byte characters
+ * never match the ASCII characters of the JSON syntax.
+ */
+public class JsonArrayReader {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final InputStream in;
+
+    private final String[] names;
+
+    private final byte[] buffer = new byte[8192];
+
+    private int position;
+
+    private int limit;
+
+    private long offset;
+
+    private boolean started;
+
+    private boolean ended;
+
+    private boolean first = true;
+
+    /**
+     * @param in
+     *            JSON stream
+     * @param path
+     *            Path to the array whose elements are read
+     */
+    public JsonArrayReader(InputStream in, JsonPath path) {
+        this.in = in;
+        this.names = path.getNames();
+    }
+
+    /**
+     * Reads next element of the array.
+     * 
+     * @return Bytes of the element or null if the array has no more elements
+     *         or the path does not exist
+     * @throws IOException
+     *             If reading the stream fails or the JSON is malformed
+     */
+    public byte[] next() throws IOException {
+        if (!started) {
+            started = true;
+            ended = !locateArray();
+        }
+        if (ended) {
+            return null;
+        }
+        int c = skipWhitespace();
+        if (c == ']') {
+            read();
+            ended = true;
+            return null;
+        }
+        if (!first) {
+            if (c != ',') {
+                throw error("expected , or ] in array");
+            }
+            read();
+            skipWhitespace();
+        }
+        first = false;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copyValue(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Moves to the first element of the array.
+     * 
+     * @return false if a member on the path does not exist
+     */
+    private boolean locateArray() throws IOException {
+        for (String name : names) {
+            if (skipWhitespace() != '{') {
+                return false;
+            }
+            read();
+            boolean found = false;
+            boolean firstMember = true;
+            while (!found) {
+                int c = skipWhitespace();
+                if (c == '}') {
+                    return false;
+                }
+                if (!firstMember) {
+                    if (c != ',') {
+                        throw error("expected , or } in object");
+                    }
+                    read();
+                    c = skipWhitespace();
+                }
+                firstMember = false;
+                if (c != '"') {
+                    throw error("expected member name");
+                }
+                String member = readString();
+                if (skipWhitespace() != ':') {
+                    throw error("expected : after member name");
+                }
+                read();
+                skipWhitespace();
+                if (name.equals(member)) {
+                    found = true;
+                } else {
+                    copyValue(null);
+                }
+            }
+        }
+        if (skipWhitespace() != '[') {
+            throw error("value at the JSON path is not an array");
+        }
+        read();
+        return true;
+    }
+
+    /**
+     * Copies the value starting at the current position to given stream, or
+     * skips it if the stream is null.
+     */
+    private void copyValue(OutputStream out) throws IOException {
+        int c = peek();
+        if (c == '"') {
+            copyString(out);
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = read();
+                if (c == '"') {
+                    unread();
+                    copyString(out);
+                    continue;
+                }
+                write(out, c);
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        } else {
+            // number, true, false or null
+            boolean empty = true;
+            while ((c = peek()) != -1 && c != ',' && c != ']' && c != '}' && !isWhitespace(c)) {
+                write(out, read());
+                empty = false;
+            }
+            if (empty) {
+                throw error("expected value");
+            }
+        }
+    }
+
+    private void copyString(OutputStream out) throws IOException {
+        write(out, read());
+        while (true) {
+            int c = read();
+            write(out, c);
+            if (c == '\\') {
+                write(out, read());
+            } else if (c == '"') {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads and decodes the string at the current position.
+     */
+    private String readString() throws IOException {
+        read();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return new String(bytes.toByteArray(), UTF8);
+            }
+            if (c != '\\') {
+                bytes.write(c);
+                continue;
+            }
+            c = read();
+            switch (c) {
+            case 'b':
+                bytes.write('\b');
+                break;
+            case 'f':
+                bytes.write('\f');
+                break;
+            case 'n':
+                bytes.write('\n');
+                break;
+            case 'r':
+                bytes.write('\r');
+                break;
+            case 't':
+                bytes.write('\t');
+                break;
+            case 'u':
+                char[] hex = new char[4];
+                for (int i = 0; i < hex.length; i++) {
+                    hex[i] = (char) read();
+                }
+                try {
+                    byte[] decoded = String.valueOf((char) Integer.parseInt(new String(hex), 16)).getBytes(UTF8);
+                    bytes.write(decoded, 0, decoded.length);
+                } catch (NumberFormatException e) {
+                    throw error("invalid unicode escape");
+                }
+                break;
+            default:
+                bytes.write(c);
+                break;
+            }
+        }
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c;
+        while ((c = peek()) != -1 && isWhitespace(c)) {
+            read();
+        }
+        return c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private static void write(OutputStream out, int c) throws IOException {
+        if (out != null) {
+            out.write(c);
+        }
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position] & 0xff;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            throw error("unexpected end of JSON");
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    /**
+     * Steps back one byte. Only valid right after {@link #read()}.
+     */
+    private void unread() {
+        position--;
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        position = 0;
+        limit = 0;
+        int count = in.read(buffer);
+        if (count <= 0) {
+            return false;
+        }
+        limit = count;
+        return true;
+    }
+
+    private IOException error(String message) {
+        return new IOException("Malformed JSON at byte " + (offset + position) + ": " + message);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.json;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Path to an array in a JSON document, consisting of the root ($) and member
+ * names separated by dots, e.g. $ or $.orders or $.data.items.
+ */
+public class JsonPath {
+
+    private final String path;
+
+    private final String[] names;
+
+    private JsonPath(String path, String[] names) {
+        this.path = path;
+        this.names = names;
+    }
+
+    /**
+     * Compiles given path string.
+     * 
+     * @param path
+     *            Path string to compile
+     * @return Compiled path or null if path is not valid
+     */
+    public static JsonPath compile(String path) {
+        String trimmed = path.trim();
+        if (!trimmed.startsWith("$")) {
+            return null;
+        }
+        List<String> names = new ArrayList<String>();
+        String rest = trimmed.substring(1);
+        while (rest.length() > 0) {
+            if (rest.charAt(0) != '.') {
+                return null;
+            }
+            int end = rest.indexOf('.', 1);
+            String name = end < 0 ? rest.substring(1) : rest.substring(1, end);
+            if (name.length() == 0) {
+                return null;
+            }
+            names.add(name);
+            rest = end < 0 ? "" : rest.substring(end);
+        }
+        return new JsonPath(trimmed, names.toArray(new String[names.size()]));
+    }
+
+    /**
+     * @return Member names leading from the root value to the array
+     */
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.metrics;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.synapse.MessageContext;
+
+import fi.mystes.synapse.mediator.batch.AdaptiveBatchSizeController;
+import fi.mystes.synapse.mediator.dispatch.BatchCompletionListener;
+import fi.mystes.synapse.mediator.dispatch.SpillListener;
+
+/**
+ * Metrics of the mediators sharing a mediator id. Updated by the mediator on
+ * the mediation hot path, so all counters are lock-free.
+ */
+public class BatchIteratorMetrics implements BatchIteratorMetricsMBean, BatchCompletionListener, SpillListener {
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final AtomicLong messageCount = new AtomicLong();
+
+    private final AtomicLong failedMessageCount = new AtomicLong();
+
+    private final AtomicLong failedBatchCount = new AtomicLong();
+
+    private final AtomicLong inFlightBatchCount = new AtomicLong();
+
+    private final AtomicLong spilledBatchCount = new AtomicLong();
+
+    private final AtomicLong spilledBytes = new AtomicLong();
+
+    private final Histogram splitTime = new Histogram();
+
+    private final Histogram cloneTime = new Histogram();
+
+    private final Histogram rateLimitWaitTime = new Histogram();
+
+    private final Histogram batchSize = new Histogram();
+
+    private final Histogram batchLatency = new Histogram();
+
+    private volatile AdaptiveBatchSizeController adaptiveBatchSize;
+
+    /**
+     * @param adaptiveBatchSize
+     *            Controller whose batch size is reported or null
+     */
+    public void setAdaptiveBatchSize(AdaptiveBatchSizeController adaptiveBatchSize) {
+        this.adaptiveBatchSize = adaptiveBatchSize;
+    }
+
+    /**
+     * @param failed
+     *            true if mediation of the message failed
+     */
+    public void messageMediated(boolean failed) {
+        messageCount.incrementAndGet();
+        if (failed) {
+            failedMessageCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param nanos
+     *            Time taken to split a message or to read a streamed batch
+     */
+    public void splitTime(long nanos) {
+        splitTime.record(nanos);
+    }
+
+    /**
+     * @param nanos
+     *            Time taken to copy a message context
+     */
+    public void cloneTime(long nanos) {
+        cloneTime.record(nanos);
+    }
+
+    /**
+     * @param nanos
+     *            Time a batch waited for the rate limit
+     */
+    public void rateLimitWaitTime(long nanos) {
+        rateLimitWaitTime.record(nanos);
+    }
+
+    /**
+     * Records a batch handed to the target.
+     * 
+     * @param elementCount
+     *            Number of elements in the batch
+     */
+    public void batchDispatched(int elementCount) {
+        batchSize.record(elementCount);
+        inFlightBatchCount.incrementAndGet();
+    }
+
+    @Override
+    public void batchCompleted(MessageContext iteratedMsgCtx, int elementCount, long startNanos, Exception failure) {
+        batchLatency.record((System.nanoTime() - startNanos) / 1000L);
+        inFlightBatchCount.decrementAndGet();
+        if (failure != null) {
+            failedBatchCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void batchSpilled(long bytes) {
+        spilledBatchCount.incrementAndGet();
+        spilledBytes.addAndGet(bytes);
+    }
+
+    @Override
+    public long getMessageCount() {
+        return messageCount.get();
+    }
+
+    @Override
+    public long getFailedMessageCount() {
+        return failedMessageCount.get();
+    }
+
+    @Override
+    public long getElementCount() {
+        return batchSize.getSum();
+    }
+
+    @Override
+    public long getBatchCount() {
+        return batchSize.getCount();
+    }
+
+    @Override
+    public long getFailedBatchCount() {
+        return failedBatchCount.get();
+    }
+
+    @Override
+    public long getInFlightBatchCount() {
+        return inFlightBatchCount.get();
+    }
+
+    @Override
+    public long getSpilledBatchCount() {
+        return spilledBatchCount.get();
+    }
+
+    @Override
+    public long getSpilledBytes() {
+        return spilledBytes.get();
+    }
+
+    @Override
+    public double getTotalSplitTimeMillis() {
+        return splitTime.getSum() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getAverageSplitTimeMillis() {
+        return splitTime.getMean() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getTotalCloneTimeMillis() {
+        return cloneTime.getSum() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getAverageCloneTimeMillis() {
+        return cloneTime.getMean() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getTotalRateLimitWaitTimeMillis() {
+        return rateLimitWaitTime.getSum() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getAverageBatchSize() {
+        return batchSize.getMean();
+    }
+
+    @Override
+    public String getBatchSizeDistribution() {
+        return batchSize.getDistribution();
+    }
+
+    @Override
+    public double getAverageBatchLatencyMillis() {
+        return batchLatency.getMean() / 1000.0;
+    }
+
+    @Override
+    public double getBatchLatency50thPercentileMillis() {
+        return batchLatency.getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getBatchLatency95thPercentileMillis() {
+        return batchLatency.getPercentile(95) / 1000.0;
+    }
+
+    @Override
+    public double getBatchLatency99thPercentileMillis() {
+        return batchLatency.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public String getBatchLatencyDistribution() {
+        return batchLatency.getDistribution();
+    }
+
+    @Override
+    public int getAdaptiveBatchSize() {
+        AdaptiveBatchSizeController controller = adaptiveBatchSize;
+        return controller != null ? controller.getBatchSize() : -1;
+    }
+
+    @Override
+    public String[] getAdaptiveBatchSizeHistory() {
+        AdaptiveBatchSizeController controller = adaptiveBatchSize;
+        if (controller == null) {
+            return new String[0];
+        }
+        List<AdaptiveBatchSizeController.Adjustment> history = controller.getHistory();
+        String[] entries = new String[history.size()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = history.get(i).toString();
+        }
+        return entries;
+    }
+
+    @Override
+    public void reset() {
+        messageCount.set(0);
+        failedMessageCount.set(0);
+        failedBatchCount.set(0);
+        spilledBatchCount.set(0);
+        spilledBytes.set(0);
+        splitTime.reset();
+        cloneTime.reset();
+        rateLimitWaitTime.reset();
+        batchSize.reset();
+        batchLatency.reset();
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.metrics;
+
+/**
+ * Management interface of the metrics of a Batch Iterator Mediator. Times are
+ * reported in milliseconds.
+ */
+public interface BatchIteratorMetricsMBean {
+
+    /**
+     * @return Number of messages mediated
+     */
+    long getMessageCount();
+
+    /**
+     * @return Number of messages whose mediation failed
+     */
+    long getFailedMessageCount();
+
+    /**
+     * @return Number of elements split from the messages
+     */
+    long getElementCount();
+
+    /**
+     * @return Number of batches created
+     */
+    long getBatchCount();
+
+    /**
+     * @return Number of batches whose mediation failed
+     */
+    long getFailedBatchCount();
+
+    /**
+     * @return Number of batches dispatched but not yet completed
+     */
+    long getInFlightBatchCount();
+
+    /**
+     * @return Number of waiting batches written to a spill file
+     */
+    long getSpilledBatchCount();
+
+    /**
+     * @return Number of bytes written to spill files
+     */
+    long getSpilledBytes();
+
+    double getTotalSplitTimeMillis();
+
+    double getAverageSplitTimeMillis();
+
+    double getTotalCloneTimeMillis();
+
+    /**
+     * @return Average time taken by a single message context copy
+     */
+    double getAverageCloneTimeMillis();
+
+    /**
+     * @return Total time batches have waited for the rate limit
+     */
+    double getTotalRateLimitWaitTimeMillis();
+
+    double getAverageBatchSize();
+
+    /**
+     * @return Batch size distribution as "lower-upper: count" pairs
+     */
+    String getBatchSizeDistribution();
+
+    double getAverageBatchLatencyMillis();
+
+    double getBatchLatency50thPercentileMillis();
+
+    double getBatchLatency95thPercentileMillis();
+
+    double getBatchLatency99thPercentileMillis();
+
+    /**
+     * @return Batch latency distribution in microseconds as "lower-upper:
+     *         count" pairs
+     */
+    String getBatchLatencyDistribution();
+
+    /**
+     * @return Current adaptive batch size or -1 if batch size is fixed
+     */
+    int getAdaptiveBatchSize();
+
+    /**
+     * @return Latest adaptive batch size adjustments, oldest first
+     */
+    String[] getAdaptiveBatchSizeHistory();
+
+    /**
+     * Clears all counters except the number of batches in flight.
+     */
+    void reset();
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.commons.jmx.MBeanRegistrar;
+
+/**
+ * Registry of metrics shared by the mediators with the same id. The metrics of
+ * an id are registered as an MBean through the Synapse MBean registrar when
+ * first acquired and unregistered when the last mediator using them releases
+ * them.
+ */
+public final class BatchIteratorMetricsRegistry {
+
+    private static final Log log = LogFactory.getLog(BatchIteratorMetricsRegistry.class);
+
+    /**
+     * MBean category of the metrics.
+     */
+    public static final String MBEAN_CATEGORY = "BatchIterator";
+
+    private static final Map<String, SharedMetrics> metrics = new HashMap<String, SharedMetrics>();
+
+    private BatchIteratorMetricsRegistry() {
+    }
+
+    /**
+     * Returns the metrics of given mediator id, creating and registering them
+     * if needed. Each call must be paired with {@link #release(String)}.
+     * 
+     * @param id
+     *            Mediator id
+     * @return Metrics of the id
+     */
+    public static synchronized BatchIteratorMetrics acquire(String id) {
+        SharedMetrics shared = metrics.get(id);
+        if (shared == null) {
+            shared = new SharedMetrics(new BatchIteratorMetrics());
+            metrics.put(id, shared);
+            try {
+                MBeanRegistrar.getInstance().registerMBean(shared.metrics, MBEAN_CATEGORY, id);
+            } catch (Exception e) {
+                log.warn("Unable to register metrics MBean of batch iterator " + id, e);
+            }
+        }
+        shared.references++;
+        return shared.metrics;
+    }
+
+    /**
+     * Releases the metrics of given mediator id. The MBean is unregistered
+     * when no mediator uses the metrics any more.
+     * 
+     * @param id
+     *            Mediator id
+     */
+    public static synchronized void release(String id) {
+        SharedMetrics shared = metrics.get(id);
+        if (shared == null || --shared.references > 0) {
+            return;
+        }
+        metrics.remove(id);
+        try {
+            MBeanRegistrar.getInstance().unRegisterMBean(MBEAN_CATEGORY, id);
+        } catch (Exception e) {
+            log.warn("Unable to unregister metrics MBean of batch iterator " + id, e);
+        }
+    }
+
+    private static class SharedMetrics {
+        final BatchIteratorMetrics metrics;
+        int references;
+
+        SharedMetrics(BatchIteratorMetrics metrics) {
+            this.metrics = metrics;
+        }
+    }
+}
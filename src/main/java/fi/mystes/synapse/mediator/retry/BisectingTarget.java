@@ -0,0 +1,214 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.retry;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNode;
+import org.apache.axiom.om.OMText;
+import org.apache.axis2.AxisFault;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.Mediator;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseConstants;
+import org.apache.synapse.SynapseException;
+import org.apache.synapse.mediators.eip.Target;
+
+/**
+ * Target isolating the elements that make a batch fail. A batch failing with
+ * an exception is split in half and each half is mediated again through the
+ * delegate target, recursively, until the failing parts are single elements.
+ * Each failing element is mediated through the poison mediator, and the batch
+ * counts as completed once every part has either succeeded or been given to
+ * the poison mediator.
+ *
+ * The target is used for the batches of a single mediation. The elements of a
+ * batch are copied when the batch is registered, as the target is free to
+ * change the batch message, and retried parts are built from further copies
+ * so that a failing part can be split again.
+ */
+public class BisectingTarget extends Target {
+
+    private static final Log log = LogFactory.getLog(BisectingTarget.class);
+
+    private final Target delegate;
+
+    private final Mediator poison;
+
+    private final BatchFactory batchFactory;
+
+    private final Map<MessageContext, Registered> registered = new IdentityHashMap<MessageContext, Registered>();
+
+    /**
+     * @param delegate
+     *            Synchronous target mediating the batches
+     * @param poison
+     *            Mediator the failing elements are passed to
+     * @param batchFactory
+     *            Creates the messages of the retried parts
+     */
+    public BisectingTarget(Target delegate, Mediator poison, BatchFactory batchFactory) {
+        this.delegate = delegate;
+        this.poison = poison;
+        this.batchFactory = batchFactory;
+        setAsynchronous(false);
+    }
+
+    /**
+     * Keeps the elements of given batch for retries.
+     * 
+     * @param iteratedMsgCtx
+     *            Message context of the batch
+     * @param number
+     *            Number of the batch, starting from 0
+     * @param count
+     *            Total number of batches as given in the message sequence
+     * @param elements
+     *            Copies of the elements of the batch, taken with
+     *            {@link #copyOf(List)} before the elements were added to the
+     *            batch message
+     */
+    public void register(MessageContext iteratedMsgCtx, int number, int count, List<OMNode> elements) {
+        Registered batch = new Registered(number, count, elements);
+        synchronized (registered) {
+            registered.put(iteratedMsgCtx, batch);
+        }
+    }
+
+    /**
+     * Mediates given batch through the delegate target, bisecting it if it
+     * fails. Batches that have not been registered are mediated as such.
+     * 
+     * @throws SynapseException
+     *             If an unregistered batch or the poison mediator fails
+     */
+    @Override
+    public boolean mediate(MessageContext iteratedMsgCtx) {
+        Registered batch;
+        synchronized (registered) {
+            batch = registered.remove(iteratedMsgCtx);
+        }
+        if (batch == null) {
+            return delegate.mediate(iteratedMsgCtx);
+        }
+        try {
+            return delegate.mediate(iteratedMsgCtx);
+        } catch (RuntimeException e) {
+            bisect(batch, batch.elements, e);
+            return true;
+        }
+    }
+
+    private void bisect(Registered batch, List<OMNode> elements, RuntimeException failure) {
+        if (elements.size() == 1) {
+            poison(batch, elements.get(0), failure);
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Batch " + (batch.number + 1) + " failed with " + elements.size()
+                    + " elements, retrying both halves");
+        }
+        int half = elements.size() / 2;
+        retry(batch, elements.subList(0, half));
+        retry(batch, elements.subList(half, elements.size()));
+    }
+
+    private void retry(Registered batch, List<OMNode> elements) {
+        MessageContext part = createBatch(batch, copyOf(elements));
+        try {
+            delegate.mediate(part);
+        } catch (RuntimeException e) {
+            bisect(batch, elements, e);
+        }
+    }
+
+    private void poison(Registered batch, OMNode element, RuntimeException failure) {
+        log.warn("Element of batch " + (batch.number + 1) + " failed alone, passing it to the poison sequence",
+                failure);
+        List<OMNode> elements = new ArrayList<OMNode>(1);
+        elements.add(element);
+        MessageContext part = createBatch(batch, elements);
+        part.setProperty(SynapseConstants.ERROR_MESSAGE, failure.getMessage());
+        part.setProperty(SynapseConstants.ERROR_EXCEPTION, failure);
+        poison.mediate(part);
+    }
+
+    private MessageContext createBatch(Registered batch, List<OMNode> elements) {
+        try {
+            return batchFactory.createBatch(batch.number, batch.count, elements);
+        } catch (AxisFault e) {
+            throw new SynapseException("Error creating a retried part of batch " + (batch.number + 1), e);
+        }
+    }
+
+    /**
+     * Copies given split nodes.
+     * 
+     * @param elements
+     *            Elements or text nodes to copy
+     * @return Detached copies
+     */
+    public static List<OMNode> copyOf(List<OMNode> elements) {
+        List<OMNode> copies = new ArrayList<OMNode>(elements.size());
+        for (OMNode node : elements) {
+            if (node instanceof OMElement) {
+                copies.add(((OMElement) node).cloneOMElement());
+            } else if (node instanceof OMText) {
+                copies.add(OMAbstractFactory.getOMFactory().createOMText(((OMText) node).getText()));
+            } else {
+                throw new SynapseException("Unable to copy a split node of type " + node.getType() + " for retries");
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * Creates the message of a retried part of a batch.
+     */
+    public interface BatchFactory {
+
+        /**
+         * @param number
+         *            Number of the original batch, starting from 0
+         * @param count
+         *            Total number of batches as given in the message sequence
+         * @param elements
+         *            Elements of the part, owned by the new message
+         * @return Message context of the part
+         * @throws AxisFault
+         *             If creating the message context fails
+         */
+        MessageContext createBatch(int number, int count, List<OMNode> elements) throws AxisFault;
+    }
+
+    private static class Registered {
+        final int number;
+        final int count;
+        final List<OMNode> elements;
+
+        Registered(int number, int count, List<OMNode> elements) {
+            this.number = number;
+            this.count = count;
+            this.elements = elements;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.serializer;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.synapse.Mediator;
+import org.apache.synapse.config.xml.AbstractMediatorSerializer;
+import org.apache.synapse.config.xml.SynapseXPathSerializer;
+
+import fi.mystes.synapse.mediator.BatchAggregateMediator;
+import fi.mystes.synapse.mediator.config.BatchAggregateConstants;
+
+public class BatchAggregateMediatorSerializer extends AbstractMediatorSerializer {
+
+    @Override
+    public String getMediatorClassName() {
+        return BatchAggregateMediator.class.getName();
+    }
+
+    @Override
+    public OMElement serializeSpecificMediator(Mediator m) {
+        BatchAggregateMediator mediator = (BatchAggregateMediator) m;
+        OMElement element = fac.createOMElement(BatchAggregateConstants.ROOT_TAG_NAME, synNS);
+        saveTracingState(element, mediator);
+
+        element.addAttribute(BatchAggregateConstants.ATT_ID, mediator.getId(), nullNS);
+        if (mediator.getExpression() != null) {
+            SynapseXPathSerializer.serializeXPath(mediator.getExpression(), element,
+                    BatchAggregateConstants.ATT_EXPRESSION);
+        }
+        if (!BatchAggregateConstants.DEFAULT_ROOT_ELEMENT.equals(mediator.getRootElement())) {
+            element.addAttribute(BatchAggregateConstants.ATT_ROOT_ELEMENT, mediator.getRootElement(), nullNS);
+        }
+        if (mediator.getTimeout() > 0 && mediator.getTimeout() != BatchAggregateConstants.DEFAULT_TIMEOUT) {
+            element.addAttribute(BatchAggregateConstants.ATT_TIMEOUT, String.valueOf(mediator.getTimeout()),
+                    nullNS);
+        }
+
+        OMElement onComplete = fac.createOMElement(BatchAggregateConstants.ON_COMPLETE_TAG_NAME, synNS);
+        if (mediator.getOnCompleteSequenceRef() != null) {
+            onComplete.addAttribute(BatchAggregateConstants.ATT_SEQUENCE, mediator.getOnCompleteSequenceRef(),
+                    nullNS);
+        } else if (mediator.getOnCompleteSequence() != null) {
+            serializeChildren(onComplete, mediator.getOnCompleteSequence().getList());
+        }
+        element.addChild(onComplete);
+
+        return element;
+    }
+}
@@ -15,12 +15,21 @@
  */
 package fi.mystes.synapse.mediator.serializer;
 
+import javax.xml.namespace.QName;
+
+import org.apache.axiom.om.OMAttribute;
 import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNode;
 import org.apache.synapse.Mediator;
 import org.apache.synapse.config.xml.IterateMediatorSerializer;
+import org.apache.synapse.config.xml.SynapseXPathSerializer;
 
 import fi.mystes.synapse.mediator.BatchIteratorMediator;
+import fi.mystes.synapse.mediator.batch.AdaptiveBatchSizeController;
 import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+import fi.mystes.synapse.mediator.context.PropertyFilter;
+import fi.mystes.synapse.mediator.dispatch.BatchExecutorConfig;
+import fi.mystes.synapse.mediator.split.ElementProjection;
 
 public class BatchIteratorMediatorSerializer extends IterateMediatorSerializer {
 
@@ -33,10 +42,262 @@ public class BatchIteratorMediatorSerializer extends IterateMediatorSerializer {
     public OMElement serializeSpecificMediator(Mediator m) {
         OMElement element = super.serializeSpecificMediator(m);
         element.setLocalName(BatchIteratorConstants.ROOT_TAG_NAME);
-        Integer batchSize = ((BatchIteratorMediator) m).getBatchSize();
-        element.addAttribute(BatchIteratorConstants.ATT_BATCH_SIZE, batchSize != null ? batchSize.toString() : "1",
-                null);
+        BatchIteratorMediator mediator = (BatchIteratorMediator) m;
+        Integer batchSize = mediator.getBatchSize();
+        boolean otherLimits = mediator.getMaxBatchBytes() != null || mediator.getWeightExpression() != null
+                || mediator.getAdaptiveBatchSize() != null;
+        if (batchSize != null || !otherLimits) {
+            element.addAttribute(BatchIteratorConstants.ATT_BATCH_SIZE,
+                    batchSize != null ? batchSize.toString() : "1", null);
+        }
+        if (mediator.getMaxBatchBytes() != null) {
+            element.addAttribute(BatchIteratorConstants.ATT_MAX_BATCH_BYTES, mediator.getMaxBatchBytes().toString(),
+                    null);
+        }
+        if (mediator.getWeightExpression() != null) {
+            SynapseXPathSerializer.serializeXPath(mediator.getWeightExpression(), element,
+                    BatchIteratorConstants.ATT_WEIGHT_EXPRESSION);
+            element.addAttribute(BatchIteratorConstants.ATT_MAX_BATCH_WEIGHT,
+                    String.valueOf(mediator.getMaxBatchWeight()), null);
+        }
+        if (mediator.getPartitionExpression() != null) {
+            SynapseXPathSerializer.serializeXPath(mediator.getPartitionExpression(), element,
+                    BatchIteratorConstants.ATT_PARTITION_EXPRESSION);
+        }
+        if (mediator.getMaxConcurrentBatches() != null) {
+            element.addAttribute(BatchIteratorConstants.ATT_MAX_CONCURRENT_BATCHES,
+                    mediator.getMaxConcurrentBatches().toString(), null);
+        }
+        if (mediator.getMemoryBudget() != null) {
+            element.addAttribute(BatchIteratorConstants.ATT_MEMORY_BUDGET, mediator.getMemoryBudget().toString(),
+                    null);
+        }
+        if (mediator.isStreaming()) {
+            element.addAttribute(BatchIteratorConstants.ATT_STREAMING, "true", null);
+        }
+        if (mediator.getJsonPath() != null) {
+            element.addAttribute(BatchIteratorConstants.ATT_JSON_PATH, mediator.getJsonPath().toString(), null);
+        }
+        if (mediator.isSplitLines()) {
+            element.addAttribute(BatchIteratorConstants.ATT_SPLIT_LINES, "true", null);
+            if (mediator.isKeepHeader()) {
+                element.addAttribute(BatchIteratorConstants.ATT_KEEP_HEADER, "true", null);
+            }
+        }
+        if (mediator.getJsonPath() != null || mediator.isSplitLines()) {
+            OMAttribute expression = element.getAttribute(new QName("expression"));
+            if (expression != null
+                    && BatchIteratorConstants.EXPRESSION_PLACEHOLDER.equals(expression.getAttributeValue())) {
+                element.removeAttribute(expression);
+            }
+        }
+        if (mediator.getMaxBatchesPerSecond() != null) {
+            element.addAttribute(BatchIteratorConstants.ATT_MAX_BATCHES_PER_SECOND,
+                    String.valueOf(mediator.getMaxBatchesPerSecond()), null);
+        }
+        if (mediator.getBurstSize() != null) {
+            element.addAttribute(BatchIteratorConstants.ATT_BURST_SIZE, mediator.getBurstSize().toString(), null);
+        }
+        if (mediator.isPipelined()) {
+            element.addAttribute(BatchIteratorConstants.ATT_PIPELINED, "true", null);
+        }
+        if (mediator.isFailFast()) {
+            element.addAttribute(BatchIteratorConstants.ATT_FAIL_FAST, "true", null);
+        }
+        if (mediator.getMaxWaitMillis() != null) {
+            element.addAttribute(BatchIteratorConstants.ATT_MAX_WAIT_MILLIS, mediator.getMaxWaitMillis().toString(),
+                    null);
+        }
+        if (mediator.isOrdered()) {
+            element.addAttribute(BatchIteratorConstants.ATT_ORDERED, "true", null);
+            serializeReleaseSequence(element, mediator);
+        }
+        if (mediator.getPoisonSequenceRef() != null || mediator.getPoisonSequence() != null) {
+            serializePoisonSequence(element, mediator);
+        }
+        if (mediator.getCheckpointStore() != null) {
+            serializeCheckpoint(element, mediator);
+        }
+        if (mediator.getCloneProperties() != null) {
+            serializeCloneProperties(element, mediator.getCloneProperties());
+        }
+        if (mediator.getProjection() != null) {
+            serializeProjection(element, mediator.getProjection());
+        }
+        if (mediator.getAdaptiveBatchSize() != null) {
+            serializeAdaptiveBatchSize(element, mediator.getAdaptiveBatchSize());
+        }
+        if (mediator.getExecutorConfig() != null) {
+            serializeExecutorConfig(element, mediator.getExecutorConfig());
+        }
         return element;
     }
 
+    /**
+     * Helper method to serialize the release sequence of ordered mode as the
+     * first child of given mediator element.
+     * 
+     * @param element
+     *            Mediator element
+     * @param mediator
+     *            Batch iterator mediator
+     */
+    private void serializeReleaseSequence(OMElement element, BatchIteratorMediator mediator) {
+        OMElement releaseElement = fac.createOMElement(BatchIteratorConstants.RELEASE_TAG_NAME, synNS);
+        if (mediator.getReleaseSequenceRef() != null) {
+            releaseElement.addAttribute(BatchIteratorConstants.ATT_SEQUENCE, mediator.getReleaseSequenceRef(),
+                    nullNS);
+        } else if (mediator.getReleaseSequence() != null) {
+            serializeChildren(releaseElement, mediator.getReleaseSequence().getList());
+        }
+        insertFirst(element, releaseElement);
+    }
+
+    /**
+     * Helper method to serialize the poison sequence receiving the failing
+     * elements of bisected batches as the first child of given mediator
+     * element.
+     * 
+     * @param element
+     *            Mediator element
+     * @param mediator
+     *            Batch iterator mediator
+     */
+    private void serializePoisonSequence(OMElement element, BatchIteratorMediator mediator) {
+        OMElement poisonElement = fac.createOMElement(BatchIteratorConstants.POISON_TAG_NAME, synNS);
+        if (mediator.getPoisonSequenceRef() != null) {
+            poisonElement.addAttribute(BatchIteratorConstants.ATT_SEQUENCE, mediator.getPoisonSequenceRef(), nullNS);
+        } else {
+            serializeChildren(poisonElement, mediator.getPoisonSequence().getList());
+        }
+        insertFirst(element, poisonElement);
+    }
+
+    /**
+     * Helper method to serialize the checkpoint configuration as the first
+     * child of given mediator element.
+     * 
+     * @param element
+     *            Mediator element
+     * @param mediator
+     *            Batch iterator mediator
+     */
+    private void serializeCheckpoint(OMElement element, BatchIteratorMediator mediator) {
+        OMElement checkpointElement = fac.createOMElement(BatchIteratorConstants.CHECKPOINT_TAG_NAME, synNS);
+        checkpointElement.addAttribute(BatchIteratorConstants.ATT_DIRECTORY,
+                mediator.getCheckpointStore().getDirectory().getPath(), nullNS);
+        if (mediator.getCheckpointKey() != null) {
+            SynapseXPathSerializer.serializeXPath(mediator.getCheckpointKey(), checkpointElement,
+                    BatchIteratorConstants.ATT_KEY);
+        }
+        insertFirst(element, checkpointElement);
+    }
+
+    /**
+     * Helper method to serialize the filter of copied properties as the first
+     * child of given mediator element.
+     * 
+     * @param element
+     *            Mediator element
+     * @param filter
+     *            Property filter
+     */
+    private void serializeCloneProperties(OMElement element, PropertyFilter filter) {
+        OMElement clonePropertiesElement = fac.createOMElement(BatchIteratorConstants.CLONE_PROPERTIES_TAG_NAME,
+                synNS);
+        if (filter.getInclude() != null) {
+            clonePropertiesElement.addAttribute(BatchIteratorConstants.ATT_INCLUDE, filter.getInclude(), nullNS);
+        }
+        if (filter.getExclude() != null) {
+            clonePropertiesElement.addAttribute(BatchIteratorConstants.ATT_EXCLUDE, filter.getExclude(), nullNS);
+        }
+        insertFirst(element, clonePropertiesElement);
+    }
+
+    /**
+     * Helper method to serialize element projection as the first child of
+     * given mediator element.
+     * 
+     * @param element
+     *            Mediator element
+     * @param projection
+     *            Element projection
+     */
+    private void serializeProjection(OMElement element, ElementProjection projection) {
+        OMElement projectionElement = fac.createOMElement(BatchIteratorConstants.PROJECTION_TAG_NAME, synNS);
+        if (projection.getKeep() != null) {
+            projectionElement.addAttribute(BatchIteratorConstants.ATT_KEEP, projection.getKeep(), nullNS);
+        }
+        if (projection.getDrop() != null) {
+            projectionElement.addAttribute(BatchIteratorConstants.ATT_DROP, projection.getDrop(), nullNS);
+        }
+        insertFirst(element, projectionElement);
+    }
+
+    /**
+     * Helper method to serialize adaptive batch size configuration as the
+     * first child of given mediator element.
+     * 
+     * @param element
+     *            Mediator element
+     * @param controller
+     *            Adaptive batch size controller
+     */
+    private void serializeAdaptiveBatchSize(OMElement element, AdaptiveBatchSizeController controller) {
+        OMElement adaptiveElement = fac.createOMElement(BatchIteratorConstants.ADAPTIVE_TAG_NAME, synNS);
+        adaptiveElement.addAttribute(BatchIteratorConstants.ATT_MIN_BATCH_SIZE,
+                String.valueOf(controller.getMinBatchSize()), nullNS);
+        adaptiveElement.addAttribute(BatchIteratorConstants.ATT_MAX_BATCH_SIZE,
+                String.valueOf(controller.getMaxBatchSize()), nullNS);
+        adaptiveElement.addAttribute(BatchIteratorConstants.ATT_TARGET_LATENCY,
+                String.valueOf(controller.getTargetLatency()), nullNS);
+        if (controller.getIncrement() != 1) {
+            adaptiveElement.addAttribute(BatchIteratorConstants.ATT_INCREMENT,
+                    String.valueOf(controller.getIncrement()), nullNS);
+        }
+        insertFirst(element, adaptiveElement);
+    }
+
+    /**
+     * Helper method to serialize dedicated executor configuration as the
+     * first child of given mediator element.
+     * 
+     * @param element
+     *            Mediator element
+     * @param config
+     *            Executor configuration
+     */
+    private void serializeExecutorConfig(OMElement element, BatchExecutorConfig config) {
+        OMElement executorElement = fac.createOMElement(BatchIteratorConstants.EXECUTOR_TAG_NAME, synNS);
+        executorElement.addAttribute(BatchIteratorConstants.ATT_NAME, config.getName(), nullNS);
+        executorElement.addAttribute(BatchIteratorConstants.ATT_POOL_SIZE, String.valueOf(config.getPoolSize()),
+                nullNS);
+        if (config.getQueueLength() != Integer.MAX_VALUE) {
+            executorElement.addAttribute(BatchIteratorConstants.ATT_QUEUE_LENGTH,
+                    String.valueOf(config.getQueueLength()), nullNS);
+        }
+        executorElement.addAttribute(BatchIteratorConstants.ATT_REJECTION_POLICY,
+                config.getRejectionPolicy().getValue(), nullNS);
+        if (config.isVirtualThreads()) {
+            executorElement.addAttribute(BatchIteratorConstants.ATT_VIRTUAL_THREADS, "true", nullNS);
+        }
+        insertFirst(element, executorElement);
+    }
+
+    /**
+     * Helper method to insert configuration element before the targets.
+     * 
+     * @param element
+     *            Mediator element
+     * @param child
+     *            Configuration element
+     */
+    private void insertFirst(OMElement element, OMElement child) {
+        OMNode firstChild = element.getFirstOMChild();
+        if (firstChild != null) {
+            firstChild.insertSiblingBefore(child);
+        } else {
+            element.addChild(child);
+        }
+    }
 }
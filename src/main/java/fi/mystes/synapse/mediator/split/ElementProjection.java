@@ -0,0 +1,168 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.split;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.axiom.om.OMElement;
+
+/**
+ * Removes the parts of a split element the target does not need, before the
+ * element is batched. Parts are given as comma separated paths relative to
+ * the split element, where a path is a / separated list of local element
+ * names and * matches any name, e.g. "id,customer/name".
+ *
+ * With a keep list, only the child elements on a kept path stay, each kept
+ * element with its whole subtree; text and attributes of the elements above
+ * them stay too. Elements on a drop path are then removed with their subtree.
+ */
+public class ElementProjection {
+
+    private final String keep;
+
+    private final String drop;
+
+    private final String[][] keepPaths;
+
+    private final String[][] dropPaths;
+
+    /**
+     * @param keep
+     *            Comma separated paths of the elements to keep or null to
+     *            keep all elements not dropped
+     * @param drop
+     *            Comma separated paths of the elements to remove or null
+     */
+    public ElementProjection(String keep, String drop) {
+        this.keep = keep;
+        this.drop = drop;
+        this.keepPaths = keep != null ? parsePaths(keep) : null;
+        this.dropPaths = drop != null ? parsePaths(drop) : new String[0][];
+    }
+
+    /**
+     * Removes the elements not selected by this projection from given split
+     * element.
+     * 
+     * @param element
+     *            Split element to project
+     * @return Number of elements removed, not counting their descendants
+     */
+    public int apply(OMElement element) {
+        int removed = 0;
+        if (keepPaths != null) {
+            removed += keep(element, 0, keepPaths);
+        }
+        if (dropPaths.length > 0) {
+            removed += drop(element, 0, dropPaths);
+        }
+        return removed;
+    }
+
+    /**
+     * @return Comma separated paths of the elements to keep or null
+     */
+    public String getKeep() {
+        return keep;
+    }
+
+    /**
+     * @return Comma separated paths of the elements to remove or null
+     */
+    public String getDrop() {
+        return drop;
+    }
+
+    private int keep(OMElement parent, int depth, String[][] paths) {
+        int removed = 0;
+        for (OMElement child : childElements(parent)) {
+            String[][] matching = matching(paths, depth, child.getLocalName());
+            if (matching.length == 0) {
+                child.detach();
+                removed++;
+            } else if (!endsAt(matching, depth)) {
+                removed += keep(child, depth + 1, matching);
+            }
+        }
+        return removed;
+    }
+
+    private int drop(OMElement parent, int depth, String[][] paths) {
+        int removed = 0;
+        for (OMElement child : childElements(parent)) {
+            String[][] matching = matching(paths, depth, child.getLocalName());
+            if (endsAt(matching, depth)) {
+                child.detach();
+                removed++;
+            } else if (matching.length > 0) {
+                removed += drop(child, depth + 1, matching);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Paths whose step at given depth matches given name.
+     */
+    private static String[][] matching(String[][] paths, int depth, String name) {
+        List<String[]> result = new ArrayList<String[]>();
+        for (String[] path : paths) {
+            if (path.length > depth && (path[depth].equals("*") || path[depth].equals(name))) {
+                result.add(path);
+            }
+        }
+        return result.toArray(new String[result.size()][]);
+    }
+
+    /**
+     * Tells whether any of given paths ends at given depth.
+     */
+    private static boolean endsAt(String[][] paths, int depth) {
+        for (String[] path : paths) {
+            if (path.length == depth + 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<OMElement> childElements(OMElement parent) {
+        // children are collected first, as they are detached while iterating
+        List<OMElement> children = new ArrayList<OMElement>();
+        for (Iterator<?> itr = parent.getChildElements(); itr.hasNext();) {
+            children.add((OMElement) itr.next());
+        }
+        return children;
+    }
+
+    private static String[][] parsePaths(String paths) {
+        List<String[]> parsed = new ArrayList<String[]>();
+        for (String path : paths.split(",")) {
+            List<String> steps = new ArrayList<String>();
+            for (String step : path.split("/")) {
+                if (step.trim().length() > 0) {
+                    steps.add(step.trim());
+                }
+            }
+            if (!steps.isEmpty()) {
+                parsed.add(steps.toArray(new String[steps.size()]));
+            }
+        }
+        return parsed.toArray(new String[parsed.size()][]);
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.split;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.namespace.QName;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.synapse.util.xpath.SynapseXPath;
+
+/**
+ * Absolute location path consisting only of child (/) and descendant (//)
+ * steps with element names, e.g. //iterate or //s11:Body/orders/order.
+ *
+ * Such paths can be matched against a stack of element names without Jaxen,
+ * which makes it possible to match elements while pull-parsing the payload or
+ * to select them from an Axiom tree with a plain traversal.
+ */
+public class SimplePath {
+
+    private static final Pattern STEP = Pattern
+            .compile("(//?)(?:([A-Za-z_][\\w.\\-]*):)?([A-Za-z_][\\w.\\-]*)");
+
+    private final Step[] steps;
+
+    private final boolean childStepsOnly;
+
+    private SimplePath(Step[] steps) {
+        this.steps = steps;
+        boolean childOnly = true;
+        for (Step step : steps) {
+            childOnly &= !step.descendant;
+        }
+        this.childStepsOnly = childOnly;
+    }
+
+    /**
+     * Compiles given XPath expression into simple path.
+     *
+     * @param expression
+     *            XPath expression to compile
+     * @return Compiled path or null if expression is not a simple path
+     */
+    public static SimplePath compile(SynapseXPath expression) {
+        if (expression == null) {
+            return null;
+        }
+        return compile(expression.toString().trim(), expression.getNamespaces());
+    }
+
+    /**
+     * Compiles given path string into simple path.
+     *
+     * @param path
+     *            Path string to compile
+     * @param namespaces
+     *            Prefix to namespace URI mappings used by the path
+     * @return Compiled path or null if path is not a simple path
+     */
+    public static SimplePath compile(String path, Map<?, ?> namespaces) {
+        Matcher matcher = STEP.matcher(path);
+        List<Step> steps = new ArrayList<Step>();
+        int position = 0;
+        while (position < path.length()) {
+            if (!matcher.find(position) || matcher.start() != position) {
+                return null;
+            }
+            String prefix = matcher.group(2);
+            String namespaceUri = "";
+            if (prefix != null) {
+                Object uri = namespaces != null ? namespaces.get(prefix) : null;
+                if (uri == null) {
+                    return null;
+                }
+                namespaceUri = uri.toString();
+            }
+            steps.add(new Step(matcher.group(1).length() == 2, new QName(namespaceUri, matcher.group(3))));
+            position = matcher.end();
+        }
+        return steps.isEmpty() ? null : new SimplePath(steps.toArray(new Step[steps.size()]));
+    }
+
+    /**
+     * Checks whether element identified by given ancestor-or-self names
+     * (starting from the document element) is selected by this path.
+     *
+     * @param elementPath
+     *            Names of the element and its ancestors, document element
+     *            first
+     * @return true if element is selected by this path
+     */
+    public boolean matches(List<QName> elementPath) {
+        return matches(0, 0, elementPath);
+    }
+
+    /**
+     * Selects the elements matching this path from the document of given
+     * element in document order, like Jaxen would. Elements nested inside a
+     * matching element are selected too.
+     * 
+     * @param documentElement
+     *            Document element, e.g. SOAP envelope
+     * @return Matching elements
+     */
+    public List<OMElement> select(OMElement documentElement) {
+        List<OMElement> result = new ArrayList<OMElement>();
+        collect(documentElement, new ArrayList<QName>(), result);
+        return result;
+    }
+
+    private void collect(OMElement element, List<QName> elementPath, List<OMElement> result) {
+        elementPath.add(element.getQName());
+        if (matches(elementPath)) {
+            result.add(element);
+        }
+        if (mayMatchBelow(elementPath)) {
+            for (Iterator<?> itr = element.getChildElements(); itr.hasNext();) {
+                collect((OMElement) itr.next(), elementPath, result);
+            }
+        }
+        elementPath.remove(elementPath.size() - 1);
+    }
+
+    /**
+     * With child steps only, the subtree of an element can contain matches
+     * only if the element is above the last step and matches the steps so
+     * far.
+     */
+    private boolean mayMatchBelow(List<QName> elementPath) {
+        if (!childStepsOnly) {
+            return true;
+        }
+        int depth = elementPath.size();
+        return depth < steps.length && steps[depth - 1].name.equals(elementPath.get(depth - 1));
+    }
+
+    private boolean matches(int stepIndex, int depth, List<QName> elementPath) {
+        if (stepIndex == steps.length) {
+            return depth == elementPath.size();
+        }
+        Step step = steps[stepIndex];
+        if (!step.descendant) {
+            return depth < elementPath.size() && step.name.equals(elementPath.get(depth))
+                    && matches(stepIndex + 1, depth + 1, elementPath);
+        }
+        for (int i = depth; i < elementPath.size(); i++) {
+            if (step.name.equals(elementPath.get(i)) && matches(stepIndex + 1, i + 1, elementPath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Step {
+        final boolean descendant;
+        final QName name;
+
+        Step(boolean descendant, QName name) {
+            this.descendant = descendant;
+            this.name = name;
+        }
+    }
+}
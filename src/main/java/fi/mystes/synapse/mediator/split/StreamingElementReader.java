@@ -0,0 +1,179 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.split;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMContainer;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNamespace;
+
+/**
+ * Pull-parses XML stream and returns elements selected by a {@link SimplePath}
+ * one at a time. Only the selected elements are built into Axiom trees, the
+ * rest of the document is skipped event by event.
+ *
+ * Elements nested inside an already selected element are returned as part of
+ * it, not as separate matches.
+ */
+public class StreamingElementReader {
+
+    private final XMLStreamReader reader;
+
+    private final SimplePath path;
+
+    private final List<QName> elementPath;
+
+    private final int rootDepth;
+
+    private final OMFactory factory = OMAbstractFactory.getOMFactory();
+
+    private boolean currentEventConsumed;
+
+    /**
+     * @param reader
+     *            Stream to read elements from
+     * @param path
+     *            Path selecting the returned elements
+     * @param ancestors
+     *            Names of the elements enclosing the stream, document element
+     *            first
+     */
+    public StreamingElementReader(XMLStreamReader reader, SimplePath path, List<QName> ancestors) {
+        this.reader = reader;
+        this.path = path;
+        this.elementPath = new ArrayList<QName>(ancestors);
+        this.rootDepth = ancestors.size();
+    }
+
+    /**
+     * Reads next selected element from the stream.
+     *
+     * @return Detached element or null if the stream has no more matches
+     * @throws XMLStreamException
+     *             If reading the stream fails
+     */
+    public OMElement next() throws XMLStreamException {
+        while (advance()) {
+            int event = reader.getEventType();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                elementPath.add(reader.getName());
+                if (path.matches(elementPath)) {
+                    elementPath.remove(elementPath.size() - 1);
+                    return buildElement(null);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                elementPath.remove(elementPath.size() - 1);
+                if (elementPath.size() == rootDepth) {
+                    return null;
+                }
+            } else if (event == XMLStreamConstants.END_DOCUMENT) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves to the next unprocessed event. The event the reader is positioned
+     * at when this instance is created is processed first.
+     */
+    private boolean advance() throws XMLStreamException {
+        if (!currentEventConsumed) {
+            currentEventConsumed = true;
+            return true;
+        }
+        if (!reader.hasNext()) {
+            return false;
+        }
+        reader.next();
+        return true;
+    }
+
+    /**
+     * Builds element the reader is currently positioned at. Returns when the
+     * matching end element has been consumed.
+     */
+    private OMElement buildElement(OMContainer parent) throws XMLStreamException {
+        OMElement element = createElement(parent);
+        int depth = 1;
+        OMContainer current = element;
+        while (depth > 0 && reader.hasNext()) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                current = createElement(current);
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                current = ((OMElement) current).getParent();
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                factory.createOMText(current, reader.getText());
+                break;
+            case XMLStreamConstants.COMMENT:
+                factory.createOMComment(current, reader.getText());
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                factory.createOMProcessingInstruction(current, reader.getPITarget(), reader.getPIData());
+                break;
+            default:
+                break;
+            }
+        }
+        return element;
+    }
+
+    private OMElement createElement(OMContainer parent) {
+        String namespaceUri = reader.getNamespaceURI();
+        OMNamespace namespace = null;
+        if (namespaceUri != null && namespaceUri.length() > 0) {
+            String prefix = reader.getPrefix();
+            namespace = factory.createOMNamespace(namespaceUri, prefix != null ? prefix : "");
+        }
+        OMElement element = factory.createOMElement(reader.getLocalName(), namespace, parent);
+
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            String uri = reader.getNamespaceURI(i);
+            if (prefix == null || prefix.length() == 0) {
+                element.declareDefaultNamespace(uri != null ? uri : "");
+            } else {
+                element.declareNamespace(uri, prefix);
+            }
+        }
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String attributeUri = reader.getAttributeNamespace(i);
+            OMNamespace attributeNamespace = null;
+            if (attributeUri != null && attributeUri.length() > 0) {
+                attributeNamespace = factory.createOMNamespace(attributeUri, reader.getAttributePrefix(i));
+            }
+            element.addAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i), attributeNamespace);
+        }
+        return element;
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.text;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads lines from a text stream one at a time. Lines are returned as the
+ * bytes they were written with, without the line terminator (LF or CR LF), so
+ * nothing is decoded per line. Empty lines are skipped.
+ *
+ * Scanning bytes is safe for UTF-8 and single-byte encodings, where the bytes
+ * of other characters never match the line feed.
+ */
+public class LineReader {
+
+    private final InputStream in;
+
+    private final byte[] buffer = new byte[8192];
+
+    private int position;
+
+    private int limit;
+
+    /**
+     * @param in
+     *            Text stream
+     */
+    public LineReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Tells whether lines of text in given encoding can be read, i.e. whether
+     * the encoding writes line feed and carriage return as single ASCII bytes
+     * like UTF-8 and ISO-8859 encodings do. UTF-16, for instance, does not.
+     * 
+     * @param charset
+     *            Encoding of the text
+     * @return True if the lines can be split by line feed byte
+     */
+    public static boolean isSupported(Charset charset) {
+        return Arrays.equals("a\r\n".getBytes(charset), new byte[] { 'a', '\r', '\n' });
+    }
+
+    /**
+     * Reads next non-empty line.
+     * 
+     * @return Bytes of the line or null if the stream has no more lines
+     * @throws IOException
+     *             If reading the stream fails
+     */
+    public byte[] next() throws IOException {
+        byte[] line;
+        do {
+            line = readLine();
+        } while (line != null && line.length == 0);
+        return line;
+    }
+
+    private byte[] readLine() throws IOException {
+        ByteArrayOutputStream out = null;
+        while (true) {
+            if (position == limit && !fill()) {
+                return out != null ? trim(out.toByteArray()) : null;
+            }
+            int start = position;
+            while (position < limit && buffer[position] != '\n') {
+                position++;
+            }
+            if (position < limit) {
+                // line feed found, the line ends in this buffer
+                int end = position++;
+                if (out == null) {
+                    return trim(copy(start, end));
+                }
+                out.write(buffer, start, end - start);
+                return trim(out.toByteArray());
+            }
+            if (out == null) {
+                out = new ByteArrayOutputStream();
+            }
+            out.write(buffer, start, limit - start);
+        }
+    }
+
+    private byte[] copy(int start, int end) {
+        byte[] line = new byte[end - start];
+        System.arraycopy(buffer, start, line, 0, line.length);
+        return line;
+    }
+
+    /**
+     * Removes carriage return of a CR LF terminator.
+     */
+    private static byte[] trim(byte[] line) {
+        if (line.length > 0 && line[line.length - 1] == '\r') {
+            byte[] trimmed = new byte[line.length - 1];
+            System.arraycopy(line, 0, trimmed, 0, trimmed.length);
+            return trimmed;
+        }
+        return line;
+    }
+
+    private boolean fill() throws IOException {
+        position = 0;
+        limit = 0;
+        int count = in.read(buffer);
+        if (count <= 0) {
+            return false;
+        }
+        limit = count;
+        return true;
+    }
+}
@@ -15,13 +15,23 @@
  */
 package fi.mystes.synapse.mediator;
 
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.notNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.Stack;
+import java.util.concurrent.ExecutorService;
 
 import javax.xml.namespace.QName;
 
@@ -37,24 +47,34 @@ import org.apache.axiom.soap.impl.llom.soap11.SOAP11BodyImpl;
 import org.apache.axiom.soap.impl.llom.soap11.SOAP11Factory;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.context.OperationContext;
+import org.apache.synapse.FaultHandler;
 import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseException;
+import org.apache.synapse.core.SynapseEnvironment;
 import org.apache.synapse.core.axis2.Axis2MessageContext;
 import org.apache.synapse.mediators.eip.EIPUtils;
 import org.apache.synapse.mediators.eip.Target;
+import org.apache.synapse.transport.passthru.util.RelayUtils;
 import org.apache.synapse.util.MessageHelper;
 import org.apache.synapse.util.xpath.SynapseXPath;
 import org.jaxen.JaxenException;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import fi.mystes.synapse.mediator.checkpoint.CheckpointStore;
+import fi.mystes.synapse.mediator.context.PropertyFilter;
+
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({ EIPUtils.class, MessageHelper.class })
+@PrepareForTest({ EIPUtils.class, MessageHelper.class, RelayUtils.class })
 public class BatchIteratorMediatorTest {
 
     @Mock
@@ -69,12 +89,21 @@ public class BatchIteratorMediatorTest {
     @Mock
     private MessageContext cloneContext;
 
+    @Mock
+    private MessageContext batchContext;
+
     @Mock
     private SynapseXPath synapseXPathMock;
 
     @Mock
     private Target target;
 
+    @Mock
+    private SynapseEnvironment environment;
+
+    @Mock
+    private ExecutorService executorService;
+
     private BatchIteratorMediator batchMediator;
 
     private OMFactory omFactory = OMAbstractFactory.getOMFactory();
@@ -85,6 +114,8 @@ public class BatchIteratorMediatorTest {
 
     private SOAPEnvelope envelope, cloneEnvelope;
 
+    private List<File> checkpointDirectories = new LinkedList<File>();
+
     @Before
     public void setUp() throws JaxenException, AxisFault {
         MockitoAnnotations.initMocks(this);
@@ -132,7 +163,30 @@ public class BatchIteratorMediatorTest {
         when(context.getAxis2MessageContext()).thenReturn(axis2MessageContext);
         when(axis2MessageContext.getOperationContext()).thenReturn(operationContext);
         when(MessageHelper.cloneMessageContext(context)).thenReturn(cloneContext);
-        when(MessageHelper.cloneSOAPEnvelope(notNull(SOAPEnvelopeImpl.class))).thenReturn(cloneEnvelope);
+        when(cloneContext.getEnvelope()).thenReturn(cloneEnvelope);
+        when(MessageHelper.cloneMessageContext(cloneContext)).thenReturn(batchContext);
+        when(batchContext.getEnvelope()).thenAnswer(new Answer<SOAPEnvelope>() {
+            @Override
+            public SOAPEnvelope answer(InvocationOnMock invocation) throws Throwable {
+                SOAPEnvelope batchEnvelope = new SOAPEnvelopeImpl(
+                        new OMNamespaceImpl("http://schemas.xmlsoap.org/soap/envelope/", "env"), soapFactory);
+                new SOAP11BodyImpl(batchEnvelope, soapFactory);
+                return batchEnvelope;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        for (File directory : checkpointDirectories) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
     }
 
     @Test
@@ -156,4 +210,200 @@ public class BatchIteratorMediatorTest {
         verify(target, times(7)).mediate(notNull(MessageContext.class));
     }
 
+    @Test
+    public void shouldCloneOriginalMessageOnlyOnce() throws AxisFault {
+        batchMediator.setContinueParent(true);
+        batchMediator.setBatchSize(3);
+        batchMediator.mediate(context);
+
+        PowerMockito.verifyStatic(times(1));
+        MessageHelper.cloneMessageContext(context);
+        PowerMockito.verifyStatic(times(3));
+        MessageHelper.cloneMessageContext(cloneContext);
+    }
+
+    @Test
+    public void shouldIterateSequentiallyInPipelinedMode() throws AxisFault {
+        // executor mock never runs the preparation, so the mediating thread
+        // prepares each batch itself when it is needed
+        when(context.getEnvironment()).thenReturn(environment);
+        when(environment.getExecutorService()).thenReturn(executorService);
+        batchMediator.setBatchSize(3);
+        batchMediator.setPipelined(true);
+        batchMediator.mediate(context);
+
+        verify(target, times(3)).mediate(notNull(MessageContext.class));
+        verify(executorService, times(2)).execute(notNull(Runnable.class));
+        PowerMockito.verifyStatic(times(3));
+        MessageHelper.cloneMessageContext(cloneContext);
+    }
+
+    @Test
+    public void shouldFilterPropertiesOfTemplateOnce() {
+        Set<String> keys = new HashSet<String>();
+        keys.add("orderId");
+        keys.add("originalPayload");
+        when(cloneContext.getPropertyKeySet()).thenReturn(keys);
+        batchMediator.setContinueParent(true);
+        batchMediator.setBatchSize(3);
+        batchMediator.setCloneProperties(new PropertyFilter(null, "originalPayload"));
+        batchMediator.mediate(context);
+
+        assertTrue("Expected originalPayload to be removed from template", !keys.contains("originalPayload"));
+        assertTrue("Expected orderId to remain in template", keys.contains("orderId"));
+        verify(target, times(3)).mediate(notNull(MessageContext.class));
+    }
+
+    @Test
+    public void shouldKeepPropertiesOfOriginalMessageSplitInPlace() {
+        Set<String> originalKeys = new HashSet<String>();
+        originalKeys.add("orderId");
+        originalKeys.add("originalPayload");
+        Set<String> batchKeys = new HashSet<String>(originalKeys);
+        when(context.getPropertyKeySet()).thenReturn(originalKeys);
+        when(cloneContext.getPropertyKeySet()).thenReturn(batchKeys);
+        when(context.getFaultStack()).thenReturn(new Stack<FaultHandler>());
+        when(target.isAsynchronous()).thenReturn(true);
+        batchMediator.setContinueParent(false);
+        batchMediator.setBatchSize(3);
+        batchMediator.setCloneProperties(new PropertyFilter(null, "originalPayload"));
+        batchMediator.mediate(context);
+
+        assertTrue("Expected original message to keep originalPayload", originalKeys.contains("originalPayload"));
+        assertTrue("Expected originalPayload to be removed from batches", !batchKeys.contains("originalPayload"));
+        assertTrue("Expected orderId to remain in batches", batchKeys.contains("orderId"));
+    }
+
+    @Test
+    public void shouldSkipCompletedBatchesAndClearCheckpoint() throws IOException {
+        CheckpointStore store = new CheckpointStore(createCheckpointDirectory());
+        store.batchCompleted("message-1", 2);
+        when(context.getMessageID()).thenReturn("message-1");
+        batchMediator.setBatchSize(3);
+        batchMediator.setCheckpointStore(store);
+        batchMediator.mediate(context);
+
+        verify(target, times(1)).mediate(notNull(MessageContext.class));
+        assertTrue("Expected checkpoint to be cleared", store.getCompletedBatches("message-1") == 0);
+    }
+
+    @Test
+    public void shouldEvaluatePayloadCheckpointKeyBeforeStreaming() throws Exception {
+        PowerMockito.mockStatic(RelayUtils.class);
+        final SOAPEnvelope[] current = { envelope };
+        when(context.getEnvelope()).thenAnswer(new Answer<SOAPEnvelope>() {
+            @Override
+            public SOAPEnvelope answer(InvocationOnMock invocation) throws Throwable {
+                return current[0];
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                current[0] = (SOAPEnvelope) invocation.getArguments()[0];
+                return null;
+            }
+        }).when(context).setEnvelope(notNull(SOAPEnvelope.class));
+        CheckpointStore store = new CheckpointStore(createCheckpointDirectory());
+        // the key counts the elements of the payload
+        store.batchCompleted("7", 2);
+        batchMediator.setExpression(new SynapseXPath("//iterable"));
+        batchMediator.setStreaming(true);
+        batchMediator.setBatchSize(3);
+        batchMediator.setCheckpointStore(store);
+        batchMediator.setCheckpointKey(new SynapseXPath("count(//iterable)"));
+        batchMediator.mediate(context);
+
+        verify(target, times(1)).mediate(notNull(MessageContext.class));
+        assertTrue("Expected checkpoint to be cleared", store.getCompletedBatches("7") == 0);
+    }
+
+    @Test
+    public void shouldStreamMatchesUnderEveryBodyChild() throws Exception {
+        PowerMockito.mockStatic(RelayUtils.class);
+        final SOAPEnvelope[] current = { envelope };
+        when(context.getEnvelope()).thenAnswer(new Answer<SOAPEnvelope>() {
+            @Override
+            public SOAPEnvelope answer(InvocationOnMock invocation) throws Throwable {
+                return current[0];
+            }
+        });
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                current[0] = (SOAPEnvelope) invocation.getArguments()[0];
+                return null;
+            }
+        }).when(context).setEnvelope(notNull(SOAPEnvelope.class));
+        OMElement secondPayload = omFactory.createOMElement(new QName("root"));
+        secondPayload.addChild(omFactory.createOMElement(new QName("iterable")));
+        secondPayload.addChild(omFactory.createOMElement(new QName("iterable")));
+        envelope.getBody().addChild(secondPayload);
+        batchMediator.setExpression(new SynapseXPath("//iterable"));
+        batchMediator.setStreaming(true);
+        batchMediator.setBatchSize(3);
+        batchMediator.mediate(context);
+
+        verify(target, times(3)).mediate(notNull(MessageContext.class));
+    }
+
+    @Test
+    public void shouldRecordCompletedBatchesUntilFailure() throws IOException {
+        CheckpointStore store = new CheckpointStore(createCheckpointDirectory());
+        when(context.getMessageID()).thenReturn("message-1");
+        when(context.getFaultStack()).thenReturn(new Stack<FaultHandler>());
+        when(batchContext.getFaultStack()).thenReturn(new Stack<FaultHandler>());
+        when(target.mediate(batchContext)).thenReturn(true).thenThrow(new SynapseException("failure"));
+        batchMediator.setBatchSize(3);
+        batchMediator.setCheckpointStore(store);
+        try {
+            batchMediator.mediate(context);
+            assertTrue("Expected mediation to fail", false);
+        } catch (SynapseException e) {
+            assertTrue("Expected first batch to be recorded", store.getCompletedBatches("message-1") == 1);
+            store.clear("message-1");
+        }
+    }
+
+    @Test
+    public void shouldSplitOriginalMessageInPlaceWithoutContinueParent() throws AxisFault {
+        when(context.getFaultStack()).thenReturn(new Stack<FaultHandler>());
+        when(target.isAsynchronous()).thenReturn(true);
+        batchMediator.setContinueParent(false);
+        batchMediator.setBatchSize(3);
+        batchMediator.mediate(context);
+
+        // each batch is copied from the original message, which is not
+        // copied as a whole
+        PowerMockito.verifyStatic(times(3));
+        MessageHelper.cloneMessageContext(context);
+        PowerMockito.verifyStatic(times(0));
+        MessageHelper.cloneMessageContext(cloneContext);
+        verify(target, times(3)).mediate(notNull(MessageContext.class));
+    }
+
+    @Test
+    public void shouldKeepOriginalPayloadForFaultHandlersOfSequentialTarget() throws AxisFault {
+        when(context.getFaultStack()).thenReturn(new Stack<FaultHandler>());
+        when(batchContext.getFaultStack()).thenReturn(new Stack<FaultHandler>());
+        doThrow(new SynapseException("failure")).when(target).mediate(batchContext);
+        batchMediator.setContinueParent(false);
+        batchMediator.setBatchSize(3);
+        try {
+            batchMediator.mediate(context);
+            assertTrue("Expected mediation to fail", false);
+        } catch (SynapseException e) {
+            // the elements are detached from a copy of the original message
+            PowerMockito.verifyStatic(times(1));
+            MessageHelper.cloneMessageContext(context);
+            verify(context, never()).setEnvelope(notNull(SOAPEnvelope.class));
+        }
+    }
+
+    private File createCheckpointDirectory() throws IOException {
+        File directory = File.createTempFile("checkpoints", "");
+        directory.delete();
+        checkpointDirectories.add(directory);
+        return directory;
+    }
 }
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.accumulate;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNode;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class ElementAccumulatorTest {
+
+    @Mock
+    private ScheduledExecutorService timer;
+
+    private OMFactory omFactory = OMAbstractFactory.getOMFactory();
+
+    private List<AccumulatedBatch> batches = new ArrayList<AccumulatedBatch>();
+
+    private ElementAccumulator.BatchHandler handler = new ElementAccumulator.BatchHandler() {
+        @Override
+        public void handle(AccumulatedBatch batch) {
+            batches.add(batch);
+        }
+    };
+
+    private ElementAccumulator accumulator;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        accumulator = new ElementAccumulator(3, 100, timer);
+    }
+
+    @Test
+    public void shouldCollectElementsOfManyMessagesIntoFullBatch() {
+        accumulator.add(elements(2), "first", null, handler);
+        assertTrue("Expected no batch before batch size is reached", batches.isEmpty());
+        accumulator.add(elements(2), "second", null, handler);
+
+        assertTrue("Expected one full batch", batches.size() == 1 && batches.get(0).size() == 3);
+        List<ElementSource> sources = batches.get(0).getSources();
+        assertTrue("Expected first two elements to come from the first message",
+                sources.get(0).getMessageID().equals("first") && sources.get(0).getIndex() == 0
+                        && sources.get(1).getMessageID().equals("first") && sources.get(1).getIndex() == 1);
+        assertTrue("Expected third element to be the first element of the second message",
+                sources.get(2).getMessageID().equals("second") && sources.get(2).getIndex() == 0);
+        assertTrue("Expected last element to wait for the next batch", accumulator.getPendingCount() == 1);
+    }
+
+    @Test
+    public void shouldHandOverPartialBatchWhenWaitTimeHasPassed() {
+        accumulator.add(elements(1), "first", null, handler);
+        ArgumentCaptor<Runnable> deadline = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer).schedule(deadline.capture(), eq(100L), eq(TimeUnit.MILLISECONDS));
+
+        deadline.getValue().run();
+
+        assertTrue("Expected partial batch to be handed over", batches.size() == 1 && batches.get(0).size() == 1);
+        assertTrue("Expected no pending elements", accumulator.getPendingCount() == 0);
+    }
+
+    @Test
+    public void shouldIgnoreDeadlineOfBatchAlreadyFull() {
+        accumulator.add(elements(3), "first", null, handler);
+        accumulator.add(elements(1), "second", null, handler);
+        ArgumentCaptor<Runnable> deadlines = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer, times(2)).schedule(deadlines.capture(), anyLong(), any(TimeUnit.class));
+
+        deadlines.getAllValues().get(0).run();
+
+        assertTrue("Expected only the full batch to be handed over", batches.size() == 1);
+        assertTrue("Expected element of the second batch to keep waiting", accumulator.getPendingCount() == 1);
+    }
+
+    @Test
+    public void shouldHandOverPendingBatchOnClose() {
+        accumulator.add(elements(2), "first", null, handler);
+        accumulator.close();
+
+        assertTrue("Expected pending elements to be handed over", batches.size() == 1 && batches.get(0).size() == 2);
+        verify(timer).shutdownNow();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectElementsAfterClose() {
+        accumulator.close();
+        accumulator.add(elements(1), "first", null, handler);
+    }
+
+    private List<OMNode> elements(int count) {
+        List<OMNode> elements = new ArrayList<OMNode>();
+        for (int i = 0; i < count; i++) {
+            elements.add(omFactory.createOMElement("item", null));
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.aggregate;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNode;
+import org.apache.synapse.MessageContext;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+
+public class BatchAggregateTest {
+
+    private OMFactory omFactory = OMAbstractFactory.getOMFactory();
+    private BatchAggregate aggregate;
+    private MessageContext first;
+    private MessageContext second;
+
+    @Before
+    public void setUp() {
+        aggregate = new BatchAggregate("correlation", omFactory.createOMElement(new QName("batchResponses")));
+        first = mock(MessageContext.class);
+        second = mock(MessageContext.class);
+    }
+
+    @Test
+    public void shouldCompleteWhenAllBatchesHaveReported() {
+        assertTrue("Expected aggregation not to complete after first batch",
+                !aggregate.batchSucceeded(first, 0, 2, responses("a")));
+        assertTrue("Expected aggregation to complete after second batch",
+                aggregate.batchSucceeded(second, 1, 2, responses("b", "c")));
+        assertTrue("Expected 3 merged elements", countChildren(aggregate.getResult()) == 3);
+        assertTrue("Expected first reported message to carry the result", aggregate.getCarrier() == first);
+        assertTrue("Expected 2 succeeded batches", aggregate.getSucceeded() == 2);
+    }
+
+    @Test
+    public void shouldCountFailedBatchesTowardsCompletion() {
+        aggregate.batchSucceeded(first, 0, 2, responses("a"));
+        assertTrue("Expected aggregation to complete after failed batch", aggregate.batchFailed(second, 1, 2));
+        assertTrue("Expected 1 succeeded batch", aggregate.getSucceeded() == 1);
+        assertTrue("Expected 1 failed batch", aggregate.getFailed() == 1);
+    }
+
+    @Test
+    public void shouldKeepBatchCountOfEndedIterationOverReportedTotal() {
+        aggregate.batchSucceeded(first, 0, 10, responses("a"));
+        assertTrue("Expected aggregation not to complete when iteration ended", !aggregate.iterationEnded(2));
+        assertTrue("Expected aggregation to complete after the last created batch",
+                aggregate.batchSucceeded(second, 1, 10, responses("b")));
+        assertTrue("Expected total to be the number of created batches", aggregate.getTotal() == 2);
+    }
+
+    @Test
+    public void shouldIgnoreDuplicateReports() {
+        aggregate.batchSucceeded(first, 0, 2, responses("a"));
+        assertTrue("Expected duplicate report not to complete aggregation", !aggregate.batchFailed(first, 0, 2));
+        assertTrue("Expected duplicate response not to be merged",
+                !aggregate.batchSucceeded(first, 0, 2, responses("b")));
+        assertTrue("Expected 1 merged element", countChildren(aggregate.getResult()) == 1);
+        assertTrue("Expected no failed batches", aggregate.getFailed() == 0);
+    }
+
+    @Test
+    public void shouldCompleteUnknownTotalWhenIterationEnds() {
+        int unknown = BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT;
+        aggregate.batchSucceeded(first, 0, unknown, responses("a"));
+        aggregate.batchSucceeded(second, 1, unknown, responses("b"));
+        assertTrue("Expected total to be unknown", aggregate.getTotal() == unknown);
+        assertTrue("Expected aggregation to complete when iteration ends", aggregate.iterationEnded(2));
+    }
+
+    @Test
+    public void shouldWaitForMissingBatchesWhenIterationEnds() {
+        aggregate.batchSucceeded(first, 0, BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT, responses("a"));
+        assertTrue("Expected aggregation to wait for second batch", !aggregate.iterationEnded(2));
+        assertTrue("Expected aggregation to complete after second batch",
+                aggregate.batchSucceeded(second, 1, BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT, responses("b")));
+    }
+
+    @Test
+    public void shouldCompleteIterationWithoutBatchesCarriedByIteratedMessage() {
+        assertTrue("Expected aggregation to complete when iteration ends without batches",
+                aggregate.iterationEnded(0, 0, first));
+        assertTrue("Expected iterated message to carry the result", aggregate.getCarrier() == first);
+        assertTrue("Expected no merged elements", countChildren(aggregate.getResult()) == 0);
+        assertTrue("Expected no succeeded batches", aggregate.getSucceeded() == 0);
+    }
+
+    @Test
+    public void shouldKeepReportedMessageAsCarrierWhenIterationEnds() {
+        aggregate.batchSucceeded(first, 0, BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT, responses("a"));
+        aggregate.iterationEnded(1, 0, second);
+        assertTrue("Expected first reported message to carry the result", aggregate.getCarrier() == first);
+    }
+
+    @Test
+    public void shouldCountSkippedBatchesOfResumedIterationTowardsTotal() {
+        aggregate.batchSucceeded(first, 2, 3, responses("c"));
+        assertTrue("Expected aggregation to complete with the batches skipped on resume",
+                aggregate.iterationEnded(3, 2, null));
+        assertTrue("Expected total to include skipped batches", aggregate.getTotal() == 3);
+        assertTrue("Expected 2 skipped batches", aggregate.getSkipped() == 2);
+    }
+
+    @Test
+    public void shouldIgnoreReportsAfterExpiry() {
+        aggregate.batchSucceeded(first, 0, 2, responses("a"));
+        assertTrue("Expected first expiry to complete aggregation", aggregate.expire());
+        assertTrue("Expected second expiry to be ignored", !aggregate.expire());
+        assertTrue("Expected late batch to be ignored", !aggregate.batchSucceeded(second, 1, 2, responses("b")));
+        assertTrue("Expected 1 merged element", countChildren(aggregate.getResult()) == 1);
+    }
+
+    private List<OMNode> responses(String... names) {
+        OMNode[] nodes = new OMNode[names.length];
+        for (int i = 0; i < names.length; i++) {
+            nodes[i] = omFactory.createOMElement(new QName(names[i]));
+        }
+        return Arrays.asList(nodes);
+    }
+
+    private int countChildren(OMElement element) {
+        int count = 0;
+        for (Iterator<?> itr = element.getChildElements(); itr.hasNext(); itr.next()) {
+            count++;
+        }
+        return count;
+    }
+}
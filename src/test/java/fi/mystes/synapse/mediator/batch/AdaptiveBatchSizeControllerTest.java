@@ -0,0 +1,95 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveBatchSizeControllerTest {
+
+    private static final long MILLIS = 1000000L;
+
+    private AdaptiveBatchSizeController controller;
+
+    @Before
+    public void setUp() {
+        controller = new AdaptiveBatchSizeController(10, 100, 500, 5, 40);
+    }
+
+    @Test
+    public void shouldIncreaseBatchSizeWithinTargetLatency() {
+        controller.recordBatch(40, 0, 100 * MILLIS, false);
+        assertTrue("Expected batch size to grow to 45", controller.getBatchSize() == 45);
+    }
+
+    @Test
+    public void shouldNotIncreaseBatchSizeAfterPartialBatch() {
+        controller.recordBatch(12, 0, 100 * MILLIS, false);
+        assertTrue("Expected batch size to stay at 40", controller.getBatchSize() == 40);
+    }
+
+    @Test
+    public void shouldHalveBatchSizeAboveTargetLatency() {
+        controller.recordBatch(40, 0, 900 * MILLIS, false);
+        assertTrue("Expected batch size to be halved to 20", controller.getBatchSize() == 20);
+    }
+
+    @Test
+    public void shouldHalveBatchSizeWhenBatchFails() {
+        controller.recordBatch(40, 0, 100 * MILLIS, true);
+        assertTrue("Expected batch size to be halved to 20", controller.getBatchSize() == 20);
+    }
+
+    @Test
+    public void shouldDecreaseOnlyOncePerRoundTrip() {
+        controller.recordBatch(40, 0, 900 * MILLIS, false);
+        // started before the first decrease, must not decrease again
+        controller.recordBatch(40, 100 * MILLIS, 950 * MILLIS, false);
+        assertTrue("Expected batch size to be 20", controller.getBatchSize() == 20);
+
+        controller.recordBatch(20, 1000 * MILLIS, 1600 * MILLIS, false);
+        assertTrue("Expected batch size to be halved to 10", controller.getBatchSize() == 10);
+    }
+
+    @Test
+    public void shouldKeepBatchSizeWithinLimits() {
+        AdaptiveBatchSizeController small = new AdaptiveBatchSizeController(10, 12, 500, 5, 1);
+        assertTrue("Expected initial batch size to be raised to 10", small.getBatchSize() == 10);
+        small.recordBatch(10, 0, MILLIS, false);
+        assertTrue("Expected batch size to be capped to 12", small.getBatchSize() == 12);
+        small.recordBatch(12, 2 * MILLIS, 900 * MILLIS, false);
+        assertTrue("Expected batch size not to go below 10", small.getBatchSize() == 10);
+    }
+
+    @Test
+    public void shouldRecordAdjustmentHistory() {
+        controller.recordBatch(40, 0, 100 * MILLIS, false);
+        controller.recordBatch(45, 200 * MILLIS, 900 * MILLIS, false);
+        controller.recordBatch(10, 1000 * MILLIS, 1100 * MILLIS, false);
+
+        List<AdaptiveBatchSizeController.Adjustment> history = controller.getHistory();
+        assertTrue("Expected two adjustments", history.size() == 2);
+        assertTrue("Expected first adjustment from 40 to 45",
+                history.get(0).getPreviousSize() == 40 && history.get(0).getNewSize() == 45);
+        assertTrue("Expected second adjustment from 45 to 22",
+                history.get(1).getPreviousSize() == 45 && history.get(1).getNewSize() == 22);
+        assertTrue("Expected latency of 700 ms", history.get(1).getLatency() == 700);
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.xml.namespace.QName;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNode;
+import org.apache.synapse.util.xpath.SynapseXPath;
+import org.jaxen.JaxenException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchLimitsTest {
+
+    private OMFactory omFactory = OMAbstractFactory.getOMFactory();
+
+    private OMNode[] elements;
+
+    @Before
+    public void setUp() {
+        int[] weights = { 2, 2, 5, 1, 1, 1 };
+        elements = new OMNode[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            OMElement element = omFactory.createOMElement(new QName("iterable"));
+            element.addAttribute("weight", String.valueOf(weights[i]), null);
+            elements[i] = element;
+        }
+    }
+
+    @Test
+    public void shouldCloseBatchesByElementCount() {
+        BatchLimits limits = new BatchLimits(4, 0, null, 0);
+        assertFalse("Expected count limit not to require measuring", limits.isMeasured());
+        assertArrayEquals(new int[] { 4, 6 }, limits.batchEnds(elements));
+    }
+
+    @Test
+    public void shouldCloseBatchesByWeight() throws JaxenException {
+        BatchLimits limits = new BatchLimits(Integer.MAX_VALUE, 0, new SynapseXPath("@weight"), 4);
+        assertTrue("Expected weight limit to require measuring", limits.isMeasured());
+        // Element of weight 5 exceeds the limit alone and forms a batch of its own
+        assertArrayEquals(new int[] { 2, 3, 6 }, limits.batchEnds(elements));
+    }
+
+    @Test
+    public void shouldCloseBatchesByWeightAndCount() throws JaxenException {
+        BatchLimits limits = new BatchLimits(2, 0, new SynapseXPath("@weight"), 4);
+        assertArrayEquals(new int[] { 2, 3, 5, 6 }, limits.batchEnds(elements));
+    }
+
+    @Test
+    public void shouldMeasureEachElementOnceAsBatchesAreProduced() throws JaxenException {
+        final int[] measured = { 0 };
+        SynapseXPath weight = new SynapseXPath("@weight") {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Number numberValueOf(Object node) throws JaxenException {
+                measured[0]++;
+                return super.numberValueOf(node);
+            }
+        };
+        SplitBatchSource source = new SplitBatchSource(elements,
+                new BatchLimits(Integer.MAX_VALUE, 0, weight, 4));
+        assertTrue("Expected no element to be measured before the first batch", measured[0] == 0);
+
+        assertTrue("Expected 2 elements in first batch", source.next().size() == 2);
+        assertTrue("Expected first batch and the element closing it to be measured", measured[0] == 3);
+        assertTrue("Expected element of weight 5 alone in second batch", source.next().size() == 1);
+        assertTrue("Expected 3 elements in last batch", source.next().size() == 3);
+        assertTrue("Expected each element to be measured once", measured[0] == elements.length);
+        assertTrue("Expected 3 batches", source.getBatchCount() == 3);
+    }
+
+    @Test
+    public void shouldCloseBatchesBySerializedSize() {
+        long size = BatchLimits.serializedSize(elements[0]);
+        assertTrue("Expected serialized size to be positive", size > 0);
+
+        BatchLimits limits = new BatchLimits(Integer.MAX_VALUE, size * 3, null, 0);
+        assertArrayEquals(new int[] { 3, 6 }, limits.batchEnds(elements));
+    }
+
+    @Test
+    public void shouldReturnNoBatchesForNoElements() {
+        assertTrue("Expected no batch ends", new BatchLimits(1, 0, null, 0).batchEnds(new OMNode[0]).length == 0);
+    }
+}
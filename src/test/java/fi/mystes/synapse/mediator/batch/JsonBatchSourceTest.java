@@ -0,0 +1,80 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+
+import org.apache.axiom.om.OMElement;
+import org.junit.Test;
+
+import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+import fi.mystes.synapse.mediator.json.JsonArrayReader;
+import fi.mystes.synapse.mediator.json.JsonPath;
+
+public class JsonBatchSourceTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void shouldBatchArrayElementsIntoJsonArrays() {
+        JsonBatchSource source = createSource("{\"orders\": [{\"id\": 1}, {\"id\": 2}, {\"id\": 3}]}",
+                new BatchLimits(2, 0, null, 0));
+
+        ElementBatch first = source.next();
+        assertTrue("Expected total to be unknown before the last batch",
+                source.getBatchCount() == BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT);
+        assertTrue("Expected 2 elements in first batch", first.size() == 2);
+        assertTrue("Expected first batch as JSON array", textOf(first).equals("[{\"id\": 1},{\"id\": 2}]"));
+
+        ElementBatch second = source.next();
+        assertTrue("Expected 1 element in second batch", second.size() == 1);
+        assertTrue("Expected second batch as JSON array", textOf(second).equals("[{\"id\": 3}]"));
+        assertTrue("Expected no more batches", !source.hasNext());
+        assertTrue("Expected 2 batches", source.getBatchCount() == 2);
+        assertTrue("Expected 3 elements", source.getElementCount() == 3);
+    }
+
+    @Test
+    public void shouldCloseBatchesBySizeInBytes() {
+        // each element is 9 bytes
+        JsonBatchSource source = createSource("[{\"id\": 1}, {\"id\": 2}, {\"id\": 3}]",
+                new BatchLimits(Integer.MAX_VALUE, 20, null, 0));
+
+        assertTrue("Expected 2 elements in first batch", source.next().size() == 2);
+        assertTrue("Expected 1 element in second batch", source.next().size() == 1);
+    }
+
+    @Test
+    public void shouldProduceNoBatchesForEmptyArray() {
+        assertTrue("Expected no batches", !createSource("{\"orders\": []}", new BatchLimits(2, 0, null, 0))
+                .hasNext());
+    }
+
+    private JsonBatchSource createSource(String json, BatchLimits limits) {
+        JsonPath path = JsonPath.compile(json.startsWith("[") ? "$" : "$.orders");
+        return new JsonBatchSource(new JsonArrayReader(new ByteArrayInputStream(json.getBytes(UTF8)), path),
+                limits);
+    }
+
+    private String textOf(ElementBatch batch) {
+        OMElement payload = (OMElement) batch.getElements().get(0);
+        assertTrue("Expected text payload element", payload.getQName().equals(BatchIteratorConstants.TEXT_WRAPPER));
+        return payload.getText();
+    }
+}
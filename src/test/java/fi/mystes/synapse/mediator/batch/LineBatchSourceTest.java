@@ -0,0 +1,105 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+
+import org.apache.axiom.om.OMElement;
+import org.junit.Test;
+
+import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+import fi.mystes.synapse.mediator.text.LineReader;
+
+public class LineBatchSourceTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void shouldBatchLines() {
+        LineBatchSource source = createSource("a;1\nb;2\r\n\nc;3", new BatchLimits(2, 0, null, 0), false);
+
+        ElementBatch first = source.next();
+        assertTrue("Expected total to be unknown before the last batch",
+                source.getBatchCount() == BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT);
+        assertTrue("Expected 2 lines in first batch", first.size() == 2);
+        assertTrue("Expected first two lines without carriage return", textOf(first).equals("a;1\nb;2\n"));
+
+        ElementBatch second = source.next();
+        assertTrue("Expected empty line to be skipped", second.size() == 1);
+        assertTrue("Expected last line without line feed to be read", textOf(second).equals("c;3\n"));
+        assertTrue("Expected no more batches", !source.hasNext());
+        assertTrue("Expected 2 batches", source.getBatchCount() == 2);
+        assertTrue("Expected 3 lines", source.getElementCount() == 3);
+    }
+
+    @Test
+    public void shouldWriteHeaderToEveryBatch() {
+        LineBatchSource source = createSource("id;name\n1;ä\n2;b\n3;c\n", new BatchLimits(2, 0, null, 0), true);
+
+        assertTrue("Expected header and two lines", textOf(source.next()).equals("id;name\n1;ä\n2;b\n"));
+        assertTrue("Expected header and last line", textOf(source.next()).equals("id;name\n3;c\n"));
+        assertTrue("Expected header not to be counted", source.getElementCount() == 3);
+    }
+
+    @Test
+    public void shouldCloseBatchesBySizeInBytes() {
+        // each line is 4 bytes with its line feed
+        LineBatchSource source = createSource("a;1\nb;2\nc;3\n", new BatchLimits(Integer.MAX_VALUE, 8, null, 0),
+                false);
+
+        assertTrue("Expected 2 lines in first batch", source.next().size() == 2);
+        assertTrue("Expected 1 line in second batch", source.next().size() == 1);
+    }
+
+    @Test
+    public void shouldSupportOnlyEncodingsWithSingleByteLineFeed() {
+        assertTrue("Expected UTF-8 to be supported", LineReader.isSupported(UTF8));
+        assertTrue("Expected ISO-8859-1 to be supported", LineReader.isSupported(Charset.forName("ISO-8859-1")));
+        assertTrue("Expected UTF-16 not to be supported", !LineReader.isSupported(Charset.forName("UTF-16")));
+        assertTrue("Expected UTF-16LE not to be supported", !LineReader.isSupported(Charset.forName("UTF-16LE")));
+    }
+
+    @Test
+    public void shouldProduceNoBatchesForHeaderOnly() {
+        assertTrue("Expected no batches", !createSource("id;name\n", new BatchLimits(2, 0, null, 0), true).hasNext());
+    }
+
+    @Test
+    public void shouldReadLinesLongerThanBuffer() {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            line.append((char) ('a' + i % 26));
+        }
+        LineBatchSource source = createSource(line + "\r\nshort\n", new BatchLimits(1, 0, null, 0), false);
+
+        assertTrue("Expected long line as such", textOf(source.next()).equals(line + "\n"));
+        assertTrue("Expected short line", textOf(source.next()).equals("short\n"));
+    }
+
+    private LineBatchSource createSource(String text, BatchLimits limits, boolean keepHeader) {
+        return new LineBatchSource(new LineReader(new ByteArrayInputStream(text.getBytes(UTF8))), limits,
+                keepHeader, UTF8);
+    }
+
+    private String textOf(ElementBatch batch) {
+        OMElement payload = (OMElement) batch.getElements().get(0);
+        assertTrue("Expected text payload element", payload.getQName().equals(BatchIteratorConstants.TEXT_WRAPPER));
+        return payload.getText();
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.xml.namespace.QName;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNode;
+import org.apache.synapse.util.xpath.SynapseXPath;
+import org.jaxen.JaxenException;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+
+public class PartitionedBatchSourceTest {
+
+    private OMFactory omFactory = OMAbstractFactory.getOMFactory();
+
+    private OMNode[] elements;
+
+    private SynapseXPath partitionExpression;
+
+    @Before
+    public void setUp() throws JaxenException {
+        String[] customers = { "a", "b", "a", "a", "b", "c" };
+        elements = new OMNode[customers.length];
+        for (int i = 0; i < elements.length; i++) {
+            OMElement element = omFactory.createOMElement(new QName("iterable"));
+            element.addAttribute("customer", customers[i], null);
+            element.addAttribute("index", String.valueOf(i), null);
+            elements[i] = element;
+        }
+        partitionExpression = new SynapseXPath("@customer");
+    }
+
+    @Test
+    public void shouldBatchElementsOfEachPartitionInTurns() {
+        PartitionedBatchSource source = new PartitionedBatchSource(elements, partitionExpression,
+                new BatchLimits(2, 0, null, 0));
+        assertTrue("Expected batch count to be 4", source.getBatchCount() == 4);
+
+        assertBatch(source.next(), 0, "a", "0", "2");
+        assertBatch(source.next(), 1, "b", "1", "4");
+        assertBatch(source.next(), 2, "c", "5");
+        assertBatch(source.next(), 3, "a", "3");
+        assertFalse("Expected no more batches", source.hasNext());
+        assertTrue("Expected element count to be 6", source.getElementCount() == 6);
+    }
+
+    @Test
+    public void shouldKnowBatchCountOnlyAtEndWithAdaptiveBatchSize() {
+        AdaptiveBatchSizeController controller = new AdaptiveBatchSizeController(1, 10, 500, 1, 3);
+        PartitionedBatchSource source = new PartitionedBatchSource(elements, partitionExpression,
+                new BatchLimits(1, 0, null, 0, controller));
+        assertBatch(source.next(), 0, "a", "0", "2", "3");
+        assertTrue("Expected batch count to be unknown",
+                source.getBatchCount() == BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT);
+        source.next();
+        source.next();
+        assertTrue("Expected batch count to be 3 at the end", source.getBatchCount() == 3);
+    }
+
+    private void assertBatch(ElementBatch batch, int number, String key, String... indexes) {
+        assertTrue("Expected batch number " + number, batch.getNumber() == number);
+        assertTrue("Expected partition key " + key, key.equals(batch.getPartitionKey()));
+        assertTrue("Expected " + indexes.length + " elements", batch.size() == indexes.length);
+        for (int i = 0; i < indexes.length; i++) {
+            String index = ((OMElement) batch.getElements().get(i)).getAttributeValue(new QName("index"));
+            assertTrue("Expected element " + indexes[i] + " at " + i + " of batch " + number,
+                    indexes[i].equals(index));
+        }
+    }
+}
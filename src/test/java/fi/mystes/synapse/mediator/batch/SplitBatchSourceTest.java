@@ -0,0 +1,87 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.xml.namespace.QName;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNode;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+
+public class SplitBatchSourceTest {
+
+    private OMFactory omFactory = OMAbstractFactory.getOMFactory();
+
+    private OMNode[] elements;
+
+    @Before
+    public void setUp() {
+        elements = new OMNode[7];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = omFactory.createOMElement(new QName("iterable"));
+        }
+    }
+
+    @Test
+    public void shouldProduceBatchesOnDemand() {
+        SplitBatchSource source = new SplitBatchSource(elements, 3);
+        assertTrue("Expected batch count to be 3", source.getBatchCount() == 3);
+
+        ElementBatch first = source.next();
+        assertTrue("Expected first batch number to be 0", first.getNumber() == 0);
+        assertTrue("Expected first batch to contain 3 elements", first.size() == 3);
+        assertTrue("Expected element count to be 3", source.getElementCount() == 3);
+
+        assertTrue("Expected second batch to contain 3 elements", source.next().size() == 3);
+        ElementBatch last = source.next();
+        assertTrue("Expected last batch number to be 2", last.getNumber() == 2);
+        assertTrue("Expected last batch to contain 1 element", last.size() == 1);
+        assertFalse("Expected no more batches", source.hasNext());
+    }
+
+    @Test
+    public void shouldReleaseElementsOfPreviousBatch() {
+        SplitBatchSource source = new SplitBatchSource(elements, 3);
+        source.next();
+        source.next();
+        assertNull("Expected elements of the first batch to be released", elements[0]);
+        assertNull("Expected elements of the first batch to be released", elements[2]);
+        assertTrue("Expected elements of the current batch to be kept", elements[3] != null);
+    }
+
+    @Test
+    public void shouldReadAdaptiveBatchSizeForEachBatch() {
+        AdaptiveBatchSizeController controller = new AdaptiveBatchSizeController(1, 10, 500, 1, 2);
+        SplitBatchSource source = new SplitBatchSource(elements, new BatchLimits(1, 0, null, 0, controller));
+
+        assertTrue("Expected first batch to contain 2 elements", source.next().size() == 2);
+        assertTrue("Expected batch count to be unknown",
+                source.getBatchCount() == BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT);
+
+        controller.recordBatch(2, 0, 1, false);
+        assertTrue("Expected second batch to contain 3 elements", source.next().size() == 3);
+        assertTrue("Expected last batch to contain 2 elements", source.next().size() == 2);
+        assertTrue("Expected batch count to be 3", source.getBatchCount() == 3);
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.batch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.synapse.util.xpath.SynapseXPath;
+import org.junit.Test;
+
+import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+import fi.mystes.synapse.mediator.split.SimplePath;
+import fi.mystes.synapse.mediator.split.StreamingElementReader;
+
+public class StreamingBatchSourceTest {
+
+    private static final String SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+
+    @Test
+    public void shouldKnowTotalWhenLastBatchIsFull() throws Exception {
+        StreamingBatchSource source = createSource("<orders><order/><order/><order/><order/></orders>", 2);
+
+        assertTrue("Expected 2 elements in first batch", source.next().size() == 2);
+        assertTrue("Expected total to be unknown before the last batch",
+                source.getBatchCount() == BatchIteratorConstants.UNKNOWN_MESSAGE_COUNT);
+        assertTrue("Expected 2 elements in last batch", source.next().size() == 2);
+        assertTrue("Expected total to be known with the last full batch", source.getBatchCount() == 2);
+        assertTrue("Expected no more batches", !source.hasNext());
+    }
+
+    @Test
+    public void shouldKnowTotalWhenLastBatchIsPartial() throws Exception {
+        StreamingBatchSource source = createSource("<orders><order/><order/><order/></orders>", 2);
+
+        source.next();
+        assertTrue("Expected 1 element in last batch", source.next().size() == 1);
+        assertTrue("Expected total to be known with the last batch", source.getBatchCount() == 2);
+        assertTrue("Expected 3 elements", source.getElementCount() == 3);
+    }
+
+    private static StreamingBatchSource createSource(String xml, int batchSize) throws Exception {
+        XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(xml));
+        StreamingElementReader elements = new StreamingElementReader(reader,
+                SimplePath.compile(new SynapseXPath("//order")),
+                Arrays.asList(new QName(SOAP_NS, "Envelope"), new QName(SOAP_NS, "Body")));
+        return new StreamingBatchSource(elements, new BatchLimits(batchSize, 0, null, 0));
+    }
+}
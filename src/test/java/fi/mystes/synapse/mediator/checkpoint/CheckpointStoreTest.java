@@ -0,0 +1,65 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.checkpoint;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CheckpointStoreTest {
+
+    @Rule
+    public TemporaryFolder directory = new TemporaryFolder();
+
+    @Test
+    public void shouldReturnZeroWithoutCheckpoint() {
+        CheckpointStore store = new CheckpointStore(directory.getRoot());
+        assertTrue("Expected no completed batches", store.getCompletedBatches("order-1") == 0);
+    }
+
+    @Test
+    public void shouldReplaceCheckpointOfKey() {
+        CheckpointStore store = new CheckpointStore(directory.getRoot());
+        store.batchCompleted("order-1", 1);
+        store.batchCompleted("order-1", 2);
+        store.batchCompleted("order/2?", 5);
+
+        assertTrue("Expected latest checkpoint", store.getCompletedBatches("order-1") == 2);
+        assertTrue("Expected key with special characters", store.getCompletedBatches("order/2?") == 5);
+        assertTrue("Expected one file per key", directory.getRoot().list().length == 2);
+    }
+
+    @Test
+    public void shouldRemoveCheckpointOnClear() {
+        CheckpointStore store = new CheckpointStore(directory.getRoot());
+        store.batchCompleted("order-1", 3);
+        store.clear("order-1");
+
+        assertTrue("Expected checkpoint to be removed", store.getCompletedBatches("order-1") == 0);
+        assertTrue("Expected no files", directory.getRoot().list().length == 0);
+    }
+
+    @Test
+    public void shouldCreateDirectoryOnFirstCheckpoint() {
+        CheckpointStore store = new CheckpointStore(new File(directory.getRoot(), "nightly/orders"));
+        store.batchCompleted("order-1", 1);
+        assertTrue("Expected checkpoint in created directory", store.getCompletedBatches("order-1") == 1);
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.context;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.synapse.MessageContext;
+import org.junit.Test;
+
+public class PropertyFilterTest {
+
+    @Test
+    public void shouldKeepOnlyIncludedProperties() {
+        PropertyFilter filter = new PropertyFilter("orderId, tenant.*", null);
+        assertTrue("Expected orderId to be accepted", filter.accepts("orderId"));
+        assertTrue("Expected tenant.name to be accepted", filter.accepts("tenant.name"));
+        assertTrue("Expected originalPayload not to be accepted", !filter.accepts("originalPayload"));
+    }
+
+    @Test
+    public void shouldRemoveExcludedProperties() {
+        PropertyFilter filter = new PropertyFilter(null, "originalPayload,cache.*");
+        assertTrue("Expected orderId to be accepted", filter.accepts("orderId"));
+        assertTrue("Expected originalPayload not to be accepted", !filter.accepts("originalPayload"));
+        assertTrue("Expected cache.customers not to be accepted", !filter.accepts("cache.customers"));
+    }
+
+    @Test
+    public void shouldExcludeFromIncludedProperties() {
+        PropertyFilter filter = new PropertyFilter("tenant.*", "tenant.secret");
+        assertTrue("Expected tenant.name to be accepted", filter.accepts("tenant.name"));
+        assertTrue("Expected tenant.secret not to be accepted", !filter.accepts("tenant.secret"));
+    }
+
+    @Test
+    public void shouldRemoveRejectedPropertiesFromMessageContext() {
+        Set<String> keys = new HashSet<String>();
+        keys.add("orderId");
+        keys.add("originalPayload");
+        keys.add("cache.customers");
+        MessageContext synCtx = mock(MessageContext.class);
+        when(synCtx.getPropertyKeySet()).thenReturn(keys);
+
+        int removed = new PropertyFilter(null, "originalPayload,cache.*").apply(synCtx);
+
+        assertTrue("Expected two properties to be removed", removed == 2);
+        assertTrue("Expected only orderId to remain", keys.size() == 1 && keys.contains("orderId"));
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Test;
+
+public class BatchExecutorsTest {
+
+    @Test
+    public void shouldShareExecutorByName() {
+        BatchExecutorConfig config = new BatchExecutorConfig("shared");
+        config.setPoolSize(2);
+        ExecutorService first = BatchExecutors.acquire(config);
+        ExecutorService second = BatchExecutors.acquire(new BatchExecutorConfig("shared"));
+        assertTrue("Expected the same executor for the same name", first == second);
+        assertTrue("Expected pool size of the first configuration",
+                ((ThreadPoolExecutor) first).getMaximumPoolSize() == 2);
+
+        BatchExecutors.release("shared");
+        assertFalse("Expected executor to be running while referenced", first.isShutdown());
+        BatchExecutors.release("shared");
+        assertTrue("Expected executor to be shut down when no longer referenced", first.isShutdown());
+    }
+}
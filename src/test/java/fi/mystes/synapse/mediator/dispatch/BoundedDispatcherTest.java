@@ -0,0 +1,125 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Stack;
+import java.util.concurrent.Executor;
+
+import org.apache.synapse.FaultHandler;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseException;
+import org.apache.synapse.mediators.eip.Target;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class BoundedDispatcherTest {
+
+    @Mock
+    private Target target;
+
+    @Mock
+    private MessageContext batchContext;
+
+    @Mock
+    private MessageContext otherBatchContext;
+
+    @Mock
+    private FaultHandler faultHandler;
+
+    private Queue<Runnable> queued = new LinkedList<Runnable>();
+
+    private Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            queued.add(command);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void shouldFreeSlotWhenBatchCompletes() {
+        BoundedDispatcher dispatcher = new BoundedDispatcher(executor, target, 2);
+        dispatcher.reserve();
+        dispatcher.dispatch(batchContext, 3);
+        dispatcher.reserve();
+        dispatcher.dispatch(batchContext, 3);
+        assertTrue("Expected two batches in flight", dispatcher.getInFlightCount() == 2);
+
+        queued.poll().run();
+        assertTrue("Expected one batch in flight", dispatcher.getInFlightCount() == 1);
+        verify(target).mediate(batchContext);
+    }
+
+    @Test
+    public void shouldExecuteFaultHandlerAndFreeSlotWhenBatchFails() {
+        Stack<FaultHandler> faultStack = new Stack<FaultHandler>();
+        faultStack.push(faultHandler);
+        SynapseException failure = new SynapseException("failure");
+        when(batchContext.getFaultStack()).thenReturn(faultStack);
+        when(target.mediate(batchContext)).thenThrow(failure);
+
+        BoundedDispatcher dispatcher = new BoundedDispatcher(executor, target, 1);
+        dispatcher.reserve();
+        dispatcher.dispatch(batchContext, 3);
+        queued.poll().run();
+
+        verify(faultHandler).handleFault(batchContext, failure);
+        assertTrue("Expected no batches in flight", dispatcher.getInFlightCount() == 0);
+    }
+
+    @Test
+    public void shouldCancelQueuedBatchAfterFailureInFailFastMode() {
+        Stack<FaultHandler> faultStack = new Stack<FaultHandler>();
+        faultStack.push(faultHandler);
+        when(batchContext.getFaultStack()).thenReturn(faultStack);
+        when(otherBatchContext.getFaultStack()).thenReturn(faultStack);
+        when(target.mediate(batchContext)).thenThrow(new SynapseException("failure"));
+
+        FailFastGuard guard = new FailFastGuard();
+        BoundedDispatcher dispatcher = new BoundedDispatcher(executor, target, 2, guard);
+        dispatcher.setFailFastGuard(guard);
+        guard.submitted(batchContext, 0);
+        dispatcher.reserve();
+        dispatcher.dispatch(batchContext, 3);
+        guard.submitted(otherBatchContext, 1);
+        dispatcher.reserve();
+        dispatcher.dispatch(otherBatchContext, 3);
+        queued.poll().run();
+        queued.poll().run();
+
+        assertTrue("Expected guard to be failed", guard.isFailed());
+        verify(target, never()).mediate(otherBatchContext);
+        verify(faultHandler, never()).handleFault(eq(otherBatchContext), any(Exception.class));
+        assertTrue("Expected no batches in flight", dispatcher.getInFlightCount() == 0);
+        guard.close(2, false, 2);
+        assertTrue("Expected second batch not to have run", guard.getNotRunBatches().equals("2"));
+    }
+}
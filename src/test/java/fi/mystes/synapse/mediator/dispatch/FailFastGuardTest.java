@@ -0,0 +1,77 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import static org.junit.Assert.assertTrue;
+
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseException;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class FailFastGuardTest {
+
+    private FailFastGuard guard = new FailFastGuard();
+
+    @Test
+    public void shouldNotBeFailedUntilBatchFails() {
+        MessageContext batch = submit(0);
+        guard.batchCompleted(batch, 3, System.nanoTime(), null);
+        assertTrue("Expected guard not to be failed", !guard.isFailed());
+        assertTrue("Expected no failed batch", guard.getFailedBatch() == 0);
+    }
+
+    @Test
+    public void shouldListCancelledAndNotCreatedBatches() {
+        MessageContext[] batches = new MessageContext[6];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = submit(i);
+        }
+        guard.batchCompleted(batches[0], 3, System.nanoTime(), null);
+        guard.batchCompleted(batches[2], 3, System.nanoTime(), new SynapseException("failure"));
+        guard.batchCompleted(batches[1], 3, System.nanoTime(), null);
+        guard.batchCompleted(batches[3], 3, System.nanoTime(), guard.cancellation());
+        guard.batchCompleted(batches[4], 3, System.nanoTime(), null);
+        guard.batchCompleted(batches[5], 3, System.nanoTime(), guard.cancellation());
+        guard.close(6, true, 9);
+
+        assertTrue("Expected guard to be failed", guard.isFailed());
+        assertTrue("Expected third batch to have failed", guard.getFailedBatch() == 3);
+        assertTrue("Expected batches 4 and 6-9 not to have run", guard.getNotRunBatches().equals("4,6-9"));
+    }
+
+    @Test
+    public void shouldLeaveRangeOpenWhenBatchCountIsUnknown() {
+        MessageContext batch = submit(0);
+        guard.batchCompleted(batch, 3, System.nanoTime(), new SynapseException("failure"));
+        guard.close(1, true, -1);
+        assertTrue("Expected open range of batches not created", guard.getNotRunBatches().equals("2-"));
+    }
+
+    @Test
+    public void shouldListNothingWhenFailedBatchWasLast() {
+        MessageContext batch = submit(0);
+        guard.batchCompleted(batch, 3, System.nanoTime(), new SynapseException("failure"));
+        guard.close(1, false, 1);
+        assertTrue("Expected all other batches to have run", guard.getNotRunBatches().isEmpty());
+    }
+
+    private MessageContext submit(int number) {
+        MessageContext batch = Mockito.mock(MessageContext.class);
+        guard.submitted(batch, number);
+        return batch;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.apache.synapse.Mediator;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class OrderedReleaserTest {
+
+    @Mock
+    private Mediator release;
+
+    @Mock
+    private MessageContext first;
+
+    @Mock
+    private MessageContext second;
+
+    @Mock
+    private MessageContext third;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @Test
+    public void shouldReleaseBatchesInSubmissionOrder() {
+        OrderedReleaser releaser = submitAll(new OrderedReleaser(release, 0));
+
+        releaser.batchCompleted(third, 1, System.nanoTime(), null);
+        releaser.batchCompleted(second, 1, System.nanoTime(), null);
+        assertTrue("Expected two buffered batches", releaser.getBufferedCount() == 2);
+        verify(release, never()).mediate(third);
+
+        releaser.batchCompleted(first, 1, System.nanoTime(), null);
+        InOrder order = inOrder(release);
+        order.verify(release).mediate(first);
+        order.verify(release).mediate(second);
+        order.verify(release).mediate(third);
+        assertTrue("Expected three released batches", releaser.getReleasedCount() == 3);
+        assertTrue("Expected no buffered batches", releaser.getBufferedCount() == 0);
+    }
+
+    @Test
+    public void shouldSkipFailedBatches() {
+        OrderedReleaser releaser = submitAll(new OrderedReleaser(release, 0));
+
+        releaser.batchCompleted(third, 1, System.nanoTime(), null);
+        releaser.batchCompleted(first, 1, System.nanoTime(), null);
+        releaser.batchCompleted(second, 1, System.nanoTime(), new SynapseException("failure"));
+
+        verify(release, never()).mediate(second);
+        InOrder order = inOrder(release);
+        order.verify(release).mediate(first);
+        order.verify(release).mediate(third);
+        assertTrue("Expected one skipped batch", releaser.getSkippedCount() == 1);
+        assertTrue("Expected two released batches", releaser.getReleasedCount() == 2);
+    }
+
+    @Test
+    public void shouldFreeWindowSlotWhenBatchIsReleased() {
+        OrderedReleaser releaser = new OrderedReleaser(release, 2);
+        releaser.reserve();
+        releaser.submitted(first);
+        releaser.reserve();
+        releaser.submitted(second);
+
+        // completing the second batch does not free a slot before the first
+        // batch has been released
+        releaser.batchCompleted(second, 1, System.nanoTime(), null);
+        releaser.batchCompleted(first, 1, System.nanoTime(), null);
+
+        releaser.reserve();
+        releaser.reserve();
+        assertTrue("Expected two released batches", releaser.getReleasedCount() == 2);
+    }
+
+    private OrderedReleaser submitAll(OrderedReleaser releaser) {
+        releaser.submitted(first);
+        releaser.submitted(second);
+        releaser.submitted(third);
+        return releaser;
+    }
+}
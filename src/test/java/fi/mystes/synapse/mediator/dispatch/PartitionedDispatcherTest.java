@@ -0,0 +1,96 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.mediators.eip.Target;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+
+public class PartitionedDispatcherTest {
+
+    @Mock
+    private Target target;
+
+    @Mock
+    private MessageContext firstOfA;
+
+    @Mock
+    private MessageContext secondOfA;
+
+    @Mock
+    private MessageContext firstOfB;
+
+    private Queue<Runnable> queued = new LinkedList<Runnable>();
+
+    private Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            queued.add(command);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(firstOfA.getProperty(BatchIteratorConstants.PARTITION_KEY_PROPERTY)).thenReturn("A");
+        when(secondOfA.getProperty(BatchIteratorConstants.PARTITION_KEY_PROPERTY)).thenReturn("A");
+        when(firstOfB.getProperty(BatchIteratorConstants.PARTITION_KEY_PROPERTY)).thenReturn("B");
+    }
+
+    @Test
+    public void shouldRunPartitionsInParallelAndBatchesOfPartitionInOrder() {
+        PartitionedDispatcher dispatcher = new PartitionedDispatcher(executor, target, 3, null);
+        dispatch(dispatcher, firstOfA);
+        dispatch(dispatcher, secondOfA);
+        dispatch(dispatcher, firstOfB);
+        assertTrue("Expected first batches of both partitions to be handed to the executor", queued.size() == 2);
+        assertTrue("Expected second batch of A to wait", dispatcher.getWaitingCount() == 1);
+
+        queued.poll().run();
+        assertTrue("Expected second batch of A to be handed on once the first completed", queued.size() == 2);
+        verify(target, never()).mediate(secondOfA);
+
+        queued.poll().run();
+        queued.poll().run();
+        InOrder order = inOrder(target);
+        order.verify(target).mediate(firstOfA);
+        order.verify(target).mediate(secondOfA);
+        verify(target).mediate(firstOfB);
+        assertTrue("Expected no batches in flight", dispatcher.getInFlightCount() == 0);
+        assertTrue("Expected no batches waiting", dispatcher.getWaitingCount() == 0);
+    }
+
+    private void dispatch(PartitionedDispatcher dispatcher, MessageContext batch) {
+        dispatcher.reserve();
+        dispatcher.dispatch(batch, 1);
+    }
+}
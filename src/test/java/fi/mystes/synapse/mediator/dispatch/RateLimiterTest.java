@@ -0,0 +1,68 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void shouldDispatchBurstWithoutWaiting() {
+        RateLimiter limiter = new RateLimiter(2, 3, 0);
+        for (int i = 0; i < 3; i++) {
+            assertTrue("Expected batch " + i + " of the burst not to wait", limiter.reserve(0) == 0);
+        }
+        assertTrue("Expected batch after the burst to wait half a second", limiter.reserve(0) == SECOND / 2);
+    }
+
+    @Test
+    public void shouldQueueWaitingBatchesInOrder() {
+        RateLimiter limiter = new RateLimiter(4, 1, 0);
+        limiter.reserve(0);
+        assertTrue("Expected second batch to wait 250 ms", limiter.reserve(0) == SECOND / 4);
+        assertTrue("Expected third batch to wait 500 ms", limiter.reserve(0) == SECOND / 2);
+    }
+
+    @Test
+    public void shouldRefillUpToBurstWhileIdle() {
+        RateLimiter limiter = new RateLimiter(1, 2, 0);
+        limiter.reserve(0);
+        limiter.reserve(0);
+        long later = 10 * SECOND;
+        assertTrue("Expected first batch after idle period not to wait", limiter.reserve(later) == 0);
+        assertTrue("Expected second batch after idle period not to wait", limiter.reserve(later) == 0);
+        assertTrue("Expected third batch after idle period to wait", limiter.reserve(later) == SECOND);
+    }
+
+    @Test
+    public void shouldShareLimiterOfSameId() {
+        RateLimiter first = RateLimiters.acquire("rateLimiterTest", 5, 1);
+        RateLimiter second = RateLimiters.acquire("rateLimiterTest", 5, 1);
+        try {
+            assertTrue("Expected mediators with the same id to share the limiter", first == second);
+        } finally {
+            RateLimiters.release("rateLimiterTest");
+            RateLimiters.release("rateLimiterTest");
+        }
+        RateLimiter third = RateLimiters.acquire("rateLimiterTest", 5, 1);
+        RateLimiters.release("rateLimiterTest");
+        assertTrue("Expected a new limiter once the id was released", third != first);
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillFileTest {
+
+    @Rule
+    public TemporaryFolder spillDirectory = new TemporaryFolder();
+
+    @Test
+    public void shouldReadBackRecordsAndDeleteFileOnClose() throws IOException {
+        SpillFile spillFile = new SpillFile(spillDirectory.getRoot());
+        assertTrue("Expected file to be created on first write", spillDirectory.getRoot().list().length == 0);
+
+        long first = spillFile.write(new byte[] { 1, 2, 3 });
+        long second = spillFile.write(new byte[] { 4, 5 });
+        assertTrue("Expected records one after another", first == 0 && second == 3);
+        assertTrue("Expected 5 bytes in 2 records", spillFile.getSize() == 5 && spillFile.getRecordCount() == 2);
+        assertTrue("Expected second record", Arrays.equals(spillFile.read(second, 2), new byte[] { 4, 5 }));
+        assertTrue("Expected first record", Arrays.equals(spillFile.read(first, 3), new byte[] { 1, 2, 3 }));
+
+        spillFile.close();
+        assertTrue("Expected file to be deleted", spillDirectory.getRoot().list().length == 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldThrowExceptionWhenReadingClosedFile() throws IOException {
+        SpillFile spillFile = new SpillFile(spillDirectory.getRoot());
+        spillFile.write(new byte[] { 1 });
+        spillFile.close();
+        spillFile.read(0, 1);
+    }
+}
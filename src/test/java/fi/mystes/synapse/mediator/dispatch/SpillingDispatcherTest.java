@@ -0,0 +1,161 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.dispatch;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.mediators.eip.Target;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class SpillingDispatcherTest {
+
+    @Rule
+    public TemporaryFolder spillDirectory = new TemporaryFolder();
+
+    @Mock
+    private Target target;
+
+    @Mock
+    private MessageContext runningBatch;
+
+    @Mock
+    private MessageContext waitingBatch;
+
+    @Mock
+    private SpillListener spillListener;
+
+    private Queue<Runnable> queued = new LinkedList<Runnable>();
+
+    private Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            queued.add(command);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(runningBatch.getEnvelope()).thenReturn(createEnvelope());
+        when(waitingBatch.getEnvelope()).thenReturn(createEnvelope());
+    }
+
+    @Test
+    public void shouldQueueBatchesAboveMaxConcurrentBatchesWithoutBlocking() {
+        SpillingDispatcher dispatcher = createDispatcher(Long.MAX_VALUE);
+        dispatch(dispatcher, runningBatch);
+        dispatch(dispatcher, waitingBatch);
+
+        assertTrue("Expected one batch running", queued.size() == 1);
+        assertTrue("Expected one batch waiting", dispatcher.getPendingCount() == 1);
+        assertTrue("Expected waiting envelope to be held in memory", dispatcher.getHeldBytes() > 0);
+        ArgumentCaptor<SOAPEnvelope> envelopes = ArgumentCaptor.forClass(SOAPEnvelope.class);
+        verify(waitingBatch).setEnvelope(envelopes.capture());
+        assertTrue("Expected waiting batch to keep only the serialized envelope",
+                envelopes.getValue().getBody().getFirstElement() == null);
+
+        queued.poll().run();
+        verify(waitingBatch, times(2)).setEnvelope(envelopes.capture());
+        List<SOAPEnvelope> values = envelopes.getAllValues();
+        assertTrue("Expected envelope to be parsed back",
+                values.get(values.size() - 1).getBody().getFirstElement().getLocalName().equals("order"));
+        assertTrue("Expected waiting batch to take the free slot", queued.size() == 1);
+        assertTrue("Expected no batches waiting", dispatcher.getPendingCount() == 0);
+        assertTrue("Expected no envelopes held", dispatcher.getHeldBytes() == 0);
+        verify(spillListener, never()).batchSpilled(anyLong());
+    }
+
+    @Test
+    public void shouldSpillEnvelopeAboveMemoryBudgetAndReadItBack() throws Exception {
+        SpillingDispatcher dispatcher = createDispatcher(0);
+        dispatch(dispatcher, runningBatch);
+        dispatch(dispatcher, waitingBatch);
+        dispatcher.close();
+
+        ArgumentCaptor<SOAPEnvelope> envelopes = ArgumentCaptor.forClass(SOAPEnvelope.class);
+        verify(waitingBatch).setEnvelope(envelopes.capture());
+        assertTrue("Expected waiting batch to keep an empty envelope",
+                envelopes.getValue().getBody().getFirstElement() == null);
+        verify(spillListener).batchSpilled(anyLong());
+        assertTrue("Expected spill file", spillDirectory.getRoot().list().length == 1);
+
+        queued.poll().run();
+        verify(waitingBatch, times(2)).setEnvelope(envelopes.capture());
+        List<SOAPEnvelope> values = envelopes.getAllValues();
+        assertTrue("Expected envelope to be read back",
+                values.get(values.size() - 1).getBody().getFirstElement().getLocalName().equals("order"));
+
+        queued.poll().run();
+        verify(target).mediate(waitingBatch);
+        assertTrue("Expected spill file to be deleted", spillDirectory.getRoot().list().length == 0);
+    }
+
+    @Test
+    public void shouldRunWaitingBatchesInDispatchOrder() {
+        SpillingDispatcher dispatcher = createDispatcher(Long.MAX_VALUE);
+        dispatch(dispatcher, runningBatch);
+        dispatch(dispatcher, waitingBatch);
+        dispatch(dispatcher, runningBatch);
+
+        queued.poll().run();
+        queued.poll().run();
+        queued.poll().run();
+        assertTrue("Expected all batches to have run", queued.isEmpty() && dispatcher.getPendingCount() == 0);
+        InOrder order = inOrder(target);
+        order.verify(target).mediate(runningBatch);
+        order.verify(target).mediate(waitingBatch);
+        order.verify(target).mediate(runningBatch);
+    }
+
+    private SpillingDispatcher createDispatcher(long memoryBudget) {
+        return new SpillingDispatcher(executor, target, 1, null, memoryBudget,
+                new SpillFile(spillDirectory.getRoot()), spillListener);
+    }
+
+    private void dispatch(SpillingDispatcher dispatcher, MessageContext batch) {
+        dispatcher.reserve();
+        dispatcher.dispatch(batch, 1);
+    }
+
+    private SOAPEnvelope createEnvelope() {
+        SOAPFactory factory = OMAbstractFactory.getSOAP11Factory();
+        SOAPEnvelope envelope = factory.getDefaultEnvelope();
+        factory.createOMElement("order", null, envelope.getBody()).setText("1");
+        return envelope;
+    }
+}
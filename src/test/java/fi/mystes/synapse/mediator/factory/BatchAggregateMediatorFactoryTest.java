@@ -0,0 +1,100 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.factory;
+
+import static org.junit.Assert.assertTrue;
+
+import javax.xml.namespace.QName;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.synapse.SynapseException;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.mystes.synapse.mediator.BatchAggregateMediator;
+import fi.mystes.synapse.mediator.config.BatchAggregateConstants;
+
+public class BatchAggregateMediatorFactoryTest {
+    private OMElement mediatorElement;
+    private OMElement onCompleteElement;
+    private OMFactory omFactory = OMAbstractFactory.getOMFactory();
+    private BatchAggregateMediatorFactory mediatorFactory;
+
+    @Before
+    public void setUp() {
+        mediatorElement = omFactory.createOMElement(BatchAggregateConstants.ROOT_TAG);
+        mediatorElement.addAttribute("id", "orders", null);
+        onCompleteElement = omFactory.createOMElement(BatchAggregateConstants.ON_COMPLETE_TAG);
+        mediatorElement.addChild(onCompleteElement);
+        OMElement sendElement = omFactory
+                .createOMElement(new QName(BatchAggregateConstants.NAMESPACE_STRING, "send"));
+        onCompleteElement.addChild(sendElement);
+        mediatorFactory = new BatchAggregateMediatorFactory();
+    }
+
+    @Test
+    public void shouldCreateBatchAggregateMediatorFromOMElement() {
+        mediatorElement.addAttribute("expression", "//result", null);
+        mediatorElement.addAttribute("rootElement", "results", null);
+        mediatorElement.addAttribute("timeout", "30000", null);
+        BatchAggregateMediator mediator = (BatchAggregateMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected id to be orders", "orders".equals(mediator.getId()));
+        assertTrue("Expected expression to be //result", mediator.getExpression().toString().equals("//result"));
+        assertTrue("Expected rootElement to be results", "results".equals(mediator.getRootElement()));
+        assertTrue("Expected timeout to be 30000", mediator.getTimeout() == 30000);
+        assertTrue("Expected inline onComplete sequence with one mediator",
+                mediator.getOnCompleteSequence().getList().size() == 1);
+    }
+
+    @Test
+    public void shouldUseDefaultsForOptionalAttributes() {
+        BatchAggregateMediator mediator = (BatchAggregateMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected no expression", mediator.getExpression() == null);
+        assertTrue("Expected default rootElement",
+                BatchAggregateConstants.DEFAULT_ROOT_ELEMENT.equals(mediator.getRootElement()));
+        assertTrue("Expected default timeout", mediator.getTimeout() == BatchAggregateConstants.DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    public void shouldCreateOnCompleteSequenceReference() {
+        onCompleteElement.addAttribute("sequence", "aggregated", null);
+        BatchAggregateMediator mediator = (BatchAggregateMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected onComplete sequence reference", "aggregated".equals(mediator.getOnCompleteSequenceRef()));
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToMissingId() {
+        mediatorElement.removeAttribute(mediatorElement.getAttribute(new QName("id")));
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToMissingOnComplete() {
+        onCompleteElement.detach();
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToInvalidTimeout() {
+        mediatorElement.addAttribute("timeout", "0", null);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+}
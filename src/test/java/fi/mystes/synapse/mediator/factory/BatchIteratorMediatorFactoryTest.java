@@ -27,7 +27,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import fi.mystes.synapse.mediator.BatchIteratorMediator;
+import fi.mystes.synapse.mediator.batch.AdaptiveBatchSizeController;
 import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+import fi.mystes.synapse.mediator.dispatch.BatchExecutorConfig;
 
 public class BatchIteratorMediatorFactoryTest {
     private OMElement mediatorElement;
@@ -70,4 +72,385 @@ public class BatchIteratorMediatorFactoryTest {
                 .createSpecificMediator(mediatorElement, null);
         assertTrue("Expected batchSize to be set to 1", batchIteratorMediator.getBatchSize() == 1);
     }
+
+    @Test
+    public void shouldCreateStreamingBatchMediator() {
+        mediatorElement.addAttribute("streaming", "true", null);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected streaming to be true", batchIteratorMediator.isStreaming());
+    }
+
+    @Test
+    public void shouldCreatePipelinedBatchMediator() {
+        mediatorElement.addAttribute("pipelined", "true", null);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected pipelined to be true", batchIteratorMediator.isPipelined());
+    }
+
+    @Test
+    public void shouldCreateFailFastBatchMediator() {
+        mediatorElement.addAttribute("failFast", "true", null);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected failFast to be true", batchIteratorMediator.isFailFast());
+    }
+
+    @Test
+    public void shouldCreateOrderedBatchMediator() {
+        mediatorElement.addAttribute("ordered", "true", null);
+        OMElement releaseElement = omFactory.createOMElement(BatchIteratorConstants.RELEASE_TAG);
+        releaseElement.addChild(omFactory.createOMElement(new QName(BatchIteratorConstants.NAMESPACE_STRING, "send")));
+        mediatorElement.addChild(releaseElement);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected ordered to be true", batchIteratorMediator.isOrdered());
+        assertTrue("Expected inline release sequence with one mediator",
+                batchIteratorMediator.getReleaseSequence().getList().size() == 1);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToMissingReleaseSequence() {
+        mediatorElement.addAttribute("ordered", "true", null);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToOrderedSequentialTarget() {
+        mediatorElement.addAttribute("ordered", "true", null);
+        mediatorElement.addAttribute("sequential", "true", null);
+        OMElement releaseElement = omFactory.createOMElement(BatchIteratorConstants.RELEASE_TAG);
+        releaseElement.addAttribute("sequence", "release", null);
+        mediatorElement.addChild(releaseElement);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test
+    public void shouldCreateBisectingBatchMediator() {
+        OMElement poisonElement = omFactory.createOMElement(BatchIteratorConstants.POISON_TAG);
+        poisonElement.addAttribute("sequence", "poison", null);
+        mediatorElement.addChild(poisonElement);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected poison sequence reference to be poison",
+                "poison".equals(batchIteratorMediator.getPoisonSequenceRef()));
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToPoisonSequenceInLineMode() {
+        mediatorElement.addAttribute("splitLines", "true", null);
+        OMElement poisonElement = omFactory.createOMElement(BatchIteratorConstants.POISON_TAG);
+        poisonElement.addAttribute("sequence", "poison", null);
+        mediatorElement.addChild(poisonElement);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test
+    public void shouldCreateCheckpointedBatchMediator() {
+        mediatorElement.addAttribute("sequential", "true", null);
+        OMElement checkpointElement = omFactory.createOMElement(BatchIteratorConstants.CHECKPOINT_TAG);
+        checkpointElement.addAttribute("directory", "checkpoints", null);
+        checkpointElement.addAttribute("key", "get-property('jobId')", null);
+        mediatorElement.addChild(checkpointElement);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected checkpoint directory to be checkpoints",
+                batchIteratorMediator.getCheckpointStore().getDirectory().getPath().equals("checkpoints"));
+        assertTrue("Expected checkpoint key expression",
+                batchIteratorMediator.getCheckpointKey().toString().equals("get-property('jobId')"));
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToCheckpointWithAsynchronousTarget() {
+        OMElement checkpointElement = omFactory.createOMElement(BatchIteratorConstants.CHECKPOINT_TAG);
+        checkpointElement.addAttribute("directory", "checkpoints", null);
+        mediatorElement.addChild(checkpointElement);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test
+    public void shouldCreatePropertyFilter() {
+        OMElement clonePropertiesElement = omFactory.createOMElement(BatchIteratorConstants.CLONE_PROPERTIES_TAG);
+        clonePropertiesElement.addAttribute("exclude", "originalPayload,cache.*", null);
+        mediatorElement.addChild(clonePropertiesElement);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected originalPayload not to be cloned",
+                !batchIteratorMediator.getCloneProperties().accepts("originalPayload"));
+        assertTrue("Expected orderId to be cloned", batchIteratorMediator.getCloneProperties().accepts("orderId"));
+    }
+
+    @Test
+    public void shouldCreateProjection() {
+        OMElement projectionElement = omFactory.createOMElement(BatchIteratorConstants.PROJECTION_TAG);
+        projectionElement.addAttribute("keep", "id,customer/name", null);
+        mediatorElement.addChild(projectionElement);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected projection keeping id,customer/name",
+                batchIteratorMediator.getProjection().getKeep().equals("id,customer/name"));
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToEmptyProjection() {
+        mediatorElement.addChild(omFactory.createOMElement(BatchIteratorConstants.PROJECTION_TAG));
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToEmptyPropertyFilter() {
+        mediatorElement.addChild(omFactory.createOMElement(BatchIteratorConstants.CLONE_PROPERTIES_TAG));
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToComplexStreamingExpression() {
+        mediatorElement.addAttribute("streaming", "true", null);
+        mediatorElement.addAttribute("expression", "//iterate[@id='1']", null);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test
+    public void shouldCreateBatchMediatorWithMaxConcurrentBatches() {
+        mediatorElement.addAttribute("maxConcurrentBatches", "5", null);
+        addExecutor();
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected maxConcurrentBatches to be set to 5",
+                batchIteratorMediator.getMaxConcurrentBatches() == 5);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToMaxConcurrentBatchesWithoutExecutor() {
+        mediatorElement.addAttribute("maxConcurrentBatches", "5", null);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToZeroMaxConcurrentBatches() {
+        mediatorElement.addAttribute("maxConcurrentBatches", "0", null);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test
+    public void shouldCreateBatchMediatorWithMemoryBudget() {
+        mediatorElement.addAttribute("maxConcurrentBatches", "5", null);
+        addExecutor();
+        mediatorElement.addAttribute("memoryBudget", "1048576", null);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected memoryBudget to be set to 1048576",
+                batchIteratorMediator.getMemoryBudget() == 1048576L);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToMemoryBudgetWithoutMaxConcurrentBatches() {
+        mediatorElement.addAttribute("memoryBudget", "1048576", null);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test
+    public void shouldCreateRateLimitedBatchMediator() {
+        mediatorElement.addAttribute("maxBatchesPerSecond", "2.5", null);
+        mediatorElement.addAttribute("burstSize", "5", null);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected maxBatchesPerSecond to be set to 2.5",
+                batchIteratorMediator.getMaxBatchesPerSecond() == 2.5);
+        assertTrue("Expected burstSize to be set to 5", batchIteratorMediator.getBurstSize() == 5);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToZeroMaxBatchesPerSecond() {
+        mediatorElement.addAttribute("maxBatchesPerSecond", "0", null);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToBurstSizeWithoutMaxBatchesPerSecond() {
+        mediatorElement.addAttribute("burstSize", "5", null);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test
+    public void shouldCreateAccumulatingBatchMediator() {
+        mediatorElement.addAttribute("maxWaitMillis", "500", null);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected maxWaitMillis to be set to 500", batchIteratorMediator.getMaxWaitMillis() == 500);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToMaxWaitMillisWithFailFast() {
+        mediatorElement.addAttribute("maxWaitMillis", "500", null);
+        mediatorElement.addAttribute("failFast", "true", null);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test
+    public void shouldCreateBatchMediatorWithExecutor() {
+        OMElement executorElement = omFactory
+                .createOMElement(new QName(BatchIteratorConstants.NAMESPACE_STRING, "executor"));
+        executorElement.addAttribute("name", "batchPool", null);
+        executorElement.addAttribute("poolSize", "4", null);
+        executorElement.addAttribute("queueLength", "100", null);
+        executorElement.addAttribute("rejectionPolicy", "callerRuns", null);
+        mediatorElement.addChild(executorElement);
+
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        BatchExecutorConfig config = batchIteratorMediator.getExecutorConfig();
+        assertTrue("Expected executor name to be batchPool", config.getName().equals("batchPool"));
+        assertTrue("Expected pool size to be 4", config.getPoolSize() == 4);
+        assertTrue("Expected queue length to be 100", config.getQueueLength() == 100);
+        assertTrue("Expected rejection policy to be callerRuns",
+                config.getRejectionPolicy() == BatchExecutorConfig.RejectionPolicy.CALLER_RUNS);
+        assertTrue("Expected virtual threads to be disabled", !config.isVirtualThreads());
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToUnknownRejectionPolicy() {
+        OMElement executorElement = omFactory
+                .createOMElement(new QName(BatchIteratorConstants.NAMESPACE_STRING, "executor"));
+        executorElement.addAttribute("name", "batchPool", null);
+        executorElement.addAttribute("rejectionPolicy", "discard", null);
+        mediatorElement.addChild(executorElement);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test
+    public void shouldCreateBatchMediatorWithByteAndWeightLimits() {
+        mediatorElement.removeAttribute(mediatorElement.getAttribute(new QName("batchSize")));
+        mediatorElement.addAttribute("maxBatchBytes", "65536", null);
+        mediatorElement.addAttribute("weightExpression", "@weight", null);
+        mediatorElement.addAttribute("maxBatchWeight", "10.5", null);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected batchSize not to be set", batchIteratorMediator.getBatchSize() == null);
+        assertTrue("Expected maxBatchBytes to be 65536", batchIteratorMediator.getMaxBatchBytes() == 65536L);
+        assertTrue("Expected weightExpression to be @weight",
+                batchIteratorMediator.getWeightExpression().toString().equals("@weight"));
+        assertTrue("Expected maxBatchWeight to be 10.5", batchIteratorMediator.getMaxBatchWeight() == 10.5);
+    }
+
+    @Test
+    public void shouldCreatePartitionedBatchMediator() {
+        mediatorElement.addAttribute("partitionExpression", "@customer", null);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected partitionExpression to be @customer",
+                batchIteratorMediator.getPartitionExpression().toString().equals("@customer"));
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToPartitionExpressionWithMemoryBudget() {
+        mediatorElement.addAttribute("partitionExpression", "@customer", null);
+        mediatorElement.addAttribute("maxConcurrentBatches", "5", null);
+        mediatorElement.addAttribute("memoryBudget", "1048576", null);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToWeightExpressionWithoutMaxBatchWeight() {
+        mediatorElement.addAttribute("weightExpression", "@weight", null);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToZeroMaxBatchBytes() {
+        mediatorElement.addAttribute("maxBatchBytes", "0", null);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test
+    public void shouldCreateBatchMediatorWithAdaptiveBatchSize() {
+        OMElement adaptiveElement = omFactory
+                .createOMElement(new QName(BatchIteratorConstants.NAMESPACE_STRING, "adaptive"));
+        adaptiveElement.addAttribute("minBatchSize", "2", null);
+        adaptiveElement.addAttribute("maxBatchSize", "50", null);
+        adaptiveElement.addAttribute("targetLatency", "1000", null);
+        mediatorElement.addChild(adaptiveElement);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+
+        AdaptiveBatchSizeController controller = batchIteratorMediator.getAdaptiveBatchSize();
+        assertTrue("Expected adaptive batch size to be set", controller != null);
+        assertTrue("Expected minBatchSize to be 2", controller.getMinBatchSize() == 2);
+        assertTrue("Expected maxBatchSize to be 50", controller.getMaxBatchSize() == 50);
+        assertTrue("Expected targetLatency to be 1000", controller.getTargetLatency() == 1000);
+        assertTrue("Expected increment to default to 1", controller.getIncrement() == 1);
+        assertTrue("Expected batchSize 3 to be the initial size", controller.getBatchSize() == 3);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToMissingTargetLatency() {
+        OMElement adaptiveElement = omFactory
+                .createOMElement(new QName(BatchIteratorConstants.NAMESPACE_STRING, "adaptive"));
+        adaptiveElement.addAttribute("minBatchSize", "2", null);
+        adaptiveElement.addAttribute("maxBatchSize", "50", null);
+        mediatorElement.addChild(adaptiveElement);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test
+    public void shouldCreateJsonBatchMediatorWithoutExpression() {
+        mediatorElement.removeAttribute(mediatorElement.getAttribute(new QName("expression")));
+        mediatorElement.addAttribute("jsonPath", "$.data.orders", null);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected jsonPath to be $.data.orders",
+                batchIteratorMediator.getJsonPath().toString().equals("$.data.orders"));
+        assertTrue("Expected original element to be left without expression",
+                mediatorElement.getAttribute(new QName("expression")) == null);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToInvalidJsonPath() {
+        mediatorElement.addAttribute("jsonPath", "$.orders[0]", null);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToStreamingJsonPath() {
+        mediatorElement.addAttribute("jsonPath", "$.orders", null);
+        mediatorElement.addAttribute("streaming", "true", null);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test
+    public void shouldCreateLineBatchMediatorWithoutExpression() {
+        mediatorElement.removeAttribute(mediatorElement.getAttribute(new QName("expression")));
+        mediatorElement.addAttribute("splitLines", "true", null);
+        mediatorElement.addAttribute("keepHeader", "true", null);
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected splitLines to be true", batchIteratorMediator.isSplitLines());
+        assertTrue("Expected keepHeader to be true", batchIteratorMediator.isKeepHeader());
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldThrowExceptionDueToKeepHeaderWithoutSplitLines() {
+        mediatorElement.addAttribute("keepHeader", "true", null);
+        mediatorFactory.createSpecificMediator(mediatorElement, null);
+    }
+
+    @Test
+    public void shouldCompileSimpleExpressionOnly() {
+        BatchIteratorMediator batchIteratorMediator = (BatchIteratorMediator) mediatorFactory
+                .createSpecificMediator(mediatorElement, null);
+        assertTrue("Expected //iterate to be compiled", batchIteratorMediator.getSimplePath() != null);
+
+        mediatorElement.addAttribute("expression", "//iterate[@id='1']", null);
+        batchIteratorMediator = (BatchIteratorMediator) mediatorFactory.createSpecificMediator(mediatorElement,
+                null);
+        assertTrue("Expected predicate to be evaluated with Jaxen", batchIteratorMediator.getSimplePath() == null);
+    }
+
+    private void addExecutor() {
+        OMElement executorElement = omFactory
+                .createOMElement(new QName(BatchIteratorConstants.NAMESPACE_STRING, "executor"));
+        executorElement.addAttribute("name", "batchPool", null);
+        mediatorElement.addChild(executorElement);
+    }
 }
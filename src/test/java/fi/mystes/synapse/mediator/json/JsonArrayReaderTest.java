@@ -0,0 +1,86 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.json;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class JsonArrayReaderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void shouldReadElementsOfRootArray() throws IOException {
+        List<String> elements = readAll("[1, \"two\", {\"three\": [3]}, [4, 4], true, null]", "$");
+        assertTrue("Expected 6 elements", elements.size() == 6);
+        assertTrue("Expected number as such", elements.get(0).equals("1"));
+        assertTrue("Expected string with quotes", elements.get(1).equals("\"two\""));
+        assertTrue("Expected object as written", elements.get(2).equals("{\"three\": [3]}"));
+        assertTrue("Expected nested array as written", elements.get(3).equals("[4, 4]"));
+        assertTrue("Expected null literal", elements.get(5).equals("null"));
+    }
+
+    @Test
+    public void shouldReadElementsOfNestedArrayAndSkipOtherMembers() throws IOException {
+        String json = "{\"meta\": {\"orders\": [\"not these\"], \"note\": \"a ] in } a string\"},"
+                + " \"data\": {\"count\": 2, \"orders\": [{\"id\": \"a\\\"]\"}, {\"id\": \"ä\"}]}}";
+        List<String> elements = readAll(json, "$.data.orders");
+        assertTrue("Expected 2 elements", elements.size() == 2);
+        assertTrue("Expected escaped quote inside string", elements.get(0).equals("{\"id\": \"a\\\"]\"}"));
+        assertTrue("Expected multi-byte character as such", elements.get(1).equals("{\"id\": \"ä\"}"));
+    }
+
+    @Test
+    public void shouldReadNothingIfPathDoesNotExist() throws IOException {
+        assertTrue("Expected no elements", readAll("{\"data\": {\"items\": [1]}}", "$.data.orders").isEmpty());
+        assertTrue("Expected no elements for empty array", readAll("{\"data\": []}", "$.data").isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldThrowExceptionIfPathIsNotArray() throws IOException {
+        readAll("{\"data\": {\"orders\": 1}}", "$.data.orders");
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldThrowExceptionOnTruncatedJson() throws IOException {
+        readAll("{\"orders\": [{\"id\": 1}, {\"id\"", "$.orders");
+    }
+
+    @Test
+    public void shouldCompileDotSeparatedPaths() {
+        assertTrue("Expected root path to compile", JsonPath.compile("$").getNames().length == 0);
+        assertTrue("Expected two names", JsonPath.compile("$.data.orders").getNames().length == 2);
+        assertTrue("Expected path without root to be rejected", JsonPath.compile("data.orders") == null);
+        assertTrue("Expected empty name to be rejected", JsonPath.compile("$.data..orders") == null);
+    }
+
+    private List<String> readAll(String json, String path) throws IOException {
+        JsonArrayReader reader = new JsonArrayReader(new ByteArrayInputStream(json.getBytes(UTF8)),
+                JsonPath.compile(path));
+        List<String> elements = new ArrayList<String>();
+        for (byte[] element = reader.next(); element != null; element = reader.next()) {
+            elements.add(new String(element, UTF8));
+        }
+        return elements;
+    }
+}
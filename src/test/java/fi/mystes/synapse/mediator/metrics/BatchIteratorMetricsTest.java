@@ -0,0 +1,62 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.metrics;
+
+import static org.junit.Assert.assertTrue;
+
+import org.apache.synapse.SynapseException;
+import org.junit.Test;
+
+import fi.mystes.synapse.mediator.batch.AdaptiveBatchSizeController;
+
+public class BatchIteratorMetricsTest {
+
+    private BatchIteratorMetrics metrics = new BatchIteratorMetrics();
+
+    @Test
+    public void shouldCountBatchesAndElements() {
+        metrics.batchDispatched(3);
+        metrics.batchDispatched(1);
+        assertTrue("Expected two batches", metrics.getBatchCount() == 2);
+        assertTrue("Expected four elements", metrics.getElementCount() == 4);
+        assertTrue("Expected average batch size of 2", metrics.getAverageBatchSize() == 2.0);
+        assertTrue("Expected two batches in flight", metrics.getInFlightBatchCount() == 2);
+
+        metrics.batchCompleted(null, 3, System.nanoTime(), null);
+        metrics.batchCompleted(null, 1, System.nanoTime(), new SynapseException("failure"));
+        assertTrue("Expected no batches in flight", metrics.getInFlightBatchCount() == 0);
+        assertTrue("Expected one failed batch", metrics.getFailedBatchCount() == 1);
+    }
+
+    @Test
+    public void shouldReportTimesInMilliseconds() {
+        metrics.splitTime(3000000L);
+        metrics.cloneTime(1000000L);
+        metrics.cloneTime(2000000L);
+        assertTrue("Expected split time of 3 ms", metrics.getTotalSplitTimeMillis() == 3.0);
+        assertTrue("Expected average clone time of 1.5 ms", metrics.getAverageCloneTimeMillis() == 1.5);
+    }
+
+    @Test
+    public void shouldReportAdaptiveBatchSize() {
+        assertTrue("Expected -1 without adaptive batch size", metrics.getAdaptiveBatchSize() == -1);
+        AdaptiveBatchSizeController controller = new AdaptiveBatchSizeController(1, 10, 500, 1, 4);
+        metrics.setAdaptiveBatchSize(controller);
+        controller.recordBatch(4, 0, 1, false);
+        assertTrue("Expected adaptive batch size of 5", metrics.getAdaptiveBatchSize() == 5);
+        assertTrue("Expected one adjustment in history", metrics.getAdaptiveBatchSizeHistory().length == 1);
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.metrics;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void shouldPutValuesIntoPowerOfTwoBuckets() {
+        assertTrue("Expected 0 in bucket 0", Histogram.bucketOf(0) == 0);
+        assertTrue("Expected 1 in bucket 1", Histogram.bucketOf(1) == 1);
+        assertTrue("Expected 3 in bucket 2", Histogram.bucketOf(3) == 2);
+        assertTrue("Expected 4 in bucket 3", Histogram.bucketOf(4) == 3);
+        assertTrue("Expected max value in last bucket", Histogram.bucketOf(Long.MAX_VALUE) == 63);
+    }
+
+    @Test
+    public void shouldReportCountMeanAndPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 98; i++) {
+            histogram.record(10);
+        }
+        histogram.record(100);
+        histogram.record(1000);
+
+        assertTrue("Expected count of 100", histogram.getCount() == 100);
+        assertTrue("Expected mean of 20.8", histogram.getMean() == 20.8);
+        assertTrue("Expected median in bucket 8-15", histogram.getPercentile(50) == 15);
+        assertTrue("Expected 99th percentile in bucket 64-127", histogram.getPercentile(99) == 127);
+        assertTrue("Expected maximum in bucket 512-1023", histogram.getPercentile(100) == 1023);
+        assertTrue("Expected distribution of three buckets",
+                histogram.getDistribution().equals("8-15: 98, 64-127: 1, 512-1023: 1"));
+    }
+
+    @Test
+    public void shouldClearValuesOnReset() {
+        Histogram histogram = new Histogram();
+        histogram.record(5);
+        histogram.reset();
+        assertTrue("Expected count of 0", histogram.getCount() == 0);
+        assertTrue("Expected percentile of 0", histogram.getPercentile(50) == 0);
+        assertTrue("Expected empty distribution", histogram.getDistribution().isEmpty());
+    }
+}
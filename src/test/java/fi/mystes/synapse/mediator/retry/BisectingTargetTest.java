@@ -0,0 +1,133 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.retry;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNode;
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseException;
+import org.apache.synapse.mediators.AbstractMediator;
+import org.apache.synapse.mediators.eip.Target;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class BisectingTargetTest {
+
+    private OMFactory factory = OMAbstractFactory.getOMFactory();
+
+    private Map<MessageContext, List<OMNode>> payloads = new IdentityHashMap<MessageContext, List<OMNode>>();
+
+    private List<String> succeeded = new ArrayList<String>();
+
+    private List<String> poisoned = new ArrayList<String>();
+
+    private int attempts;
+
+    private Target delegate = new Target() {
+        @Override
+        public boolean mediate(MessageContext synCtx) {
+            attempts++;
+            List<String> texts = textsOf(payloads.get(synCtx));
+            if (texts.contains("bad")) {
+                throw new SynapseException("bad element");
+            }
+            succeeded.addAll(texts);
+            return true;
+        }
+    };
+
+    private AbstractMediator poison = new AbstractMediator() {
+        @Override
+        public boolean mediate(MessageContext synCtx) {
+            poisoned.addAll(textsOf(payloads.get(synCtx)));
+            return true;
+        }
+    };
+
+    private BisectingTarget bisector = new BisectingTarget(delegate, poison, new BisectingTarget.BatchFactory() {
+        @Override
+        public MessageContext createBatch(int number, int count, List<OMNode> elements) {
+            return batchOf(elements);
+        }
+    });
+
+    @Test
+    public void shouldPassOnlyFailingElementsToPoisonMediator() {
+        MessageContext batch = register("a", "bad", "c", "d", "bad", "f");
+        assertTrue("Expected batch to be handled", bisector.mediate(batch));
+        assertTrue("Expected both failing elements to be poisoned, got " + poisoned,
+                poisoned.size() == 2 && poisoned.get(0).equals("bad") && poisoned.get(1).equals("bad"));
+        assertTrue("Expected every other element to succeed once, got " + succeeded,
+                succeeded.size() == 4 && succeeded.containsAll(Arrays.asList("a", "c", "d", "f")));
+    }
+
+    @Test
+    public void shouldNotRetrySucceededBatch() {
+        MessageContext batch = register("a", "b", "c");
+        bisector.mediate(batch);
+        assertTrue("Expected a single attempt", attempts == 1);
+        assertTrue("Expected nothing to be poisoned", poisoned.isEmpty());
+    }
+
+    @Test(expected = SynapseException.class)
+    public void shouldNotBisectUnregisteredBatch() {
+        bisector.mediate(batchOf(elements("a", "bad")));
+    }
+
+    private MessageContext register(String... texts) {
+        List<OMNode> elements = elements(texts);
+        List<OMNode> copies = BisectingTarget.copyOf(elements);
+        MessageContext batch = batchOf(elements);
+        bisector.register(batch, 0, 1, copies);
+        return batch;
+    }
+
+    private MessageContext batchOf(List<OMNode> elements) {
+        MessageContext batch = Mockito.mock(MessageContext.class);
+        payloads.put(batch, elements);
+        return batch;
+    }
+
+    private List<OMNode> elements(String... texts) {
+        List<OMNode> elements = new ArrayList<OMNode>();
+        for (String text : texts) {
+            OMElement element = factory.createOMElement(new QName("iterate"));
+            element.setText(text);
+            elements.add(element);
+        }
+        return elements;
+    }
+
+    private static List<String> textsOf(List<OMNode> elements) {
+        List<String> texts = new ArrayList<String>();
+        for (OMNode node : elements) {
+            texts.add(((OMElement) node).getText());
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.serializer;
+
+import static org.junit.Assert.assertTrue;
+
+import javax.xml.namespace.QName;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.synapse.mediators.base.SequenceMediator;
+import org.apache.synapse.util.xpath.SynapseXPath;
+import org.jaxen.JaxenException;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.mystes.synapse.mediator.BatchAggregateMediator;
+import fi.mystes.synapse.mediator.config.BatchAggregateConstants;
+
+public class BatchAggregateMediatorSerializerTest {
+
+    private BatchAggregateMediatorSerializer serializer;
+    private BatchAggregateMediator mediator;
+
+    @Before
+    public void setUp() {
+        serializer = new BatchAggregateMediatorSerializer();
+        mediator = new BatchAggregateMediator();
+        mediator.setId("orders");
+        mediator.setOnCompleteSequence(new SequenceMediator());
+    }
+
+    @Test
+    public void shouldSerializeBatchAggregateMediator() throws JaxenException {
+        mediator.setExpression(new SynapseXPath("//result"));
+        mediator.setRootElement("results");
+        mediator.setTimeout(30000);
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        assertTrue("Element name must be " + BatchAggregateConstants.ROOT_TAG_NAME,
+                mediatorElement.getLocalName().equals(BatchAggregateConstants.ROOT_TAG_NAME));
+        assertTrue("id should contain value of orders",
+                mediatorElement.getAttributeValue(new QName(BatchAggregateConstants.ATT_ID)).equals("orders"));
+        assertTrue("expression should contain value of //result", mediatorElement
+                .getAttributeValue(new QName(BatchAggregateConstants.ATT_EXPRESSION)).equals("//result"));
+        assertTrue("rootElement should contain value of results", mediatorElement
+                .getAttributeValue(new QName(BatchAggregateConstants.ATT_ROOT_ELEMENT)).equals("results"));
+        assertTrue("timeout should contain value of 30000",
+                mediatorElement.getAttributeValue(new QName(BatchAggregateConstants.ATT_TIMEOUT)).equals("30000"));
+        assertTrue("onComplete element should be present",
+                mediatorElement.getFirstChildWithName(BatchAggregateConstants.ON_COMPLETE_TAG) != null);
+    }
+
+    @Test
+    public void shouldNotSerializeDefaults() {
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        assertTrue("expression should not be present",
+                mediatorElement.getAttributeValue(new QName(BatchAggregateConstants.ATT_EXPRESSION)) == null);
+        assertTrue("rootElement should not be present",
+                mediatorElement.getAttributeValue(new QName(BatchAggregateConstants.ATT_ROOT_ELEMENT)) == null);
+        assertTrue("timeout should not be present",
+                mediatorElement.getAttributeValue(new QName(BatchAggregateConstants.ATT_TIMEOUT)) == null);
+    }
+
+    @Test
+    public void shouldSerializeOnCompleteSequenceReference() {
+        mediator.setOnCompleteSequence(null);
+        mediator.setOnCompleteSequenceRef("aggregated");
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        OMElement onComplete = mediatorElement.getFirstChildWithName(BatchAggregateConstants.ON_COMPLETE_TAG);
+        assertTrue("onComplete sequence should contain value of aggregated",
+                onComplete.getAttributeValue(new QName(BatchAggregateConstants.ATT_SEQUENCE)).equals("aggregated"));
+    }
+}
@@ -17,6 +17,8 @@ package fi.mystes.synapse.mediator.serializer;
 
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+
 import javax.xml.namespace.QName;
 
 import org.apache.axiom.om.OMElement;
@@ -28,7 +30,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import fi.mystes.synapse.mediator.BatchIteratorMediator;
+import fi.mystes.synapse.mediator.batch.AdaptiveBatchSizeController;
+import fi.mystes.synapse.mediator.checkpoint.CheckpointStore;
 import fi.mystes.synapse.mediator.config.BatchIteratorConstants;
+import fi.mystes.synapse.mediator.context.PropertyFilter;
+import fi.mystes.synapse.mediator.dispatch.BatchExecutorConfig;
+import fi.mystes.synapse.mediator.json.JsonPath;
+import fi.mystes.synapse.mediator.split.ElementProjection;
 
 public class BatchIteratorMediatorSerializerTest {
 
@@ -68,4 +76,240 @@ public class BatchIteratorMediatorSerializerTest {
         assertTrue("expression should contain value of //iterate",
                 mediatorElement.getAttributeValue(new QName("expression")).equals("//iterate"));
     }
+
+    @Test
+    public void shouldSerializeStreamingAttribute() {
+        assertTrue("streaming should not be present due to false value", serializer.serializeSpecificMediator(mediator)
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_STREAMING)) == null);
+
+        mediator.setStreaming(true);
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        assertTrue("streaming should contain value of true",
+                mediatorElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_STREAMING)).equals("true"));
+    }
+
+    @Test
+    public void shouldSerializePipelinedAttribute() {
+        assertTrue("pipelined should not be present due to false value", serializer.serializeSpecificMediator(mediator)
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_PIPELINED)) == null);
+
+        mediator.setPipelined(true);
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        assertTrue("pipelined should contain value of true",
+                mediatorElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_PIPELINED)).equals("true"));
+    }
+
+    @Test
+    public void shouldSerializeFailFastAttribute() {
+        assertTrue("failFast should not be present due to false value", serializer.serializeSpecificMediator(mediator)
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_FAIL_FAST)) == null);
+
+        mediator.setFailFast(true);
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        assertTrue("failFast should contain value of true",
+                mediatorElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_FAIL_FAST)).equals("true"));
+    }
+
+    @Test
+    public void shouldSerializeMaxWaitMillisAttribute() {
+        mediator.setMaxWaitMillis(500L);
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        assertTrue("maxWaitMillis should contain value of 500",
+                mediatorElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_MAX_WAIT_MILLIS)).equals("500"));
+    }
+
+    @Test
+    public void shouldSerializeOrderedModeWithReleaseSequence() {
+        mediator.setOrdered(true);
+        mediator.setReleaseSequenceRef("release");
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        assertTrue("ordered should contain value of true",
+                mediatorElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_ORDERED)).equals("true"));
+        OMElement releaseElement = mediatorElement.getFirstChildWithName(BatchIteratorConstants.RELEASE_TAG);
+        assertTrue("onRelease sequence should contain value of release", releaseElement
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_SEQUENCE)).equals("release"));
+    }
+
+    @Test
+    public void shouldSerializePoisonSequence() {
+        assertTrue("onPoison should not be present without poison sequence", serializer
+                .serializeSpecificMediator(mediator).getFirstChildWithName(BatchIteratorConstants.POISON_TAG) == null);
+
+        mediator.setPoisonSequenceRef("poison");
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        OMElement poisonElement = mediatorElement.getFirstChildWithName(BatchIteratorConstants.POISON_TAG);
+        assertTrue("onPoison sequence should contain value of poison",
+                poisonElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_SEQUENCE)).equals("poison"));
+    }
+
+    @Test
+    public void shouldSerializePropertyFilter() {
+        mediator.setCloneProperties(new PropertyFilter("orderId", "cache.*"));
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        OMElement clonePropertiesElement = mediatorElement
+                .getFirstChildWithName(BatchIteratorConstants.CLONE_PROPERTIES_TAG);
+        assertTrue("include should contain value of orderId", clonePropertiesElement
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_INCLUDE)).equals("orderId"));
+        assertTrue("exclude should contain value of cache.*", clonePropertiesElement
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_EXCLUDE)).equals("cache.*"));
+    }
+
+    @Test
+    public void shouldSerializeProjection() {
+        mediator.setProjection(new ElementProjection(null, "audit,document/content"));
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        OMElement projectionElement = mediatorElement.getFirstChildWithName(BatchIteratorConstants.PROJECTION_TAG);
+        assertTrue("keep should not be present", projectionElement
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_KEEP)) == null);
+        assertTrue("drop should contain value of audit,document/content", projectionElement
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_DROP)).equals("audit,document/content"));
+    }
+
+    @Test
+    public void shouldSerializeCheckpoint() throws JaxenException {
+        mediator.setCheckpointStore(new CheckpointStore(new File("checkpoints")));
+        mediator.setCheckpointKey(new SynapseXPath("get-property('jobId')"));
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        OMElement checkpointElement = mediatorElement.getFirstChildWithName(BatchIteratorConstants.CHECKPOINT_TAG);
+        assertTrue("directory should contain value of checkpoints", checkpointElement
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_DIRECTORY)).equals("checkpoints"));
+        assertTrue("key should contain value of get-property('jobId')", checkpointElement
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_KEY)).equals("get-property('jobId')"));
+    }
+
+    @Test
+    public void shouldSerializeMaxConcurrentBatchesAttribute() {
+        mediator.setMaxConcurrentBatches(8);
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        assertTrue("maxConcurrentBatches should contain value of 8", mediatorElement
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_MAX_CONCURRENT_BATCHES)).equals("8"));
+    }
+
+    @Test
+    public void shouldSerializeMemoryBudgetAttribute() {
+        mediator.setMaxConcurrentBatches(8);
+        mediator.setMemoryBudget(1048576L);
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        assertTrue("memoryBudget should contain value of 1048576", mediatorElement
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_MEMORY_BUDGET)).equals("1048576"));
+    }
+
+    @Test
+    public void shouldSerializeRateLimitAttributes() {
+        mediator.setMaxBatchesPerSecond(2.5);
+        mediator.setBurstSize(5);
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        assertTrue("maxBatchesPerSecond should contain value of 2.5", mediatorElement
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_MAX_BATCHES_PER_SECOND)).equals("2.5"));
+        assertTrue("burstSize should contain value of 5",
+                mediatorElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_BURST_SIZE)).equals("5"));
+    }
+
+    @Test
+    public void shouldSerializeExecutorConfig() {
+        BatchExecutorConfig config = new BatchExecutorConfig("batchPool");
+        config.setPoolSize(4);
+        config.setVirtualThreads(true);
+        mediator.setExecutorConfig(config);
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        OMElement executorElement = mediatorElement.getFirstChildWithName(BatchIteratorConstants.EXECUTOR_TAG);
+        assertTrue("executor element should be present", executorElement != null);
+        assertTrue("name should contain value of batchPool",
+                executorElement.getAttributeValue(new QName("name")).equals("batchPool"));
+        assertTrue("poolSize should contain value of 4",
+                executorElement.getAttributeValue(new QName("poolSize")).equals("4"));
+        assertTrue("queueLength should not be present due to unbounded queue",
+                executorElement.getAttributeValue(new QName("queueLength")) == null);
+        assertTrue("rejectionPolicy should contain value of block",
+                executorElement.getAttributeValue(new QName("rejectionPolicy")).equals("block"));
+        assertTrue("virtualThreads should contain value of true",
+                executorElement.getAttributeValue(new QName("virtualThreads")).equals("true"));
+    }
+
+    @Test
+    public void shouldSerializeByteAndWeightLimits() throws JaxenException {
+        mediator.setBatchSize(null);
+        mediator.setMaxBatchBytes(65536L);
+        mediator.setWeightExpression(new SynapseXPath("@weight"));
+        mediator.setMaxBatchWeight(10.5);
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        assertTrue("batchSize should not be present when other limits are set",
+                mediatorElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_BATCH_SIZE)) == null);
+        assertTrue("maxBatchBytes should contain value of 65536", mediatorElement
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_MAX_BATCH_BYTES)).equals("65536"));
+        assertTrue("weightExpression should contain value of @weight", mediatorElement
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_WEIGHT_EXPRESSION)).equals("@weight"));
+        assertTrue("maxBatchWeight should contain value of 10.5", mediatorElement
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_MAX_BATCH_WEIGHT)).equals("10.5"));
+    }
+
+    @Test
+    public void shouldSerializePartitionExpression() throws JaxenException {
+        mediator.setPartitionExpression(new SynapseXPath("@customer"));
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        assertTrue("partitionExpression should contain value of @customer", mediatorElement
+                .getAttributeValue(new QName(BatchIteratorConstants.ATT_PARTITION_EXPRESSION)).equals("@customer"));
+    }
+
+    @Test
+    public void shouldSerializeJsonPathWithoutPlaceholderExpression() throws JaxenException {
+        mediator.setJsonPath(JsonPath.compile("$.orders"));
+        mediator.setExpression(new SynapseXPath(BatchIteratorConstants.EXPRESSION_PLACEHOLDER));
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        assertTrue("jsonPath should contain value of $.orders",
+                mediatorElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_JSON_PATH)).equals("$.orders"));
+        assertTrue("placeholder expression should not be present",
+                mediatorElement.getAttributeValue(new QName("expression")) == null);
+    }
+
+    @Test
+    public void shouldSerializeLineModeAttributes() throws JaxenException {
+        mediator.setSplitLines(true);
+        mediator.setKeepHeader(true);
+        mediator.setExpression(new SynapseXPath(BatchIteratorConstants.EXPRESSION_PLACEHOLDER));
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        assertTrue("splitLines should contain value of true",
+                mediatorElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_SPLIT_LINES)).equals("true"));
+        assertTrue("keepHeader should contain value of true",
+                mediatorElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_KEEP_HEADER)).equals("true"));
+        assertTrue("placeholder expression should not be present",
+                mediatorElement.getAttributeValue(new QName("expression")) == null);
+    }
+
+    @Test
+    public void shouldSerializeAdaptiveBatchSize() {
+        mediator.setBatchSize(null);
+        mediator.setAdaptiveBatchSize(new AdaptiveBatchSizeController(2, 50, 1000, 5, 2));
+        OMElement mediatorElement = serializer.serializeSpecificMediator(mediator);
+
+        assertTrue("batchSize should not be present with adaptive batch size",
+                mediatorElement.getAttributeValue(new QName(BatchIteratorConstants.ATT_BATCH_SIZE)) == null);
+        OMElement adaptiveElement = mediatorElement.getFirstChildWithName(BatchIteratorConstants.ADAPTIVE_TAG);
+        assertTrue("adaptive element should be present", adaptiveElement != null);
+        assertTrue("minBatchSize should contain value of 2",
+                adaptiveElement.getAttributeValue(new QName("minBatchSize")).equals("2"));
+        assertTrue("maxBatchSize should contain value of 50",
+                adaptiveElement.getAttributeValue(new QName("maxBatchSize")).equals("50"));
+        assertTrue("targetLatency should contain value of 1000",
+                adaptiveElement.getAttributeValue(new QName("targetLatency")).equals("1000"));
+        assertTrue("increment should contain value of 5",
+                adaptiveElement.getAttributeValue(new QName("increment")).equals("5"));
+    }
 }
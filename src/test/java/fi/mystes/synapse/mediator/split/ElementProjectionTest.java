@@ -0,0 +1,71 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.split;
+
+import static org.junit.Assert.assertTrue;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.util.AXIOMUtil;
+import org.junit.Test;
+
+public class ElementProjectionTest {
+
+    private static final String ORDER = "<order xmlns=\"urn:orders\" type=\"web\"><id>1</id>"
+            + "<customer><name>Ann</name><address>Street 1</address></customer>"
+            + "<document><content>large</content><title>Terms</title></document>"
+            + "<audit><entry/></audit></order>";
+
+    @Test
+    public void shouldKeepOnlyGivenPaths() throws XMLStreamException {
+        OMElement order = AXIOMUtil.stringToOM(ORDER);
+        int removed = new ElementProjection("id, customer/name", null).apply(order);
+
+        assertTrue("Expected document, audit and address to be removed", removed == 3);
+        assertTrue("Expected id to be kept", child(order, "id") != null);
+        assertTrue("Expected customer name to be kept", child(child(order, "customer"), "name") != null);
+        assertTrue("Expected customer address to be removed", child(child(order, "customer"), "address") == null);
+        assertTrue("Expected attributes of the split element to be kept",
+                "web".equals(order.getAttributeValue(new QName("type"))));
+    }
+
+    @Test
+    public void shouldDropGivenPaths() throws XMLStreamException {
+        OMElement order = AXIOMUtil.stringToOM(ORDER);
+        new ElementProjection(null, "audit,document/content").apply(order);
+
+        assertTrue("Expected audit to be removed", child(order, "audit") == null);
+        assertTrue("Expected document content to be removed", child(child(order, "document"), "content") == null);
+        assertTrue("Expected document title to be kept", child(child(order, "document"), "title") != null);
+        assertTrue("Expected customer to be kept", child(order, "customer") != null);
+    }
+
+    @Test
+    public void shouldMatchAnyNameWithWildcard() throws XMLStreamException {
+        OMElement order = AXIOMUtil.stringToOM(ORDER);
+        new ElementProjection("*", "*/content,*/address").apply(order);
+
+        assertTrue("Expected document content to be removed", child(child(order, "document"), "content") == null);
+        assertTrue("Expected customer address to be removed", child(child(order, "customer"), "address") == null);
+        assertTrue("Expected customer name to be kept", child(child(order, "customer"), "name") != null);
+    }
+
+    private static OMElement child(OMElement parent, String localName) {
+        return parent.getFirstChildWithName(new QName("urn:orders", localName));
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.split;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.util.AXIOMUtil;
+import org.apache.synapse.util.xpath.SynapseXPath;
+import org.jaxen.JaxenException;
+import org.junit.Test;
+
+public class SimplePathTest {
+
+    private static final String SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+
+    @Test
+    public void shouldCompileSimplePaths() throws JaxenException {
+        assertNotNull("Expected //iterate to be simple", SimplePath.compile(new SynapseXPath("//iterate")));
+        assertNotNull("Expected /root/orders//order to be simple",
+                SimplePath.compile(new SynapseXPath("/root/orders//order")));
+    }
+
+    @Test
+    public void shouldNotCompileRealXPath() throws JaxenException {
+        assertNull("Expected predicate not to be simple", SimplePath.compile(new SynapseXPath("//order[1]")));
+        assertNull("Expected function not to be simple", SimplePath.compile(new SynapseXPath("count(//order)")));
+        assertNull("Expected relative path not to be simple", SimplePath.compile(new SynapseXPath("order")));
+        assertNull("Expected undeclared prefix not to be simple",
+                SimplePath.compile("//s11:Body/order", Collections.emptyMap()));
+    }
+
+    @Test
+    public void shouldMatchDescendantAndChildSteps() throws JaxenException {
+        SynapseXPath xpath = new SynapseXPath("//s11:Body/orders/order");
+        xpath.addNamespace("s11", SOAP_NS);
+        SimplePath path = SimplePath.compile(xpath);
+
+        List<QName> order = Arrays.asList(new QName(SOAP_NS, "Envelope"), new QName(SOAP_NS, "Body"),
+                new QName("orders"), new QName("order"));
+        List<QName> nestedOrder = Arrays.asList(new QName(SOAP_NS, "Envelope"), new QName(SOAP_NS, "Body"),
+                new QName("orders"), new QName("order"), new QName("order"));
+
+        assertTrue("Expected order to match", path.matches(order));
+        assertFalse("Expected nested order not to match", path.matches(nestedOrder));
+        assertFalse("Expected orders not to match", path.matches(order.subList(0, 3)));
+    }
+
+    @Test
+    public void shouldReadMatchingElementsFromStream() throws Exception {
+        String xml = "<orders><order id=\"1\"><item>a</item></order><skip><order id=\"2\"/></skip>"
+                + "<order id=\"3\"/></orders>";
+        XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(xml));
+        SimplePath path = SimplePath.compile(new SynapseXPath("//order"));
+        StreamingElementReader elements = new StreamingElementReader(reader, path,
+                Arrays.asList(new QName(SOAP_NS, "Envelope"), new QName(SOAP_NS, "Body")));
+
+        OMElement first = elements.next();
+        assertTrue("Expected first order", "1".equals(first.getAttributeValue(new QName("id"))));
+        assertTrue("Expected first order to contain item", first.getFirstElement().getText().equals("a"));
+        assertTrue("Expected second order", "2".equals(elements.next().getAttributeValue(new QName("id"))));
+        assertTrue("Expected third order", "3".equals(elements.next().getAttributeValue(new QName("id"))));
+        assertNull("Expected no more orders", elements.next());
+    }
+
+    @Test
+    public void shouldSelectMatchingElementsInDocumentOrder() throws Exception {
+        OMElement document = AXIOMUtil.stringToOM("<root><orders><order id=\"1\"><order id=\"2\"/></order>"
+                + "<skip><order id=\"3\"/></skip></orders><order id=\"4\"/></root>");
+
+        List<OMElement> all = SimplePath.compile(new SynapseXPath("//order")).select(document);
+        assertTrue("Expected four orders including nested one", all.size() == 4);
+        for (int i = 0; i < all.size(); i++) {
+            assertTrue("Expected orders in document order",
+                    String.valueOf(i + 1).equals(all.get(i).getAttributeValue(new QName("id"))));
+        }
+
+        List<OMElement> children = SimplePath.compile(new SynapseXPath("/root/orders/order")).select(document);
+        assertTrue("Expected only the direct child order", children.size() == 1);
+        assertTrue("Expected order 1", "1".equals(children.get(0).getAttributeValue(new QName("id"))));
+    }
+
+    @Test
+    public void shouldSelectNamespacedElements() throws Exception {
+        OMElement document = AXIOMUtil.stringToOM("<s11:Envelope xmlns:s11=\"" + SOAP_NS + "\"><s11:Body>"
+                + "<orders><order/><order/></orders></s11:Body></s11:Envelope>");
+        SynapseXPath xpath = new SynapseXPath("//s11:Body/orders/order");
+        xpath.addNamespace("s11", SOAP_NS);
+
+        assertTrue("Expected two orders", SimplePath.compile(xpath).select(document).size() == 2);
+    }
+}